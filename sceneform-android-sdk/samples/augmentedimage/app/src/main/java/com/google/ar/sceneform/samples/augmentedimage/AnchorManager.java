@@ -0,0 +1,150 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.util.Log;
+import com.google.ar.core.Anchor;
+import com.google.ar.core.AugmentedImage;
+import com.google.ar.core.Pose;
+import com.google.ar.sceneform.AnchorNode;
+import com.google.ar.sceneform.samples.augmentedimage.tracking.ImageNodeRegistry;
+
+/**
+ * Keeps at most one ARCore anchor per augmented image, since ARCore updates every anchor on every
+ * frame.
+ *
+ * <p>An image's node is anchored at the image's center when it is first tracked. It is re-anchored
+ * only when ARCore's estimate of the center drifts from the anchor by more than a distance or an
+ * angle, and the anchor it replaces is detached. Past the anchor budget, the anchors of the images
+ * tracked least recently are detached first; their nodes are anchored again when tracked again.
+ * Anchors of images tracked within {@link #RECENT_MILLIS} are kept even past the budget, so images
+ * in view do not take anchors from each other. Used from the UI thread.
+ */
+final class AnchorManager {
+
+  private static final String TAG = "AnchorManager";
+
+  // Images tracked this recently keep their anchors past the budget.
+  static final long RECENT_MILLIS = 1000;
+
+  /** An image whose node holds an anchor. */
+  private static final class Anchored {
+    final AugmentedImage image;
+    final AnchorNode node;
+    long lastTracked;
+
+    Anchored(AugmentedImage image, AnchorNode node) {
+      this.image = image;
+      this.node = node;
+    }
+  }
+
+  private final float maxDriftMeters;
+  private final float maxDriftRadians;
+  private final int maxAnchors;
+  private final ImageNodeRegistry<Anchored> anchored = new ImageNodeRegistry<>();
+
+  /**
+   * @param maxDriftMeters distance the image's center may move from its anchor
+   * @param maxDriftDegrees angle the image may turn from its anchor
+   * @param maxAnchors anchors kept for images not tracked recently
+   */
+  AnchorManager(float maxDriftMeters, float maxDriftDegrees, int maxAnchors) {
+    this.maxDriftMeters = maxDriftMeters;
+    this.maxDriftRadians = (float) Math.toRadians(maxDriftDegrees);
+    this.maxAnchors = maxAnchors;
+  }
+
+  /**
+   * Records that ARCore tracks {@code image}, shown by {@code node}, and anchors the node if it has
+   * no anchor or the image drifted from it.
+   */
+  void track(AugmentedImage image, AnchorNode node, long now) {
+    int index = image.getIndex();
+    Anchored entry = anchored.get(index);
+    if (entry == null || entry.node != node) {
+      if (entry != null) {
+        detach(index);
+      }
+      entry = new Anchored(image, node);
+      anchored.put(index, entry);
+      entry.lastTracked = now;
+      node.setAnchor(image.createAnchor(image.getCenterPose()));
+      trimToBudget(now);
+      return;
+    }
+    entry.lastTracked = now;
+    Anchor anchor = node.getAnchor();
+    Pose center = image.getCenterPose();
+    if (anchor == null) {
+      node.setAnchor(image.createAnchor(center));
+    } else if (drifted(anchor.getPose(), center)) {
+      node.setAnchor(image.createAnchor(center));
+      anchor.detach();
+    }
+  }
+
+  /** Detaches the anchor of the image at {@code index}, if it has one. */
+  void detach(int index) {
+    Anchored entry = anchored.remove(index);
+    if (entry == null) {
+      return;
+    }
+    Anchor anchor = entry.node.getAnchor();
+    if (anchor != null) {
+      entry.node.setAnchor(null);
+      anchor.detach();
+    }
+  }
+
+  private boolean drifted(Pose anchor, Pose center) {
+    float dx = anchor.tx() - center.tx();
+    float dy = anchor.ty() - center.ty();
+    float dz = anchor.tz() - center.tz();
+    if (dx * dx + dy * dy + dz * dz > maxDriftMeters * maxDriftMeters) {
+      return true;
+    }
+    // The angle between two rotations is twice the arc cosine of their quaternions' dot product.
+    float dot =
+        anchor.qx() * center.qx()
+            + anchor.qy() * center.qy()
+            + anchor.qz() * center.qz()
+            + anchor.qw() * center.qw();
+    return 2 * Math.acos(Math.min(Math.abs(dot), 1f)) > maxDriftRadians;
+  }
+
+  /** Detaches the anchors of the least recently tracked images until within budget. */
+  private void trimToBudget(long now) {
+    while (anchored.size() > maxAnchors) {
+      Anchored oldest = null;
+      for (int index = 0; index < anchored.indexLimit(); index++) {
+        Anchored entry = anchored.get(index);
+        if (entry != null
+            && now - entry.lastTracked > RECENT_MILLIS
+            && (oldest == null || entry.lastTracked < oldest.lastTracked)) {
+          oldest = entry;
+        }
+      }
+      if (oldest == null) {
+        Log.w(TAG, anchored.size() + " images in view exceed the budget of " + maxAnchors);
+        return;
+      }
+      Log.i(TAG, "Detaching the anchor of " + oldest.image.getName() + " for the budget");
+      detach(oldest.image.getIndex());
+    }
+  }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+import com.google.ar.sceneform.samples.augmentedimage.assets.AssetConfig;
+import com.google.ar.sceneform.samples.augmentedimage.assets.AssetManifest;
+import com.google.ar.sceneform.samples.augmentedimage.assets.DownloadEngine;
+import com.google.ar.sceneform.samples.augmentedimage.assets.ModelFileCache;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Fetches the AR assets configuration off the main thread.
+ *
+ * <p>The last good configuration is kept on disk together with its ETag and Last-Modified
+ * validators. On start the cached copy is handed out immediately, so a cold start without network
+ * still shows content, and the remote copy is revalidated with a conditional GET. An unchanged
+ * configuration then costs a single 304 round trip.
+ *
+ * <p>A fetched configuration with a manifest replaces the cached one only after every model
+ * already on disk has been brought up to date with it. If that fails, the previous configuration
+ * and models stay in use and the update is retried on the next start.
+ *
+ * <p>Models are downloaded with the texture variant that suits the device's memory class, so
+ * low-end devices decode and upload smaller textures.
+ */
+@SuppressWarnings({"AndroidApiChecker"})
+public final class AssetConfigLoader {
+
+  private static final String TAG = "AssetConfigLoader";
+
+  private static final String AR_ASSETS_CONFIG_URL =
+      "https://storage.googleapis.com/arbio/ar-assets-config.json";
+
+  private static final String CACHE_FILE_NAME = "ar-assets-config.json";
+  private static final String VALIDATORS_FILE_NAME = "ar-assets-config.validators";
+
+  private static final String ETAG = "ETag";
+  private static final String LAST_MODIFIED = "Last-Modified";
+
+  private static final int TIMEOUT_MILLIS = 15000;
+
+  // Largest memory classes, in megabytes, that get the smaller texture sizes.
+  private static final int SMALL_TEXTURES_MEMORY_CLASS = 128;
+  private static final int MEDIUM_TEXTURES_MEMORY_CLASS = 256;
+  private static final int SMALL_TEXTURE_SIZE = 512;
+  private static final int MEDIUM_TEXTURE_SIZE = 1024;
+  private static final int LARGE_TEXTURE_SIZE = 2048;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static AssetConfigLoader instance;
+
+  private final Context context;
+  private final File cacheFile;
+  private final File validatorsFile;
+  private final int maxTextureSize;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  private volatile CompletableFuture<AssetConfig> config = new CompletableFuture<>();
+  private boolean started = false;
+
+  private AssetConfigLoader(Context context) {
+    this.context = context;
+    File dir = context.getFilesDir();
+    cacheFile = new File(dir, CACHE_FILE_NAME);
+    validatorsFile = new File(dir, VALIDATORS_FILE_NAME);
+    maxTextureSize = maxTextureSize(context);
+  }
+
+  /** Returns the largest texture size worth decoding on this device. */
+  private static int maxTextureSize(Context context) {
+    ActivityManager activityManager =
+        (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+    int memoryClass = activityManager.getMemoryClass();
+    int size;
+    if (activityManager.isLowRamDevice() || memoryClass <= SMALL_TEXTURES_MEMORY_CLASS) {
+      size = SMALL_TEXTURE_SIZE;
+    } else if (memoryClass <= MEDIUM_TEXTURES_MEMORY_CLASS) {
+      size = MEDIUM_TEXTURE_SIZE;
+    } else {
+      size = LARGE_TEXTURE_SIZE;
+    }
+    Log.i(TAG, "Memory class " + memoryClass + "MB, textures up to " + size + "px");
+    return size;
+  }
+
+  public static synchronized AssetConfigLoader getInstance(Context context) {
+    if (instance == null) {
+      instance = new AssetConfigLoader(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  /** Starts loading the configuration in the background. Later calls do nothing. */
+  public synchronized void start() {
+    if (started) {
+      return;
+    }
+    started = true;
+    executor.execute(this::load);
+  }
+
+  /**
+   * Returns the parsed configuration. Completes with the cached copy when there is one, otherwise
+   * with the first successful fetch.
+   */
+  public CompletableFuture<AssetConfig> getConfig() {
+    return config;
+  }
+
+  private void load() {
+    String cached = null;
+    try {
+      cached = readCache();
+      if (cached != null) {
+        AssetConfig cachedConfig = AssetConfig.parse(cached, maxTextureSize);
+        ModelFileCache modelFileCache = getModelFileCache();
+        if (modelFileCache != null) {
+          modelFileCache.setManifest(cachedConfig.getManifest());
+        }
+        config.complete(cachedConfig);
+        Log.i(TAG, "Using cached AR assets configuration");
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Cannot read cached AR assets configuration", e);
+      cached = null;
+    }
+
+    try {
+      Properties validators = new Properties();
+      String fetched = fetch(cached != null, validators);
+      if (fetched == null) {
+        Log.i(TAG, "AR assets configuration not modified");
+        return;
+      }
+      // Only a configuration that parses, and whose models are in place, replaces the last good
+      // one on disk.
+      AssetConfig fetchedConfig = AssetConfig.parse(fetched, maxTextureSize);
+      if (!syncModels(fetchedConfig, cached != null)) {
+        return;
+      }
+      writeCache(fetched, validators);
+      Log.i(TAG, "Fetched AR assets configuration");
+      if (!config.complete(fetchedConfig) && !fetched.equals(cached)) {
+        // The cached copy was already handed out; nodes created from now on use the new one.
+        config = CompletableFuture.completedFuture(fetchedConfig);
+      }
+    } catch (IOException e) {
+      Log.e(TAG, "Cannot fetch AR assets configuration", e);
+      if (cached == null) {
+        config.completeExceptionally(e);
+      }
+    }
+  }
+
+  /**
+   * Updates the cached models to the configuration's manifest, all or nothing. Returns false if
+   * that failed and the previous configuration should stay in use.
+   */
+  private boolean syncModels(AssetConfig fetchedConfig, boolean hasPrevious) {
+    ModelFileCache modelFileCache = getModelFileCache();
+    if (modelFileCache == null) {
+      return true;
+    }
+    AssetManifest manifest = fetchedConfig.getManifest();
+    long start = SystemClock.uptimeMillis();
+    try {
+      modelFileCache.sync(manifest, fetchedConfig.getModelUrls(), DownloadEngine.UNTHROTTLED);
+    } catch (IOException e) {
+      if (hasPrevious) {
+        Log.e(TAG, "Cannot sync models to manifest version " + manifest.getVersion(), e);
+        return false;
+      }
+      // Nothing to fall back to; models are checked against the manifest as they are fetched.
+      Log.w(TAG, "Cannot sync models to manifest version " + manifest.getVersion(), e);
+      modelFileCache.setManifest(manifest);
+      return true;
+    }
+    Log.i(
+        TAG,
+        "Models synced to manifest version "
+            + manifest.getVersion()
+            + " in "
+            + (SystemClock.uptimeMillis() - start)
+            + "ms, model cache "
+            + modelFileCache);
+    return true;
+  }
+
+  private ModelFileCache getModelFileCache() {
+    return RenderableCache.getInstance(context).getModelFileCache();
+  }
+
+  /**
+   * Fetches the remote configuration, sending the stored validators when a cached copy exists.
+   * The response's validators are put into {@code fresh}. Returns null if the server answered 304
+   * Not Modified.
+   */
+  private String fetch(boolean conditional, Properties fresh) throws IOException {
+    Properties validators = conditional ? readValidators() : new Properties();
+
+    HttpURLConnection connection =
+        (HttpURLConnection) new URL(AR_ASSETS_CONFIG_URL).openConnection();
+    try {
+      connection.setConnectTimeout(TIMEOUT_MILLIS);
+      connection.setReadTimeout(TIMEOUT_MILLIS);
+      connection.setUseCaches(false);
+      if (validators.getProperty(ETAG) != null) {
+        connection.setRequestProperty("If-None-Match", validators.getProperty(ETAG));
+      }
+      if (validators.getProperty(LAST_MODIFIED) != null) {
+        connection.setRequestProperty("If-Modified-Since", validators.getProperty(LAST_MODIFIED));
+      }
+
+      int status = connection.getResponseCode();
+      if (status == HttpURLConnection.HTTP_NOT_MODIFIED && conditional) {
+        return null;
+      }
+      if (status != HttpURLConnection.HTTP_OK) {
+        throw new IOException("Unexpected HTTP status " + status + " for " + AR_ASSETS_CONFIG_URL);
+      }
+
+      String content;
+      try (InputStream in = connection.getInputStream()) {
+        content = readFully(new InputStreamReader(in, UTF_8));
+      }
+
+      if (connection.getHeaderField(ETAG) != null) {
+        fresh.setProperty(ETAG, connection.getHeaderField(ETAG));
+      }
+      if (connection.getHeaderField(LAST_MODIFIED) != null) {
+        fresh.setProperty(LAST_MODIFIED, connection.getHeaderField(LAST_MODIFIED));
+      }
+      return content;
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  private String readCache() throws IOException {
+    if (!cacheFile.exists()) {
+      return null;
+    }
+    try (Reader reader = new InputStreamReader(new FileInputStream(cacheFile), UTF_8)) {
+      return readFully(reader);
+    }
+  }
+
+  private Properties readValidators() {
+    Properties validators = new Properties();
+    if (validatorsFile.exists()) {
+      try (InputStream in = new FileInputStream(validatorsFile)) {
+        validators.load(in);
+      } catch (IOException e) {
+        Log.w(TAG, "Cannot read AR assets configuration validators", e);
+      }
+    }
+    return validators;
+  }
+
+  /** Replaces the cached configuration and its validators, each with an atomic rename. */
+  private void writeCache(String content, Properties validators) {
+    File cacheTemp = new File(cacheFile.getPath() + ".tmp");
+    File validatorsTemp = new File(validatorsFile.getPath() + ".tmp");
+    try {
+      try (Writer writer = new OutputStreamWriter(new FileOutputStream(cacheTemp), UTF_8)) {
+        writer.write(content);
+      }
+      try (OutputStream out = new FileOutputStream(validatorsTemp)) {
+        validators.store(out, null);
+      }
+      // Drop the old validators first so they never describe a body we do not have.
+      if (validatorsFile.exists() && !validatorsFile.delete()) {
+        throw new IOException("Cannot delete " + validatorsFile);
+      }
+      if (!cacheTemp.renameTo(cacheFile) || !validatorsTemp.renameTo(validatorsFile)) {
+        throw new IOException("Cannot rename cached AR assets configuration");
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Cannot cache AR assets configuration", e);
+      cacheTemp.delete();
+      validatorsTemp.delete();
+    }
+  }
+
+  private static String readFully(Reader reader) throws IOException {
+    StringBuilder builder = new StringBuilder();
+    char[] chars = new char[8192];
+    int read;
+    while ((read = reader.read(chars)) != -1) {
+      builder.append(chars, 0, read);
+    }
+    return builder.toString();
+  }
+}
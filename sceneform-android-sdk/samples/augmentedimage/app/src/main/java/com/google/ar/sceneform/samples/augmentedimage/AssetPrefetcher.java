@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+import com.google.ar.sceneform.samples.augmentedimage.assets.AssetConfig;
+import com.google.ar.sceneform.samples.augmentedimage.assets.DownloadEngine;
+import com.google.ar.sceneform.samples.augmentedimage.assets.ImageAssetGroup;
+import com.google.ar.sceneform.samples.augmentedimage.assets.ModelAsset;
+import com.google.ar.sceneform.samples.augmentedimage.assets.ModelFileCache;
+import com.google.ar.sceneform.samples.augmentedimage.assets.TokenBucket;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Warms the model disk cache in the background for the images most likely to be scanned first.
+ *
+ * <p>Groups are fetched in the order of {@link AssetConfig#getPrefetchOrder()}, one file at a
+ * time and at a bounded rate, so the camera feed and the first detection are not starved. While a
+ * detected image's models load, no new model is prefetched. The wait happens on the prefetch
+ * thread before the request, never in a download, which would hold a connection and an engine
+ * thread the foreground load may be waiting for.
+ */
+@SuppressWarnings({"AndroidApiChecker", "FutureReturnValueIgnored"})
+public final class AssetPrefetcher implements DownloadEngine.Throttle {
+
+  private static final String TAG = "AssetPrefetcher";
+
+  private static final long BYTES_PER_SECOND = 1024L * 1024;
+  private static final long BURST_BYTES = 128L * 1024;
+  private static final long PAUSE_POLL_MILLIS = 100;
+
+  private static AssetPrefetcher instance;
+
+  private final Context context;
+  private final TokenBucket bucket = new TokenBucket(BYTES_PER_SECOND, BURST_BYTES);
+  private final ExecutorService executor =
+      Executors.newSingleThreadExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+          });
+  private boolean started;
+
+  private AssetPrefetcher(Context context) {
+    this.context = context;
+  }
+
+  public static synchronized AssetPrefetcher getInstance(Context context) {
+    if (instance == null) {
+      instance = new AssetPrefetcher(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  /**
+   * Starts prefetching once the AR assets configuration is available. Call it after the first
+   * camera frame is shown. Calling it again has no effect.
+   */
+  public synchronized void start() {
+    if (started) {
+      return;
+    }
+    started = true;
+    AssetConfigLoader.getInstance(context)
+        .getConfig()
+        .thenAcceptAsync(this::prefetch, executor)
+        .exceptionally(
+            throwable -> {
+              Log.e(TAG, "Exception prefetching", throwable);
+              return null;
+            });
+  }
+
+  /**
+   * Fetches every remote model of the prioritized groups. Within a group, levels of detail are
+   * fetched coarsest first, in the order the image's nodes request them: {@code showModels} asks
+   * for the coarsest level of every model, then each {@link LodNode} refines. Runs on the
+   * prefetch thread.
+   */
+  private void prefetch(AssetConfig config) {
+    ModelFileCache cache = RenderableCache.getInstance(context).getModelFileCache();
+    if (cache == null) {
+      return;
+    }
+    long start = SystemClock.uptimeMillis();
+    for (ImageAssetGroup group : config.getPrefetchOrder()) {
+      int steps = 0;
+      for (ModelAsset asset : group.getModels()) {
+        steps = Math.max(steps, asset.getLodCount());
+      }
+      // Each step is one level finer than the last, counting from each model's coarsest.
+      for (int step = 0; step < steps; step++) {
+        for (ModelAsset asset : group.getModels()) {
+          int level = asset.getLodCount() - 1 - step;
+          if (level >= 0 && !prefetch(cache, asset.getLod(level))) {
+            return;
+          }
+        }
+      }
+      long elapsed = SystemClock.uptimeMillis() - start;
+      Log.i(TAG, "Prefetched " + group.getName() + " after " + elapsed + "ms, cache " + cache);
+    }
+  }
+
+  /**
+   * Fetches one model or level of detail into the disk cache, which keys it by its own URL, as
+   * {@link RenderableCache} will. Returns false if prefetching was interrupted.
+   */
+  private boolean prefetch(ModelFileCache cache, ModelAsset model) {
+    String url = model.getUrl();
+    if (!url.startsWith("http://") && !url.startsWith("https://")) {
+      // Bundled in the APK's assets directory.
+      return true;
+    }
+    try {
+      awaitForeground();
+      // Only warms the disk cache, so the model may be evicted again.
+      cache.release(cache.fetch(url, this));
+    } catch (InterruptedIOException e) {
+      Log.i(TAG, "Prefetching interrupted");
+      return false;
+    } catch (IOException e) {
+      // The foreground load will retry and report it.
+      Log.w(TAG, "Cannot prefetch " + model, e);
+    }
+    return true;
+  }
+
+  /** Waits until no detected image's models are loading. Runs on the prefetch thread. */
+  private void awaitForeground() throws InterruptedIOException {
+    RenderableCache renderableCache = RenderableCache.getInstance(context);
+    try {
+      while (renderableCache.isLoading()) {
+        Thread.sleep(PAUSE_POLL_MILLIS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Prefetch interrupted");
+    }
+  }
+
+  /** Paces the download. Called for every chunk read, so it must not wait for anything else. */
+  @Override
+  public void acquire(int bytes) throws IOException {
+    try {
+      bucket.acquire(bytes);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Prefetch interrupted");
+    }
+  }
+}
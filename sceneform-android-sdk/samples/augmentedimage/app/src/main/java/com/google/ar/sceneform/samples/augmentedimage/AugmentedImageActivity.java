@@ -17,19 +17,18 @@
 package com.google.ar.sceneform.samples.augmentedimage;
 
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
 import android.view.View;
 import android.widget.ImageView;
 import com.google.ar.core.AugmentedImage;
 import com.google.ar.core.Frame;
-import com.google.ar.core.TrackingState;
 import com.google.ar.sceneform.FrameTime;
+import com.google.ar.sceneform.samples.augmentedimage.tracking.FrameDispatcher;
+import com.google.ar.sceneform.samples.augmentedimage.tracking.TraceFrame.TrackingState;
 import com.google.ar.sceneform.samples.common.helpers.SnackbarHelper;
-import com.google.ar.sceneform.ux.ArFragment;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.File;
 
 /**
  * This application demonstrates using augmented images to place anchor nodes. app to include image
@@ -37,32 +36,92 @@ import java.util.Map;
  */
 public class AugmentedImageActivity extends AppCompatActivity {
 
-  private ArFragment arFragment;
+  private AugmentedImageFragment arFragment;
   private ImageView fitToScanView;
   private ImageView ratGenomeView;
 
   private static final String TAG = "AugmentedImageActivity";
 
-  // Augmented image and its associated center pose anchor, keyed by the augmented image in
-  // the database.
-  private final Map<AugmentedImage, AugmentedImageNode> augmentedImageMap = new HashMap<>();
+  // An image is re-anchored once ARCore's estimate of it moves this far from its anchor.
+  private static final float MAX_ANCHOR_DRIFT_METERS = 0.02f;
+  private static final float MAX_ANCHOR_DRIFT_DEGREES = 5f;
+  // Anchors kept for images out of view; ARCore updates every anchor on every frame.
+  private static final int MAX_ANCHORS = 6;
+  // Content farther from the camera than this is not drawn.
+  private static final float MAX_DRAW_DISTANCE_METERS = 12f;
+
+  // The state and node of each augmented image, by the image's index in the database.
+  private ImageLifecycle imageLifecycle;
+
+  // What each image shows, as declared in the AR assets configuration.
+  private ImageHandlers imageHandlers;
+
+  // Records every frame's trackables to the app's external files directory, for replays with
+  // ./gradlew :tools:replayTrace.
+  private static final boolean RECORD_TRACE = false;
+  private TraceRecorder traceRecorder;
+
+  // While idle, images out of view move through their lifecycle at most this often.
+  private static final long IDLE_UPDATE_MILLIS = 1000;
+  // Decides what each frame does to the images ARCore updated in it.
+  private final FrameDispatcher<AugmentedImage> frameDispatcher =
+      new FrameDispatcher<>(new ImageTarget(), IDLE_UPDATE_MILLIS);
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
     setContentView(R.layout.activity_main);
 
-    arFragment = (ArFragment) getSupportFragmentManager().findFragmentById(R.id.ux_fragment);
+    arFragment =
+        (AugmentedImageFragment) getSupportFragmentManager().findFragmentById(R.id.ux_fragment);
     fitToScanView = findViewById(R.id.image_view_fit_to_scan);
     ratGenomeView = findViewById(R.id.image_view_rat_genome);
-
+    imageHandlers = new ImageHandlers(this);
+
+    imageLifecycle =
+        new ImageLifecycle(
+            this,
+            arFragment.getArSceneView().getScene(),
+            new AnchorManager(MAX_ANCHOR_DRIFT_METERS, MAX_ANCHOR_DRIFT_DEGREES, MAX_ANCHORS),
+            new FrustumCuller(MAX_DRAW_DISTANCE_METERS, QualityGovernor.getInstance(this)));
+    // Added first, so a quality change applies to the whole frame.
+    arFragment.getArSceneView().getScene().addOnUpdateListener(QualityGovernor.getInstance(this));
     arFragment.getArSceneView().getScene().addOnUpdateListener(this::onUpdateFrame);
+    // Added after onUpdateFrame, so it runs the scene changes queued for this frame.
+    arFragment.getArSceneView().getScene().addOnUpdateListener(FrameScheduler.getInstance());
+    arFragment.setOnIdleChangedListener(this::onIdleChanged);
+
+    // Fetch the AR assets configuration now, so it is ready before the first image is detected.
+    AssetConfigLoader.getInstance(this).start();
   }
 
   @Override
   protected void onResume() {
     super.onResume();
-    if (augmentedImageMap.isEmpty()) {
+    if (imageLifecycle.isEmpty() && !arFragment.isIdle()) {
+      fitToScanView.setVisibility(View.VISIBLE);
+    }
+    if (RECORD_TRACE) {
+      String name = "trackables-" + System.currentTimeMillis() + ".trace";
+      traceRecorder = new TraceRecorder(new File(getExternalFilesDir(null), name));
+    }
+  }
+
+  @Override
+  protected void onPause() {
+    super.onPause();
+    if (traceRecorder != null) {
+      traceRecorder.close();
+      traceRecorder = null;
+    }
+    LoadTelemetry.getInstance(this).dump();
+  }
+
+  /** Hides the scan hint while no one is around, and brings it back on waking up. */
+  private void onIdleChanged(boolean idle) {
+    if (idle) {
+      fitToScanView.setVisibility(View.GONE);
+    } else if (imageLifecycle.isEmpty()) {
       fitToScanView.setVisibility(View.VISIBLE);
     }
   }
@@ -74,73 +133,71 @@ public class AugmentedImageActivity extends AppCompatActivity {
    */
   private void onUpdateFrame(FrameTime frameTime) {
     Frame frame = arFragment.getArSceneView().getArFrame();
-
-    // If there is no frame or ARCore is not tracking yet, just return.
-    if (frame == null || frame.getCamera().getTrackingState() != TrackingState.TRACKING) {
+    if (frame == null) {
       return;
     }
+    if (traceRecorder != null) {
+      traceRecorder.record(frame);
+    }
+    frameDispatcher.onFrame(
+        SystemClock.uptimeMillis(),
+        arFragment.isIdle(),
+        TrackingState.valueOf(frame.getCamera().getTrackingState().name()),
+        frame.getUpdatedTrackables(AugmentedImage.class));
+  }
+
+  /** Carries out the frame dispatcher's decisions on the scene and the UI. */
+  private final class ImageTarget implements FrameDispatcher.Target<AugmentedImage> {
+
+    @Override
+    public TrackingState stateOf(AugmentedImage image) {
+      return TrackingState.valueOf(image.getTrackingState().name());
+    }
+
+    @Override
+    public void update(long now) {
+      // The camera feed is up, so the network can be spared for likely-first images.
+      AssetPrefetcher.getInstance(AugmentedImageActivity.this).start();
+      // Images out of view for a while are hidden, then detached, then released; content the
+      // camera cannot see is culled.
+      imageLifecycle.update(now, arFragment.getArSceneView().getScene().getCamera());
+    }
+
+    @Override
+    public void detected(AugmentedImage image, long now) {
+      // When an image is in PAUSED state, but the camera is not PAUSED, it has been detected, but
+      // not yet tracked.
+      String text = "Detected Image " + image.getIndex();
+      SnackbarHelper.getInstance().showMessage(AugmentedImageActivity.this, text);
+      arFragment.onImageActive(now);
+      imageLifecycle.detected(image);
+    }
+
+    @Override
+    public boolean tracked(AugmentedImage image, long now) {
+      // Have to switch to UI Thread to update View.
+      fitToScanView.setVisibility(View.GONE);
+      arFragment.onImageActive(now);
+      // Keeps this image's models from being evicted, and restores them if they were.
+      RenderableCache.getInstance(AugmentedImageActivity.this).touch(image.getName());
+      // An image that was out of view is shown again.
+      return imageLifecycle.tracked(image, now);
+    }
+
+    @Override
+    public void add(AugmentedImage image, long now) {
+      // Create a new anchor for newly found images.
+      AugmentedImageNode node = new AugmentedImageNode(AugmentedImageActivity.this);
+      imageLifecycle.add(image, node, now);
+      // Models are placed within the frame budget, so images detected together are spread over
+      // several frames.
+      FrameScheduler.getInstance()
+          .post(FrameScheduler.NEW_IMAGE, () -> imageHandlers.show(node, image));
+    }
 
-    Collection<AugmentedImage> updatedAugmentedImages =
-        frame.getUpdatedTrackables(AugmentedImage.class);
-    for (AugmentedImage augmentedImage : updatedAugmentedImages) {
-      switch (augmentedImage.getTrackingState()) {
-        case PAUSED:
-          // When an image is in PAUSED state, but the camera is not PAUSED, it has been detected,
-          // but not yet tracked.
-          String text = "Detected Image " + augmentedImage.getIndex();
-          SnackbarHelper.getInstance().showMessage(this, text);
-          break;
-        case TRACKING:
-          // Have to switch to UI Thread to update View.
-          fitToScanView.setVisibility(View.GONE);
-          String name = augmentedImage.getName();
-          // Create a new anchor for newly found images.
-          if (name.equals("B lymphocyte") || name.equals("Stories retold inset")) {
-            AugmentedImageNode node = new AugmentedImageNode(this);
-//            node.setProteinImage(augmentedImage);
-//            Log.i(TAG, "Detected image named:");
-//            Log.i(TAG, name);
-            node.setBroadLobbyImages(augmentedImage);
-            augmentedImageMap.put(augmentedImage, node);
-            arFragment.getArSceneView().getScene().addChild(node);
-          } else if (name.equals("Myosin close")) {
-            AugmentedImageNode node = new AugmentedImageNode(this);
-            node.setBrainImage(augmentedImage);
-            augmentedImageMap.put(augmentedImage, node);
-            arFragment.getArSceneView().getScene().addChild(node);
-          } else if (name.equals("Mobile lab rat") ||
-              name.equals("Mobile panel interior") ||
-              name.equals("Stairs sign") ||
-              name.equals("Gene chip washer")) {
-
-            AugmentedImageNode node = new AugmentedImageNode(this);
-            node.setRatGenomeImage(augmentedImage);
-            augmentedImageMap.put(augmentedImage, node);
-            arFragment.getArSceneView().getScene().addChild(node);
-
-////            ratGenomeView.setVisibility(View.VISIBLE);
-
-          } else if (name.equals("Stories retold floor")) {
-
-            AugmentedImageNode node = new AugmentedImageNode(this);
-//            node.setCesiumManImage(augmentedImage);
-            node.setMaccawAnimationImage(augmentedImage);
-            augmentedImageMap.put(augmentedImage, node);
-            arFragment.getArSceneView().getScene().addChild(node);
-
-          } else if (!augmentedImageMap.containsKey(augmentedImage)){
-            AugmentedImageNode node = new AugmentedImageNode(this);
-//            node.setImage(augmentedImage);
-            node.setBroadLobbyImages(augmentedImage);
-            augmentedImageMap.put(augmentedImage, node);
-            arFragment.getArSceneView().getScene().addChild(node);
-          }
-          break;
-
-        case STOPPED:
-          augmentedImageMap.remove(augmentedImage);
-          break;
-      }
+    @Override
+    public void stopped(AugmentedImage image) {
+      imageLifecycle.stopped(image);
     }
   }
 }
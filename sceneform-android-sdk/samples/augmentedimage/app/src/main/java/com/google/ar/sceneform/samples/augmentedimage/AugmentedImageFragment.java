@@ -23,14 +23,20 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import com.google.ar.core.AugmentedImageDatabase;
+import com.google.ar.core.CameraConfig;
 import com.google.ar.core.Config;
+import com.google.ar.core.Frame;
 import com.google.ar.core.Session;
+import com.google.ar.core.exceptions.CameraNotAvailableException;
+import com.google.ar.sceneform.ArSceneView;
+import com.google.ar.sceneform.FrameTime;
 import com.google.ar.sceneform.samples.common.helpers.SnackbarHelper;
 import com.google.ar.sceneform.ux.ArFragment;
 import java.io.IOException;
@@ -38,6 +44,12 @@ import java.io.InputStream;
 
 /**
  * Extend the ArFragment to customize the ARCore session configuration to include Augmented Images.
+ *
+ * <p>After {@link #IDLE_AFTER_MILLIS} without a detected image, the fragment goes idle: the camera
+ * switches to the supported config with the smallest CPU image, which ARCore scans for images at
+ * less cost, and the {@link OnIdleChangedListener} is told so it can skip scene work and hide
+ * overlays. The first detection switches back to the full config; the time from the detection to
+ * the first frame with that config is recorded by {@link LoadTelemetry}.
  */
 public class AugmentedImageFragment extends ArFragment {
   private static final String TAG = "AugmentedImageFragment";
@@ -59,6 +71,23 @@ public class AugmentedImageFragment extends ArFragment {
   // application.
   private static final double MIN_OPENGL_VERSION = 3.0;
 
+  // Time without a detected image before the fragment goes idle.
+  static final long IDLE_AFTER_MILLIS = 30000;
+
+  /** Told when the fragment goes idle or wakes up. Called on the UI thread. */
+  public interface OnIdleChangedListener {
+    void onIdleChanged(boolean idle);
+  }
+
+  private OnIdleChangedListener onIdleChangedListener;
+  private boolean idle;
+  // When an image was last detected or tracked, from SystemClock.uptimeMillis().
+  private long lastActiveMillis = SystemClock.uptimeMillis();
+  // When the image that woke the fragment was detected, or -1 if not waking.
+  private long wakeStartMillis = -1;
+  // The camera config to go back to when waking up.
+  private CameraConfig fullCameraConfig;
+
   @Override
   public void onAttach(Context context) {
     super.onAttach(context);
@@ -94,6 +123,101 @@ public class AugmentedImageFragment extends ArFragment {
     return view;
   }
 
+  public void setOnIdleChangedListener(OnIdleChangedListener listener) {
+    onIdleChangedListener = listener;
+  }
+
+  /** Whether the fragment is idle, or still waking up. */
+  public boolean isIdle() {
+    return idle || wakeStartMillis >= 0;
+  }
+
+  /** Records that an image was detected or tracked, and wakes the fragment if idle. */
+  public void onImageActive(long now) {
+    lastActiveMillis = now;
+    if (idle) {
+      idle = false;
+      wakeStartMillis = now;
+      Log.i(TAG, "Waking up");
+      switchCameraConfig(fullCameraConfig);
+    }
+  }
+
+  @Override
+  public void onUpdate(FrameTime frameTime) {
+    super.onUpdate(frameTime);
+    long now = SystemClock.uptimeMillis();
+    if (wakeStartMillis >= 0) {
+      Session session = getArSceneView().getSession();
+      Frame frame = getArSceneView().getArFrame();
+      if (frame != null
+          && session != null
+          && sameImage(session.getCameraConfig(), fullCameraConfig)) {
+        long millis = now - wakeStartMillis;
+        wakeStartMillis = -1;
+        Log.i(TAG, "Woke up in " + millis + "ms");
+        LoadTelemetry.getInstance(getContext()).recordWake(millis);
+        notifyIdleChanged(false);
+      }
+    } else if (!idle && now - lastActiveMillis > IDLE_AFTER_MILLIS) {
+      goIdle();
+    }
+  }
+
+  private void goIdle() {
+    Session session = getArSceneView().getSession();
+    if (session == null) {
+      return;
+    }
+    CameraConfig cheapest = null;
+    for (CameraConfig config : session.getSupportedCameraConfigs()) {
+      if (cheapest == null || pixels(config) < pixels(cheapest)) {
+        cheapest = config;
+      }
+    }
+    idle = true;
+    fullCameraConfig = session.getCameraConfig();
+    Log.i(TAG, "Going idle after " + IDLE_AFTER_MILLIS + "ms without an image");
+    notifyIdleChanged(true);
+    if (cheapest != null && pixels(cheapest) < pixels(fullCameraConfig)) {
+      switchCameraConfig(cheapest);
+    }
+  }
+
+  private static long pixels(CameraConfig config) {
+    return (long) config.getImageSize().getWidth() * config.getImageSize().getHeight();
+  }
+
+  // The session hands out a new CameraConfig on every call.
+  private static boolean sameImage(CameraConfig a, CameraConfig b) {
+    return a.getImageSize().equals(b.getImageSize());
+  }
+
+  /** Switches the camera config, which needs the session paused, once the current frame ends. */
+  private void switchCameraConfig(CameraConfig config) {
+    ArSceneView view = getArSceneView();
+    view.post(
+        () -> {
+          Session session = view.getSession();
+          if (session == null || sameImage(session.getCameraConfig(), config)) {
+            return;
+          }
+          view.pause();
+          session.setCameraConfig(config);
+          try {
+            view.resume();
+          } catch (CameraNotAvailableException e) {
+            Log.e(TAG, "Camera not available after switching its config", e);
+          }
+        });
+  }
+
+  private void notifyIdleChanged(boolean idle) {
+    if (onIdleChangedListener != null) {
+      onIdleChangedListener.onIdleChanged(idle);
+    }
+  }
+
   @Override
   protected Config getSessionConfiguration(Session session) {
     Config config = super.getSessionConfiguration(session);
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.util.Log;
+import com.google.ar.sceneform.FrameTime;
+import com.google.ar.sceneform.Scene;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs scene changes, such as filling a new image's node or setting a loaded renderable, from
+ * the scene's update loop within a time budget per frame, so a burst of detected images or
+ * finished loads is spread over several frames instead of dropping one.
+ *
+ * <p>Work is queued first in, first out at one of a few priorities, and the highest priority runs
+ * first. A task that has waited {@link #MAX_WAIT_FRAMES} frames runs ahead of all others, so low
+ * priority work is never starved. At least one task runs every frame, so the queue always drains.
+ *
+ * <p>Tasks may be posted from any thread; they run on the UI thread once the scheduler is added to
+ * the scene with {@link Scene#addOnUpdateListener}.
+ */
+public final class FrameScheduler implements Scene.OnUpdateListener {
+
+  private static final String TAG = "FrameScheduler";
+
+  /** Fills the node of a newly tracked image. */
+  public static final int NEW_IMAGE = 0;
+
+  /** Shows a model that finished loading, or one reloaded after eviction. */
+  public static final int LOADED_MODEL = 1;
+
+  /** Swaps a model's level of detail. */
+  public static final int DETAIL = 2;
+
+  private static final int PRIORITIES = 3;
+
+  // Time per frame for queued work, out of the 16.7ms of a 60Hz frame.
+  private static final long BUDGET_NANOS = 4000000;
+
+  // Frames a task may wait before it runs ahead of higher priorities.
+  static final int MAX_WAIT_FRAMES = 30;
+
+  private static FrameScheduler instance;
+
+  private static final class Task {
+    final Runnable runnable;
+    final long postedFrame;
+
+    Task(Runnable runnable, long postedFrame) {
+      this.runnable = runnable;
+      this.postedFrame = postedFrame;
+    }
+  }
+
+  // Queued tasks by priority, guarded by this.
+  private final List<ArrayDeque<Task>> queues = new ArrayList<>(PRIORITIES);
+  // Frames run so far, guarded by this.
+  private long frame;
+  // Moving average of the time a task takes. Used on the UI thread only.
+  private long averageTaskNanos;
+
+  private FrameScheduler() {
+    for (int priority = 0; priority < PRIORITIES; priority++) {
+      queues.add(new ArrayDeque<>());
+    }
+  }
+
+  public static synchronized FrameScheduler getInstance() {
+    if (instance == null) {
+      instance = new FrameScheduler();
+    }
+    return instance;
+  }
+
+  /** Queues a task to run on the UI thread within a later frame's budget. */
+  public synchronized void post(int priority, Runnable runnable) {
+    queues.get(priority).addLast(new Task(runnable, frame));
+  }
+
+  /** Returns an executor that queues at {@code priority}, for async continuations. */
+  public Executor executor(int priority) {
+    return runnable -> post(priority, runnable);
+  }
+
+  @Override
+  public void onUpdate(FrameTime frameTime) {
+    long deadline = System.nanoTime() + BUDGET_NANOS;
+    synchronized (this) {
+      frame++;
+    }
+    boolean ranAny = false;
+    while (true) {
+      long start = System.nanoTime();
+      // A task that would likely overrun the budget waits for the next frame.
+      if (ranAny && start + averageTaskNanos > deadline) {
+        break;
+      }
+      Task task = next();
+      if (task == null) {
+        break;
+      }
+      try {
+        task.runnable.run();
+      } catch (RuntimeException e) {
+        // One failed change must not stop the others, or the frame.
+        Log.e(TAG, "Exception in scheduled scene change", e);
+      }
+      averageTaskNanos += (System.nanoTime() - start - averageTaskNanos) / 8;
+      ranAny = true;
+    }
+  }
+
+  /** Takes the task to run next: the oldest starved one, else the first of the top priority. */
+  private synchronized Task next() {
+    ArrayDeque<Task> starved = null;
+    for (ArrayDeque<Task> queue : queues) {
+      Task head = queue.peekFirst();
+      if (head != null
+          && frame - head.postedFrame >= MAX_WAIT_FRAMES
+          && (starved == null || head.postedFrame < starved.peekFirst().postedFrame)) {
+        starved = queue;
+      }
+    }
+    if (starved != null) {
+      return starved.pollFirst();
+    }
+    for (ArrayDeque<Task> queue : queues) {
+      if (!queue.isEmpty()) {
+        return queue.pollFirst();
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.util.Log;
+import com.google.ar.sceneform.Camera;
+import com.google.ar.sceneform.Node;
+import com.google.ar.sceneform.collision.Box;
+import com.google.ar.sceneform.collision.CollisionShape;
+import com.google.ar.sceneform.math.Matrix;
+import com.google.ar.sceneform.math.Vector3;
+import com.google.ar.sceneform.rendering.Renderable;
+import com.google.ar.sceneform.samples.augmentedimage.tracking.ImageNodeRegistry;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Disables the content of augmented images the camera cannot see, so the GPU draws only what is
+ * in view rather than everything ever detected.
+ *
+ * <p>Once per frame, each shown image's content is bounded by a sphere around the image's node,
+ * which is tested against the camera's view frustum and a maximum draw distance. The node's
+ * children are enabled or disabled to match; the node itself is left to {@link ImageLifecycle}.
+ * Content in view is culled only once its sphere is clearly out, by a margin of {@link
+ * #HYSTERESIS}, so content at the edge of the view does not flicker. When the {@link
+ * QualityGovernor} caps the images drawn, only the nearest images in view are drawn. Used from
+ * the UI thread.
+ */
+final class FrustumCuller {
+
+  private static final String TAG = "FrustumCuller";
+
+  // Share of the radius and draw distance that content in view may go past before it is culled.
+  static final float HYSTERESIS = 0.1f;
+
+  // Radius for content whose renderable has no bounding box.
+  private static final float DEFAULT_RADIUS_METERS = 0.5f;
+
+  /** The bounding sphere and visibility of one image's content. */
+  private static final class Group {
+    Node node;
+    boolean visible = true;
+    // Distance from the camera this frame.
+    float distance;
+    // Children when the radius was computed.
+    int childCount = -1;
+    // Whether a child had no renderable yet, so the radius is a guess to compute again.
+    boolean loading;
+    float radius;
+  }
+
+  private final float maxDistanceMeters;
+  private final QualityGovernor qualityGovernor;
+  private final ImageNodeRegistry<Group> groups = new ImageNodeRegistry<>();
+  // Groups in view this frame.
+  private final List<Group> inView = new ArrayList<>();
+
+  private Matrix view;
+  // Tangents of half the horizontal and vertical fields of view.
+  private float tanHalfX;
+  private float tanHalfY;
+  private int visibleCount;
+  private int culledCount;
+  private int reportedVisibleCount = -1;
+  private int reportedCulledCount = -1;
+
+  /** @param maxDistanceMeters distance from the camera past which content is not drawn */
+  FrustumCuller(float maxDistanceMeters, QualityGovernor qualityGovernor) {
+    this.maxDistanceMeters = maxDistanceMeters;
+    this.qualityGovernor = qualityGovernor;
+  }
+
+  /** Starts a frame's pass with the camera's current view and projection. */
+  void beginFrame(Camera camera) {
+    view = camera.getViewMatrix();
+    // The projection's x and y scales are the cotangents of half the fields of view.
+    float[] projection = camera.getProjectionMatrix().data;
+    tanHalfX = 1 / projection[0];
+    tanHalfY = 1 / projection[5];
+    inView.clear();
+    culledCount = 0;
+  }
+
+  /** Culls the content of the shown image at {@code index}, held by {@code node}, if unseen. */
+  void cull(int index, Node node) {
+    Group group = groups.get(index);
+    if (group == null) {
+      group = new Group();
+      groups.put(index, group);
+    }
+    group.node = node;
+    List<Node> children = node.getChildren();
+    Vector3 center = node.getWorldPosition();
+    if (group.loading || children.size() != group.childCount) {
+      bound(group, center, children);
+    }
+
+    float margin = group.visible ? 1 + HYSTERESIS : 1;
+    float radius = group.radius * margin;
+    Vector3 eye = view.transformPoint(center);
+    // The camera looks down its negative z axis.
+    float depth = -eye.z;
+    group.distance = (float) Math.sqrt(eye.x * eye.x + eye.y * eye.y + eye.z * eye.z);
+    if (depth > -radius
+        && outside(eye.x, depth, tanHalfX) <= radius
+        && outside(eye.y, depth, tanHalfY) <= radius
+        && group.distance - group.radius <= maxDistanceMeters * margin) {
+      // Drawn in endFrame, unless past the cap.
+      inView.add(group);
+    } else {
+      show(group, false);
+      culledCount++;
+    }
+  }
+
+  /** Forgets an image whose node was removed. */
+  void forget(int index) {
+    groups.remove(index);
+  }
+
+  /** Ends a frame's pass, draws the images in view up to the cap, and logs changed counts. */
+  void endFrame() {
+    int maxVisible = qualityGovernor.getMaxVisibleImages();
+    if (inView.size() > maxVisible) {
+      inView.sort((a, b) -> Float.compare(a.distance, b.distance));
+    }
+    visibleCount = Math.min(inView.size(), maxVisible);
+    for (int i = 0; i < inView.size(); i++) {
+      show(inView.get(i), i < visibleCount);
+    }
+    culledCount += inView.size() - visibleCount;
+    if (visibleCount != reportedVisibleCount || culledCount != reportedCulledCount) {
+      Log.i(TAG, visibleCount + " images visible, " + culledCount + " culled");
+      reportedVisibleCount = visibleCount;
+      reportedCulledCount = culledCount;
+    }
+  }
+
+  /** Returns the number of images whose content was drawn in the last frame. */
+  int getVisibleCount() {
+    return visibleCount;
+  }
+
+  /** Returns the number of shown images whose content was culled in the last frame. */
+  int getCulledCount() {
+    return culledCount;
+  }
+
+  private static void show(Group group, boolean visible) {
+    group.visible = visible;
+    for (Node child : group.node.getChildren()) {
+      if (child.isEnabled() != visible) {
+        child.setEnabled(visible);
+      }
+    }
+  }
+
+  /**
+   * Returns how far a point at {@code offset} from the view axis and {@code depth} in front of the
+   * camera is outside the frustum plane on its side; negative inside.
+   */
+  private static float outside(float offset, float depth, float tanHalf) {
+    return (Math.abs(offset) - depth * tanHalf) / (float) Math.sqrt(1 + tanHalf * tanHalf);
+  }
+
+  /** Sets the group's radius to that of a sphere around {@code center} bounding every child. */
+  private static void bound(Group group, Vector3 center, List<Node> children) {
+    float radius = 0;
+    group.loading = false;
+    for (Node child : children) {
+      Vector3 scale = child.getWorldScale();
+      float maxScale = Math.max(scale.x, Math.max(scale.y, scale.z));
+      float reach = DEFAULT_RADIUS_METERS;
+      Renderable renderable = child.getRenderable();
+      CollisionShape shape = renderable != null ? renderable.getCollisionShape() : null;
+      if (renderable == null) {
+        group.loading = true;
+      } else if (shape instanceof Box) {
+        Box box = (Box) shape;
+        reach = (box.getCenter().length() + box.getSize().length() / 2) * maxScale;
+      }
+      float offset = Vector3.subtract(child.getWorldPosition(), center).length();
+      radius = Math.max(radius, offset + reach);
+    }
+    group.radius = radius;
+    group.childCount = children.size();
+  }
+}
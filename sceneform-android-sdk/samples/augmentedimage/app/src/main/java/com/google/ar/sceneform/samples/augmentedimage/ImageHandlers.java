@@ -0,0 +1,154 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+import com.google.ar.core.AugmentedImage;
+import com.google.ar.sceneform.samples.augmentedimage.assets.AssetConfig;
+import com.google.ar.sceneform.samples.augmentedimage.assets.ImageAssetGroup;
+import com.google.ar.sceneform.samples.augmentedimage.assets.ImageBehavior;
+import com.google.ar.sceneform.samples.augmentedimage.assets.ModelAsset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shows on each augmented image what the {@code "images"} section of the AR assets configuration
+ * declares for it, so a new poster needs only a configuration change.
+ *
+ * <p>When a configuration arrives, each image's {@link ImageBehavior} is compiled into a {@link
+ * Handler}. Handlers are then kept in an array indexed by {@code AugmentedImage.getIndex()}, so an
+ * image's name is looked up once, rather than compared against every known name when it is
+ * tracked. Used from the UI thread.
+ */
+@SuppressWarnings({"AndroidApiChecker", "FutureReturnValueIgnored"})
+final class ImageHandlers {
+
+  private static final String TAG = "ImageHandlers";
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  /** Fills a new image's node with its content. */
+  interface Handler {
+    void show(AugmentedImageNode node, AugmentedImage image);
+  }
+
+  private static final Handler NOTHING = (node, image) -> {};
+
+  private final Context context;
+
+  // The configuration the handlers were compiled from.
+  private AssetConfig config;
+  // Handlers of the images listed in the configuration, by image name.
+  private Map<String, Handler> handlersByName = new HashMap<>();
+  // Handlers by image index, filled as images are first tracked.
+  private Handler[] handlersByIndex = new Handler[INITIAL_CAPACITY];
+
+  ImageHandlers(Context context) {
+    this.context = context;
+  }
+
+  /**
+   * Shows the content of a newly tracked image in its node. Waits for the AR assets configuration
+   * if it has not been loaded yet.
+   */
+  void show(AugmentedImageNode node, AugmentedImage image) {
+    AssetConfigLoader loader = AssetConfigLoader.getInstance(context);
+    AssetConfig latest = loader.getConfig().getNow(null);
+    if (latest == null) {
+      long waitStart = SystemClock.uptimeMillis();
+      loader
+          .getConfig()
+          .thenAcceptAsync(
+              (AssetConfig loaded) -> {
+                LoadTelemetry.getInstance(context)
+                    .recordConfigWait(SystemClock.uptimeMillis() - waitStart);
+                show(node, image);
+              },
+              FrameScheduler.getInstance().executor(FrameScheduler.NEW_IMAGE))
+          .exceptionally(
+              throwable -> {
+                Log.e(TAG, "Exception loading AR assets configuration", throwable);
+                return null;
+              });
+      return;
+    }
+    if (latest != config) {
+      compile(latest);
+    }
+    handlerOf(image).show(node, image);
+  }
+
+  private Handler handlerOf(AugmentedImage image) {
+    int index = image.getIndex();
+    if (index >= handlersByIndex.length) {
+      handlersByIndex =
+          Arrays.copyOf(handlersByIndex, Math.max(index + 1, handlersByIndex.length * 2));
+    }
+    Handler handler = handlersByIndex[index];
+    if (handler == null) {
+      String name = image.getName();
+      handler = handlersByName.get(name);
+      if (handler == null) {
+        handler = compile(name, config.getBehavior(name));
+      }
+      handlersByIndex[index] = handler;
+    }
+    return handler;
+  }
+
+  private void compile(AssetConfig config) {
+    this.config = config;
+    handlersByName = new HashMap<>();
+    for (Map.Entry<String, ImageBehavior> behavior : config.getBehaviors().entrySet()) {
+      handlersByName.put(behavior.getKey(), compile(behavior.getKey(), behavior.getValue()));
+    }
+    Arrays.fill(handlersByIndex, null);
+    Log.i(TAG, "Compiled behaviors of " + handlersByName.size() + " images");
+  }
+
+  private Handler compile(String imageName, ImageBehavior behavior) {
+    boolean atCorner = behavior.isAtCorner();
+    switch (behavior.getName()) {
+      case ImageBehavior.MODELS:
+        ImageAssetGroup group = config.getGroup(imageName);
+        if (group == null) {
+          Log.w(TAG, "No AR assets configured for image " + imageName);
+          return NOTHING;
+        }
+        return (node, image) -> node.showModels(image, group);
+      case ImageBehavior.BUNDLED_MODEL:
+        ModelAsset model = behavior.getModel();
+        return (node, image) -> node.showModel(image, model, atCorner);
+      case ImageBehavior.VIEW:
+        int layout =
+            context
+                .getResources()
+                .getIdentifier(behavior.getLayout(), "layout", context.getPackageName());
+        if (layout == 0) {
+          Log.w(TAG, "No layout " + behavior.getLayout() + " for image " + imageName);
+          return NOTHING;
+        }
+        return (node, image) -> node.showView(image, layout, atCorner);
+      default:
+        Log.w(TAG, "Unsupported behavior " + behavior + " for image " + imageName);
+        return NOTHING;
+    }
+  }
+}
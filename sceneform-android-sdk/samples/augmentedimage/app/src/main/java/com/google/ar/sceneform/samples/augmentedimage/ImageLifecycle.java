@@ -0,0 +1,165 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.content.Context;
+import android.util.Log;
+import com.google.ar.core.AugmentedImage;
+import com.google.ar.sceneform.Camera;
+import com.google.ar.sceneform.Node;
+import com.google.ar.sceneform.Scene;
+import com.google.ar.sceneform.samples.augmentedimage.tracking.ImageNodeRegistry;
+import com.google.ar.sceneform.samples.augmentedimage.tracking.ImageTracker;
+import com.google.ar.sceneform.samples.augmentedimage.tracking.ImageTracker.State;
+
+/**
+ * Moves each augmented image through detected, tracking, last known pose, lost and evicted, and
+ * releases what an image holds as it goes, so long kiosk sessions do not pile up anchors and
+ * models.
+ *
+ * <p>The states and their timing are kept by an {@link ImageTracker}; this class applies them to
+ * the scene. A node is hidden in {@link State#LAST_KNOWN_POSE} and shown again when tracked. Its
+ * anchor is detached in {@link State#LOST}. In {@link State#EVICTED} the node is removed and its
+ * models are released from {@link RenderableCache}. Anchors are created, replaced and detached by
+ * an {@link AnchorManager}, which may also take a hidden image's anchor for its budget. The
+ * content of shown images the camera cannot see is culled by a {@link FrustumCuller}. Used from
+ * the UI thread.
+ */
+final class ImageLifecycle implements ImageTracker.Listener {
+
+  private static final String TAG = "ImageLifecycle";
+
+  private final Context context;
+  private final Scene scene;
+  private final AnchorManager anchors;
+  private final FrustumCuller culler;
+  private final ImageTracker tracker = new ImageTracker(this);
+  // Images that have been detected and not evicted, by their index in the database.
+  private final ImageNodeRegistry<AugmentedImage> images = new ImageNodeRegistry<>();
+  private final ImageNodeRegistry<AugmentedImageNode> nodes = new ImageNodeRegistry<>();
+
+  ImageLifecycle(Context context, Scene scene, AnchorManager anchors, FrustumCuller culler) {
+    this.context = context;
+    this.scene = scene;
+    this.anchors = anchors;
+    this.culler = culler;
+  }
+
+  /** Whether no image has a node in the scene. */
+  boolean isEmpty() {
+    return tracker.isEmpty();
+  }
+
+  /** Returns the state of the image at {@code index}; EVICTED if it has none. */
+  State stateOf(int index) {
+    return tracker.stateOf(index);
+  }
+
+  /** Records an image ARCore reports as detected but not yet tracked. */
+  void detected(AugmentedImage image) {
+    images.put(image.getIndex(), image);
+    tracker.detected(image.getIndex());
+  }
+
+  /**
+   * Records an image ARCore reports as tracking and shows its node again if it was hidden or
+   * lost.
+   *
+   * @return false if the image has no node yet and one should be added with {@link #add}
+   */
+  boolean tracked(AugmentedImage image, long now) {
+    AugmentedImageNode node = nodes.get(image.getIndex());
+    if (node == null) {
+      return false;
+    }
+    anchors.track(image, node, now);
+    return tracker.tracked(image.getIndex(), now);
+  }
+
+  /** Adds the node of a newly tracked image to the scene. */
+  void add(AugmentedImage image, AugmentedImageNode node, long now) {
+    images.put(image.getIndex(), image);
+    nodes.put(image.getIndex(), node);
+    anchors.track(image, node, now);
+    scene.addChild(node);
+    tracker.add(image.getIndex(), now);
+  }
+
+  /** Evicts an image ARCore will not track again. */
+  void stopped(AugmentedImage image) {
+    tracker.stopped(image.getIndex());
+  }
+
+  /**
+   * Moves images that have been out of view long enough on to their next state, and culls the
+   * content of shown images outside the view of {@code camera}.
+   */
+  void update(long now, Camera camera) {
+    if (tracker.isEmpty()) {
+      return;
+    }
+    culler.beginFrame(camera);
+    tracker.update(now);
+    culler.endFrame();
+  }
+
+  @Override
+  public void onStateChanged(int index, State from, State to) {
+    AugmentedImage image = images.get(index);
+    Log.i(TAG, (image != null ? image.getName() : "Image " + index) + ": " + from + " -> " + to);
+    AugmentedImageNode node = nodes.get(index);
+    switch (to) {
+      case TRACKING:
+        if (from == State.LAST_KNOWN_POSE || from == State.LOST) {
+          node.setEnabled(true);
+        }
+        break;
+      case LAST_KNOWN_POSE:
+        node.setEnabled(false);
+        break;
+      case LOST:
+        anchors.detach(index);
+        break;
+      case EVICTED:
+        images.remove(index);
+        if (node != null) {
+          evict(index, image, node);
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  @Override
+  public void onTracking(int index) {
+    culler.cull(index, nodes.get(index));
+  }
+
+  private void evict(int index, AugmentedImage image, AugmentedImageNode node) {
+    nodes.remove(index);
+    RenderableCache cache = RenderableCache.getInstance(context);
+    for (Node child : node.getChildren()) {
+      cache.unbind(child);
+      child.setRenderable(null);
+    }
+    scene.removeChild(node);
+    anchors.detach(index);
+    culler.forget(index);
+    cache.release(image.getName());
+  }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Times every model load by stage and aggregates the timings per model, so the slowest assets
+ * and the stage that makes them slow can be found.
+ *
+ * <p>A {@link Load} is stamped with {@link SystemClock#uptimeMillis()} when it is queued, when
+ * its download starts and ends, when the file has been parsed for its memory estimate and when
+ * the renderable is ready, together with the cache tier that served the file and the bytes
+ * downloaded. The waits for the AR assets configuration and for wake-ups from idle mode are kept
+ * as well. {@link #dump()} writes the 50th, 90th and 99th percentile of each stage per model,
+ * slowest first, to {@value #DUMP_FILE_NAME} in the app's external files directory, where {@code
+ * adb pull} can reach it.
+ *
+ * <p>Safe to call from any thread.
+ */
+public final class LoadTelemetry {
+
+  private static final String TAG = "LoadTelemetry";
+
+  static final String DUMP_FILE_NAME = "load-telemetry.tsv";
+
+  // Samples kept per model and stage; older ones are dropped first.
+  private static final int MAX_SAMPLES = 100;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final String CONFIG_ROW = "(config)";
+  private static final String WAKE_ROW = "(wake)";
+
+  /** Where a model's file came from, fastest first. */
+  public enum Tier {
+    // Renderable already in RenderableCache.
+    MEMORY,
+    // Bundled in the APK's assets directory.
+    BUNDLED,
+    // ModelFileCache entry, without a download.
+    DISK,
+    NETWORK
+  }
+
+  private enum Stage {
+    // Waiting for a download thread.
+    QUEUE,
+    DOWNLOAD,
+    // Expanding quantized vertices and reading the glTF for the memory estimate.
+    PARSE,
+    // ModelRenderable.build(), including the hop to the UI thread.
+    BUILD,
+    TOTAL
+  }
+
+  /** The timestamps of one model load, in {@link SystemClock#uptimeMillis()}. */
+  public static final class Load {
+    private final String url;
+    private final long queued;
+    private volatile long downloadStart = -1;
+    private volatile long downloadEnd = -1;
+    private volatile long parsed = -1;
+    private volatile long ready = -1;
+    private volatile long bytes;
+    private volatile Tier tier;
+
+    private Load(String url) {
+      this.url = url;
+      this.queued = SystemClock.uptimeMillis();
+    }
+
+    public void downloadStarted() {
+      downloadStart = SystemClock.uptimeMillis();
+    }
+
+    /** Records the end of the download, the tier that served it and the bytes transferred. */
+    public void downloaded(Tier tier, long bytes) {
+      this.tier = tier;
+      this.bytes = bytes;
+      downloadEnd = SystemClock.uptimeMillis();
+    }
+
+    public void parsed() {
+      parsed = SystemClock.uptimeMillis();
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "%s from %s: queue %dms, download %dms (%dB), parse %dms, build %dms, total %dms",
+          url,
+          tier,
+          downloadStart - queued,
+          downloadEnd - downloadStart,
+          bytes,
+          parsed - downloadEnd,
+          ready - parsed,
+          ready - queued);
+    }
+  }
+
+  /** The latest samples of each stage of one model, plus counts per tier. */
+  private static final class Stats {
+    final long[][] samples = new long[Stage.values().length][MAX_SAMPLES];
+    final long[] byteSamples = new long[MAX_SAMPLES];
+    final int[] tierCounts = new int[Tier.values().length];
+    // Loads with timings, including those whose samples were overwritten.
+    int count;
+    int failures;
+
+    void add(Load load) {
+      add(
+          new long[] {
+            load.downloadStart - load.queued,
+            load.downloadEnd - load.downloadStart,
+            load.parsed - load.downloadEnd,
+            load.ready - load.parsed,
+            load.ready - load.queued
+          },
+          load.bytes);
+      tierCounts[load.tier.ordinal()]++;
+    }
+
+    /** Adds the durations of every stage, in the order of {@link Stage}. */
+    void add(long[] durations, long bytes) {
+      int slot = count % MAX_SAMPLES;
+      for (int stage = 0; stage < durations.length; stage++) {
+        samples[stage][slot] = durations[stage];
+      }
+      byteSamples[slot] = bytes;
+      count++;
+    }
+
+    /** Returns the nearest-rank percentile of a stage's kept samples. */
+    long percentile(Stage stage, int percent) {
+      return percentile(samples[stage.ordinal()], percent);
+    }
+
+    long percentile(long[] values, int percent) {
+      int kept = Math.min(count, MAX_SAMPLES);
+      if (kept == 0) {
+        return -1;
+      }
+      long[] sorted = Arrays.copyOf(values, kept);
+      Arrays.sort(sorted);
+      int rank = (int) Math.ceil(percent / 100.0 * kept);
+      return sorted[Math.max(rank, 1) - 1];
+    }
+  }
+
+  private static LoadTelemetry instance;
+
+  private final File dumpFile;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  // Model URL to its stats, in order of first load.
+  private final Map<String, Stats> stats = new LinkedHashMap<>();
+
+  private LoadTelemetry(Context context) {
+    File dir = context.getExternalFilesDir(null);
+    dumpFile = new File(dir != null ? dir : context.getFilesDir(), DUMP_FILE_NAME);
+  }
+
+  public static synchronized LoadTelemetry getInstance(Context context) {
+    if (instance == null) {
+      instance = new LoadTelemetry(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  /** Starts timing the load of the model at {@code url}, as it is queued. */
+  public Load start(String url) {
+    return new Load(url);
+  }
+
+  /** Stamps a load as ready, or counts it as failed, and adds it to its model's stats. */
+  public void finish(Load load, boolean succeeded) {
+    load.ready = SystemClock.uptimeMillis();
+    synchronized (stats) {
+      Stats modelStats = statsOf(load.url);
+      if (!succeeded || load.tier == null || load.parsed < 0) {
+        modelStats.failures++;
+        return;
+      }
+      modelStats.add(load);
+    }
+    Log.i(TAG, load.toString());
+  }
+
+  /** Counts a request served by a renderable already in memory. */
+  public void recordMemoryHit(String url) {
+    synchronized (stats) {
+      statsOf(url).tierCounts[Tier.MEMORY.ordinal()]++;
+    }
+  }
+
+  /** Records how long an image waited for the AR assets configuration before loading models. */
+  public void recordConfigWait(long millis) {
+    recordTotal(CONFIG_ROW, millis);
+  }
+
+  /** Records how long leaving idle mode took, from an image's detection to full-rate frames. */
+  public void recordWake(long millis) {
+    recordTotal(WAKE_ROW, millis);
+  }
+
+  private void recordTotal(String row, long millis) {
+    long[] durations = new long[Stage.values().length];
+    durations[Stage.TOTAL.ordinal()] = millis;
+    synchronized (stats) {
+      statsOf(row).add(durations, 0);
+    }
+  }
+
+  private Stats statsOf(String url) {
+    Stats modelStats = stats.get(url);
+    if (modelStats == null) {
+      modelStats = new Stats();
+      stats.put(url, modelStats);
+    }
+    return modelStats;
+  }
+
+  /** Writes the percentiles to {@value #DUMP_FILE_NAME} in the background. */
+  public void dump() {
+    executor.execute(
+        () -> {
+          try {
+            dump(dumpFile);
+            Log.i(TAG, "Load telemetry written to " + dumpFile);
+          } catch (IOException e) {
+            Log.e(TAG, "Cannot write load telemetry to " + dumpFile, e);
+          }
+        });
+  }
+
+  /**
+   * Writes one tab-separated row per model: its load counts by tier, its failures, and the 50th,
+   * 90th and 99th percentile of each stage in milliseconds and of the bytes downloaded. Rows are
+   * sorted by the 90th percentile of the total time, slowest first.
+   */
+  void dump(File file) throws IOException {
+    List<String> rows = new ArrayList<>();
+    synchronized (stats) {
+      List<Map.Entry<String, Stats>> sorted = new ArrayList<>(stats.entrySet());
+      Collections.sort(
+          sorted,
+          (a, b) ->
+              Long.compare(
+                  b.getValue().percentile(Stage.TOTAL, 90),
+                  a.getValue().percentile(Stage.TOTAL, 90)));
+      for (Map.Entry<String, Stats> entry : sorted) {
+        rows.add(row(entry.getKey(), entry.getValue()));
+      }
+    }
+
+    StringBuilder header = new StringBuilder("url\tloads\tfailures");
+    for (Tier tier : Tier.values()) {
+      header.append('\t').append(tier.name().toLowerCase(Locale.US));
+    }
+    for (Stage stage : Stage.values()) {
+      String name = stage.name().toLowerCase(Locale.US);
+      header.append(String.format(Locale.US, "\t%1$s_p50\t%1$s_p90\t%1$s_p99", name));
+    }
+    header.append("\tbytes_p50\tbytes_p90\tbytes_p99");
+
+    File temp = new File(file.getPath() + ".tmp");
+    try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), UTF_8)) {
+      writer.write(header.append('\n').toString());
+      for (String row : rows) {
+        writer.write(row);
+        writer.write('\n');
+      }
+    }
+    if (!temp.renameTo(file)) {
+      throw new IOException("Cannot replace " + file);
+    }
+  }
+
+  private static String row(String url, Stats stats) {
+    StringBuilder row = new StringBuilder(url);
+    row.append('\t').append(stats.count).append('\t').append(stats.failures);
+    for (int tierCount : stats.tierCounts) {
+      row.append('\t').append(tierCount);
+    }
+    for (Stage stage : Stage.values()) {
+      for (int percent : new int[] {50, 90, 99}) {
+        row.append('\t').append(stats.percentile(stage, percent));
+      }
+    }
+    for (int percent : new int[] {50, 90, 99}) {
+      row.append('\t').append(stats.percentile(stats.byteSamples, percent));
+    }
+    return row.toString();
+  }
+}
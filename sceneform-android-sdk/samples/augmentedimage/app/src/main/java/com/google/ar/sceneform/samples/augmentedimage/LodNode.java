@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.content.Context;
+import android.util.Log;
+import com.google.ar.sceneform.Camera;
+import com.google.ar.sceneform.FrameTime;
+import com.google.ar.sceneform.Node;
+import com.google.ar.sceneform.Scene;
+import com.google.ar.sceneform.collision.Box;
+import com.google.ar.sceneform.collision.CollisionShape;
+import com.google.ar.sceneform.math.Vector3;
+import com.google.ar.sceneform.rendering.ModelRenderable;
+import com.google.ar.sceneform.samples.augmentedimage.assets.ModelAsset;
+
+/**
+ * Node that shows one of a model's levels of detail, chosen every frame by how much of the screen
+ * height the model covers.
+ *
+ * <p>Each level is loaded through {@link RenderableCache} when it is first needed; the current
+ * level stays on screen until the next one is ready. A level is left for a finer one only once the
+ * model is clearly larger than the level's threshold, so a model near a threshold does not switch
+ * back and forth.
+ */
+@SuppressWarnings({"AndroidApiChecker", "FutureReturnValueIgnored"})
+public class LodNode extends Node {
+
+  private static final String TAG = "LodNode";
+
+  // Share of a threshold the model must grow past before a finer level is loaded.
+  private static final float HYSTERESIS = 0.2f;
+
+  private final RenderableCache renderableCache;
+  private final QualityGovernor qualityGovernor;
+  private final ModelAsset asset;
+  private final String imageName;
+
+  private int level = -1;
+  private int pendingLevel = -1;
+  // Half the diagonal of the model's bounding box, in model space.
+  private float radius;
+
+  public LodNode(Context context, ModelAsset asset, String imageName) {
+    this.renderableCache = RenderableCache.getInstance(context);
+    this.qualityGovernor = QualityGovernor.getInstance(context);
+    this.asset = asset;
+    this.imageName = imageName;
+  }
+
+  /** Shows a level that is already loaded. Must be called on the UI thread. */
+  public void show(int level, ModelRenderable renderable) {
+    this.level = level;
+    setRenderable(renderable);
+    renderableCache.bind(this, asset.getLod(level), imageName);
+    CollisionShape shape = renderable.getCollisionShape();
+    if (shape instanceof Box) {
+      radius = ((Box) shape).getSize().length() / 2;
+    }
+  }
+
+  @Override
+  public void onUpdate(FrameTime frameTime) {
+    Scene scene = getScene();
+    if (scene == null || level < 0 || radius <= 0) {
+      return;
+    }
+    // Under load, the governor asks for coarser levels than the screen size calls for.
+    int bias = qualityGovernor.getLodBias();
+    int wanted =
+        Math.min(
+            selectLevel(screenSize(scene.getCamera()), level - bias) + bias,
+            asset.getLodCount() - 1);
+    if (wanted == level || wanted == pendingLevel) {
+      return;
+    }
+    pendingLevel = wanted;
+    renderableCache
+        .get(asset.getLod(wanted), imageName)
+        .thenAcceptAsync(
+            renderable -> {
+              // A later frame may have asked for another level meanwhile.
+              if (pendingLevel == wanted) {
+                pendingLevel = -1;
+                show(wanted, renderable);
+              }
+            },
+            FrameScheduler.getInstance().executor(FrameScheduler.DETAIL))
+        .exceptionally(
+            throwable -> {
+              Log.e(TAG, "Exception loading " + asset.getLod(wanted), throwable);
+              pendingLevel = -1;
+              return null;
+            });
+  }
+
+  /** Returns the share of the screen height covered by the model's bounding sphere. */
+  private float screenSize(Camera camera) {
+    Vector3 worldScale = getWorldScale();
+    float scale = Math.max(worldScale.x, Math.max(worldScale.y, worldScale.z));
+    float distance = Vector3.subtract(camera.getWorldPosition(), getWorldPosition()).length();
+    if (distance <= radius * scale) {
+      return Float.MAX_VALUE;
+    }
+    // The projection's y scale is the cotangent of half the vertical field of view.
+    return radius * scale * camera.getProjectionMatrix().data[5] / distance;
+  }
+
+  /** Returns the level for a screen size, keeping to {@code current} or coarser near thresholds. */
+  private int selectLevel(float screenSize, int current) {
+    int selected = 0;
+    for (int candidate = 1; candidate < asset.getLodCount(); candidate++) {
+      float threshold = asset.getLodScreenSize(candidate);
+      if (candidate <= current) {
+        // Already this coarse or coarser: stay until clearly above the threshold.
+        threshold *= 1 + HYSTERESIS;
+      }
+      if (screenSize < threshold) {
+        selected = candidate;
+      }
+    }
+    return selected;
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.content.Context;
+import android.util.Log;
+import com.google.ar.sceneform.FrameTime;
+import com.google.ar.sceneform.Scene;
+import com.google.ar.sceneform.samples.augmentedimage.quality.QualityPolicy;
+import com.google.ar.sceneform.samples.augmentedimage.quality.QualityPolicy.Level;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lowers rendering quality while frames miss their budget and raises it again when there is
+ * headroom, so scenes with several heavy or animated models keep their frame rate.
+ *
+ * <p>Frame times from the scene's update loop drive a {@link QualityPolicy}. Its levels are
+ * applied here: {@link LodNode} reads {@link #getLodBias()}, {@link FrustumCuller} reads {@link
+ * #getMaxVisibleImages()}, and heavy model shadows and model animations are switched as the level
+ * changes. Used from the UI thread once added to the scene with {@link Scene#addOnUpdateListener}.
+ */
+public final class QualityGovernor implements Scene.OnUpdateListener {
+
+  private static final String TAG = "QualityGovernor";
+
+  // 30 fps, with a little slack for the jitter of a display running at that rate.
+  private static final long FRAME_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(36);
+
+  // Images drawn at the lowest level.
+  private static final int CAPPED_VISIBLE_IMAGES = 2;
+
+  private static QualityGovernor instance;
+
+  private final Context context;
+  private final QualityPolicy policy = new QualityPolicy(FRAME_BUDGET_NANOS);
+  private Level level = Level.FULL;
+
+  private QualityGovernor(Context context) {
+    this.context = context;
+  }
+
+  public static synchronized QualityGovernor getInstance(Context context) {
+    if (instance == null) {
+      instance = new QualityGovernor(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  /** Returns how many levels coarser than their screen size calls for models are shown. */
+  public int getLodBias() {
+    return level.compareTo(Level.COARSER_DETAIL) >= 0 ? 1 : 0;
+  }
+
+  /** Returns how many images in view may be drawn. */
+  public int getMaxVisibleImages() {
+    return level.compareTo(Level.CAPPED_IMAGES) >= 0 ? CAPPED_VISIBLE_IMAGES : Integer.MAX_VALUE;
+  }
+
+  @Override
+  public void onUpdate(FrameTime frameTime) {
+    if (!policy.onFrame(frameTime.getDeltaTime(TimeUnit.NANOSECONDS))) {
+      return;
+    }
+    level = policy.getLevel();
+    Log.i(TAG, "Quality " + policy);
+    RenderableCache.getInstance(context)
+        .setHeavyModelShadows(level.compareTo(Level.NO_HEAVY_SHADOWS) < 0);
+    AugmentedImageNode.setAnimationsPaused(level.compareTo(Level.PAUSED_ANIMATIONS) >= 0);
+  }
+}
@@ -0,0 +1,514 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import com.google.ar.sceneform.Node;
+import com.google.ar.sceneform.assets.RenderableSource;
+import com.google.ar.sceneform.rendering.ModelRenderable;
+import com.google.ar.sceneform.samples.augmentedimage.assets.DiskLruCache;
+import com.google.ar.sceneform.samples.augmentedimage.assets.DownloadEngine;
+import com.google.ar.sceneform.samples.augmentedimage.assets.Glb;
+import com.google.ar.sceneform.samples.augmentedimage.assets.GltfFootprint;
+import com.google.ar.sceneform.samples.augmentedimage.assets.ModelAsset;
+import com.google.ar.sceneform.samples.augmentedimage.assets.ModelFileCache;
+import com.google.ar.sceneform.samples.augmentedimage.assets.VertexDequantizer;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory cache of model renderables, kept under a byte budget.
+ *
+ * <p>Model files come from the {@link ModelFileCache} disk tier; quantized GLB models are expanded
+ * to float vertex data by {@link VertexDequantizer} first. Each model's memory is estimated
+ * from its glTF accessor counts and texture sizes. When the resident models exceed the budget,
+ * models whose images have not been tracked recently are evicted, least recently tracked first,
+ * and cleared from the nodes showing them. When such an image is tracked again its models are
+ * reloaded from disk and put back. Every load is timed by stage in {@link LoadTelemetry}.
+ *
+ * <p>All methods must be called on the UI thread.
+ */
+@SuppressWarnings({"AndroidApiChecker", "FutureReturnValueIgnored"})
+public final class RenderableCache {
+
+  private static final String TAG = "RenderableCache";
+
+  private static final String MODEL_CACHE_DIR = "model-cache";
+  private static final long MODEL_CACHE_BYTES = 256L * 1024 * 1024;
+  private static final String EXPANDED_CACHE_DIR = "expanded-models";
+  private static final long EXPANDED_CACHE_BYTES = 256L * 1024 * 1024;
+  private static final int MODEL_DOWNLOAD_THREADS = 3;
+  private static final int FILE_DOWNLOAD_THREADS = 4;
+  private static final int MAX_CONNECTIONS_PER_HOST = 4;
+
+  // Models of an image tracked within this time are never evicted.
+  private static final long IDLE_MILLIS = 30000;
+
+  // Models estimated to take this much memory or more count as heavy.
+  private static final long HEAVY_MODEL_BYTES = 4L * 1024 * 1024;
+
+  // Estimate for bundled models whose compressed size cannot be read.
+  private static final long DEFAULT_BUNDLED_MODEL_BYTES = 8L * 1024 * 1024;
+
+  // Runs continuations that touch the scene or build renderables on the UI thread.
+  static final Executor MAIN_THREAD = new Handler(Looper.getMainLooper())::post;
+
+  private static RenderableCache instance;
+
+  private final Context context;
+  private final LoadTelemetry telemetry;
+  private final ExecutorService downloads = Executors.newFixedThreadPool(MODEL_DOWNLOAD_THREADS);
+  private ModelFileCache modelFileCache;
+  // Float copies of quantized models, keyed like the model file cache entries they came from.
+  private DiskLruCache expandedModelCache;
+
+  private long budgetBytes;
+  private long residentBytes;
+  private boolean heavyModelShadows = true;
+  // Models being fetched or built; read by the prefetcher thread to yield to them.
+  private final AtomicInteger pendingLoads = new AtomicInteger();
+
+  private final Map<ModelAsset, Entry> entries = new HashMap<>();
+  // Image name to the last time it was tracked, from SystemClock.uptimeMillis().
+  private final Map<String, Long> lastTracked = new HashMap<>();
+  // Nodes showing a cached model, so eviction can clear them and tracking can restore them.
+  private final Map<Node, Binding> bindings = new HashMap<>();
+  // Images that lost a bound model to eviction.
+  private final Set<String> evictedImages = new HashSet<>();
+
+  private static final class Entry {
+    final Set<String> images = new HashSet<>();
+    CompletableFuture<ModelRenderable> renderable;
+    long bytes;
+    // Whether bytes count towards residentBytes.
+    boolean resident;
+    // Files held in the disk caches until the renderable is built from them.
+    File cachedModel;
+    File expandedModel;
+  }
+
+  private static final class Binding {
+    final ModelAsset asset;
+    final String imageName;
+
+    Binding(ModelAsset asset, String imageName) {
+      this.asset = asset;
+      this.imageName = imageName;
+    }
+  }
+
+  private RenderableCache(Context context) {
+    this.context = context;
+    this.telemetry = LoadTelemetry.getInstance(context);
+    ActivityManager activityManager =
+        (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+    // Half of the per-app memory class leaves room for the camera and Sceneform itself.
+    budgetBytes = activityManager.getMemoryClass() * 1024L * 1024 / 2;
+  }
+
+  public static synchronized RenderableCache getInstance(Context context) {
+    if (instance == null) {
+      instance = new RenderableCache(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  public long getBudgetBytes() {
+    return budgetBytes;
+  }
+
+  /** Sets the memory budget for resident models, evicting idle models if it is exceeded. */
+  public void setBudgetBytes(long budgetBytes) {
+    this.budgetBytes = budgetBytes;
+    trimToBudget();
+  }
+
+  /** Estimated memory of the models currently loaded or loading. */
+  public long getResidentBytes() {
+    return residentBytes;
+  }
+
+  /** Whether any model is being fetched or built for an image. Safe to call from any thread. */
+  public boolean isLoading() {
+    return pendingLoads.get() > 0;
+  }
+
+  /** Returns the renderable for a model shown on the named image, loading it if needed. */
+  public CompletableFuture<ModelRenderable> get(ModelAsset asset, String imageName) {
+    Entry entry = entries.get(asset);
+    if (entry == null) {
+      entry = load(asset);
+      entries.put(asset, entry);
+    } else if (entry.renderable.isDone() && !entry.renderable.isCompletedExceptionally()) {
+      telemetry.recordMemoryHit(asset.getUrl());
+    }
+    entry.images.add(imageName);
+    return entry.renderable;
+  }
+
+  /** Records that {@code node} shows {@code asset}, which was requested for the named image. */
+  public void bind(Node node, ModelAsset asset, String imageName) {
+    bindings.put(node, new Binding(asset, imageName));
+  }
+
+  public void unbind(Node node) {
+    bindings.remove(node);
+  }
+
+  /**
+   * Marks the named image as tracked now. Models evicted from nodes of this image are reloaded
+   * and put back once ready.
+   */
+  public void touch(String imageName) {
+    lastTracked.put(imageName, SystemClock.uptimeMillis());
+    if (evictedImages.remove(imageName)) {
+      for (Map.Entry<Node, Binding> binding : new ArrayList<>(bindings.entrySet())) {
+        if (binding.getValue().imageName.equals(imageName)) {
+          restore(binding.getKey(), binding.getValue());
+        }
+      }
+    }
+    if (residentBytes > budgetBytes) {
+      trimToBudget();
+    }
+  }
+
+  /**
+   * Drops the named image's claim on its models once its nodes are gone. Models that no other
+   * image shows are evicted at once, rather than when the budget runs out.
+   */
+  public void release(String imageName) {
+    lastTracked.remove(imageName);
+    evictedImages.remove(imageName);
+    for (Map.Entry<ModelAsset, Entry> candidate : new ArrayList<>(entries.entrySet())) {
+      Entry entry = candidate.getValue();
+      if (entry.images.remove(imageName)
+          && entry.images.isEmpty()
+          && entry.renderable.isDone()
+          && !entry.renderable.isCompletedExceptionally()) {
+        evict(candidate.getKey(), entry);
+      }
+    }
+  }
+
+  /** Turns shadow casting and receiving of heavy models, loaded now or later, on or off. */
+  public void setHeavyModelShadows(boolean enabled) {
+    if (enabled == heavyModelShadows) {
+      return;
+    }
+    heavyModelShadows = enabled;
+    for (Entry entry : entries.values()) {
+      if (entry.renderable.isDone() && !entry.renderable.isCompletedExceptionally()) {
+        applyShadows(entry, entry.renderable.getNow(null));
+      }
+    }
+  }
+
+  private void applyShadows(Entry entry, ModelRenderable renderable) {
+    if (entry.bytes >= HEAVY_MODEL_BYTES) {
+      renderable.setShadowCaster(heavyModelShadows);
+      renderable.setShadowReceiver(heavyModelShadows);
+    }
+  }
+
+  private void restore(Node node, Binding binding) {
+    get(binding.asset, binding.imageName)
+        .thenAcceptAsync(
+            renderable -> {
+              // The node may have been unbound or rebound while the model reloaded.
+              Binding current = bindings.get(node);
+              if (current != null && current.asset == binding.asset) {
+                node.setRenderable(renderable);
+              }
+            },
+            FrameScheduler.getInstance().executor(FrameScheduler.LOADED_MODEL))
+        .exceptionally(
+            throwable -> {
+              Log.e(TAG, "Exception reloading " + binding.asset, throwable);
+              return null;
+            });
+  }
+
+  private Entry load(ModelAsset asset) {
+    Entry entry = new Entry();
+    LoadTelemetry.Load timing = telemetry.start(asset.getUrl());
+    pendingLoads.incrementAndGet();
+    entry.renderable =
+        CompletableFuture.supplyAsync(() -> fetch(asset, entry, timing), downloads)
+            .thenComposeAsync(
+                (Uri uri) -> {
+                  entry.resident = true;
+                  residentBytes += entry.bytes;
+                  trimToBudget();
+                  return build(asset, uri);
+                },
+                MAIN_THREAD);
+    entry.renderable.whenCompleteAsync(
+        (renderable, throwable) -> {
+          pendingLoads.decrementAndGet();
+          releaseFiles(entry);
+          telemetry.finish(timing, throwable == null);
+          if (throwable != null && entries.remove(asset, entry) && entry.resident) {
+            // Forget the failure so the next request retries.
+            residentBytes -= entry.bytes;
+          } else if (throwable == null && !heavyModelShadows) {
+            applyShadows(entry, renderable);
+          }
+        },
+        MAIN_THREAD);
+    return entry;
+  }
+
+  /** Returns the URI to build a model from and estimates its memory. Runs on a download thread. */
+  private Uri fetch(ModelAsset asset, Entry entry, LoadTelemetry.Load timing) {
+    timing.downloadStarted();
+    String url = asset.getUrl();
+    if (!url.startsWith("http://") && !url.startsWith("https://")) {
+      // Bundled in the APK's assets directory.
+      timing.downloaded(LoadTelemetry.Tier.BUNDLED, 0);
+      entry.bytes = estimateBundledBytes(url);
+      timing.parsed();
+      return Uri.parse(url);
+    }
+
+    ModelFileCache cache = getModelFileCache();
+    if (cache == null) {
+      // Sceneform downloads it while building.
+      timing.downloaded(LoadTelemetry.Tier.NETWORK, 0);
+      entry.bytes = DEFAULT_BUNDLED_MODEL_BYTES;
+      timing.parsed();
+      return Uri.parse(url);
+    }
+    File file;
+    try {
+      ModelFileCache.Transfer previous = cache.getTransfer(url);
+      file = cache.fetch(url);
+      entry.cachedModel = file;
+      // Every download records a new transfer.
+      ModelFileCache.Transfer transfer = cache.getTransfer(url);
+      if (transfer != null && transfer != previous) {
+        timing.downloaded(LoadTelemetry.Tier.NETWORK, transfer.getEncodedBytes());
+        Log.i(TAG, "Last download of " + asset + ": " + transfer);
+      } else {
+        timing.downloaded(LoadTelemetry.Tier.DISK, 0);
+      }
+      Log.i(TAG, "Model cache " + cache + " after fetching " + asset);
+      if (asset.isGlb()) {
+        file = expandIfQuantized(file, entry);
+      }
+    } catch (IOException e) {
+      throw new CompletionException(e);
+    }
+    try {
+      entry.bytes = GltfFootprint.estimate(file, RenderableCache::estimateTextureBytes);
+    } catch (IOException e) {
+      Log.w(TAG, "Cannot estimate memory of " + asset, e);
+      entry.bytes = file.length() * 2;
+    }
+    timing.parsed();
+    return Uri.fromFile(file);
+  }
+
+  /**
+   * Returns a copy of a GLB file with float vertex data if its vertices are quantized, which
+   * Sceneform cannot read, or the file itself otherwise. Each downloaded version of a model is
+   * expanded once. A copy is held in its cache as the entry's {@code expandedModel}.
+   */
+  private File expandIfQuantized(File file, Entry modelEntry) throws IOException {
+    DiskLruCache expandedModels = getExpandedModelCache();
+    String key = file.getParentFile().getName();
+    File entry = expandedModels.get(key);
+    if (entry != null) {
+      modelEntry.expandedModel = new File(entry, file.getName());
+      return modelEntry.expandedModel;
+    }
+    if (!VertexDequantizer.isQuantized(Glb.readJson(file))) {
+      return file;
+    }
+    long start = SystemClock.uptimeMillis();
+    Glb glb = Glb.read(file);
+    VertexDequantizer.expand(glb);
+    File scratch = expandedModels.edit();
+    try {
+      glb.write(new File(scratch, file.getName()));
+    } catch (IOException e) {
+      expandedModels.abort(scratch);
+      throw e;
+    }
+    entry = expandedModels.commit(key, scratch);
+    Log.i(TAG, "Expanded " + file.getName() + " in " + (SystemClock.uptimeMillis() - start) + "ms");
+    modelEntry.expandedModel = new File(entry, file.getName());
+    return modelEntry.expandedModel;
+  }
+
+  /** Lets the disk caches evict the files a model was built from. */
+  private void releaseFiles(Entry entry) {
+    if (entry.cachedModel != null) {
+      getModelFileCache().release(entry.cachedModel);
+      entry.cachedModel = null;
+    }
+    if (entry.expandedModel != null) {
+      expandedModelCache.release(entry.expandedModel.getParentFile().getName());
+      entry.expandedModel = null;
+    }
+  }
+
+  private synchronized DiskLruCache getExpandedModelCache() throws IOException {
+    if (expandedModelCache == null) {
+      expandedModelCache =
+          new DiskLruCache(
+              new File(context.getCacheDir(), EXPANDED_CACHE_DIR), EXPANDED_CACHE_BYTES);
+    }
+    return expandedModelCache;
+  }
+
+  private CompletableFuture<ModelRenderable> build(ModelAsset asset, Uri uri) {
+    Uri registryId = Uri.parse(asset.getUrl());
+    if (asset.isSfb()) {
+      return ModelRenderable.builder()
+          .setSource(context, uri)
+          .setRegistryId(registryId)
+          .build();
+    }
+    return ModelRenderable.builder()
+        .setSource(
+            context,
+            RenderableSource.builder()
+                .setSource(
+                    context,
+                    uri,
+                    asset.isGlb()
+                        ? RenderableSource.SourceType.GLB
+                        : RenderableSource.SourceType.GLTF2)
+                .build())
+        .setRegistryId(registryId)
+        .build();
+  }
+
+  /** Evicts models of idle images, least recently tracked first, until within budget. */
+  private void trimToBudget() {
+    if (residentBytes <= budgetBytes) {
+      return;
+    }
+    long now = SystemClock.uptimeMillis();
+    List<Map.Entry<ModelAsset, Entry>> candidates = new ArrayList<>();
+    for (Map.Entry<ModelAsset, Entry> candidate : entries.entrySet()) {
+      Entry entry = candidate.getValue();
+      if (entry.renderable.isDone()
+          && !entry.renderable.isCompletedExceptionally()
+          && now - lastTrackedOf(entry) > IDLE_MILLIS) {
+        candidates.add(candidate);
+      }
+    }
+    candidates.sort(
+        (a, b) -> Long.compare(lastTrackedOf(a.getValue()), lastTrackedOf(b.getValue())));
+
+    for (Map.Entry<ModelAsset, Entry> candidate : candidates) {
+      if (residentBytes <= budgetBytes) {
+        break;
+      }
+      evict(candidate.getKey(), candidate.getValue());
+    }
+    if (residentBytes > budgetBytes) {
+      Log.w(TAG, "Models of tracked images exceed the budget: " + residentBytes + "B");
+    }
+  }
+
+  private void evict(ModelAsset asset, Entry entry) {
+    Log.i(TAG, "Evicting " + asset + ", " + entry.bytes + "B");
+    entries.remove(asset);
+    residentBytes -= entry.bytes;
+    for (Map.Entry<Node, Binding> binding : bindings.entrySet()) {
+      if (binding.getValue().asset == asset) {
+        binding.getKey().setRenderable(null);
+        evictedImages.add(binding.getValue().imageName);
+      }
+    }
+  }
+
+  private long lastTrackedOf(Entry entry) {
+    long latest = 0;
+    for (String image : entry.images) {
+      Long tracked = lastTracked.get(image);
+      if (tracked != null && tracked > latest) {
+        latest = tracked;
+      }
+    }
+    return latest;
+  }
+
+  /**
+   * Returns the disk tier models are fetched through, or null if it cannot be opened. Unlike the
+   * rest of this class, safe to call from any thread.
+   */
+  synchronized ModelFileCache getModelFileCache() {
+    if (modelFileCache == null) {
+      try {
+        modelFileCache =
+            new ModelFileCache(
+                new File(context.getFilesDir(), MODEL_CACHE_DIR),
+                MODEL_CACHE_BYTES,
+                new DownloadEngine(FILE_DOWNLOAD_THREADS, MAX_CONNECTIONS_PER_HOST));
+      } catch (IOException e) {
+        // Fall back to loading straight from the network.
+        Log.e(TAG, "Cannot open model cache", e);
+      }
+    }
+    return modelFileCache;
+  }
+
+  private long estimateBundledBytes(String path) {
+    try (AssetFileDescriptor descriptor = context.getAssets().openFd(path)) {
+      return descriptor.getLength() * 2;
+    } catch (IOException e) {
+      // Compressed in the APK, so its length is unknown.
+      return DEFAULT_BUNDLED_MODEL_BYTES;
+    }
+  }
+
+  /** Decoded RGBA size of an image plus a third for its mip levels. */
+  private static long estimateTextureBytes(InputStream encodedImage) {
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    BitmapFactory.decodeStream(encodedImage, null, options);
+    if (options.outWidth <= 0 || options.outHeight <= 0) {
+      return 0;
+    }
+    return (long) options.outWidth * options.outHeight * 4 * 4 / 3;
+  }
+}
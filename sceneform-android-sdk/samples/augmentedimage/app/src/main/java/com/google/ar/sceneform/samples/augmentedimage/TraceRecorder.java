@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage;
+
+import android.util.Log;
+import com.google.ar.core.AugmentedImage;
+import com.google.ar.core.Frame;
+import com.google.ar.core.Pose;
+import com.google.ar.sceneform.samples.augmentedimage.tracking.TraceFrame.TrackingState;
+import com.google.ar.sceneform.samples.augmentedimage.tracking.TraceWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Records each frame's camera tracking state and updated augmented images to a trace file, so the
+ * session can be replayed on a desktop JVM with {@code ./gradlew :tools:replayTrace}.
+ *
+ * <p>Frames are encoded by a {@link TraceWriter} into memory on the UI thread. Every {@value
+ * #CHUNK_BYTES} bytes, and on {@link #close()}, the encoded frames are appended to the file on a
+ * background thread. Used from the UI thread.
+ */
+final class TraceRecorder {
+
+  private static final String TAG = "TraceRecorder";
+
+  private static final int CHUNK_BYTES = 32 * 1024;
+
+  private final File file;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(2 * CHUNK_BYTES);
+  private final float[] pose = new float[7];
+  private TraceWriter writer;
+
+  /** Records to {@code file}, which is replaced. */
+  TraceRecorder(File file) {
+    this.file = file;
+    executor.execute(file::delete);
+    try {
+      writer = new TraceWriter(buffer);
+    } catch (IOException e) {
+      // Writes to memory do not fail.
+      throw new IllegalStateException(e);
+    }
+    Log.i(TAG, "Recording to " + file);
+  }
+
+  /** Records one frame. */
+  void record(Frame frame) {
+    if (writer == null) {
+      return;
+    }
+    Collection<AugmentedImage> images = frame.getUpdatedTrackables(AugmentedImage.class);
+    try {
+      writer.beginFrame(
+          frame.getTimestamp(),
+          TrackingState.valueOf(frame.getCamera().getTrackingState().name()),
+          images.size());
+      for (AugmentedImage image : images) {
+        Pose center = image.getCenterPose();
+        pose[0] = center.tx();
+        pose[1] = center.ty();
+        pose[2] = center.tz();
+        pose[3] = center.qx();
+        pose[4] = center.qy();
+        pose[5] = center.qz();
+        pose[6] = center.qw();
+        writer.image(
+            image.getIndex(),
+            image.getName(),
+            TrackingState.valueOf(image.getTrackingState().name()),
+            pose,
+            image.getExtentX(),
+            image.getExtentZ());
+      }
+    } catch (IOException e) {
+      // Writes to memory do not fail.
+      throw new IllegalStateException(e);
+    }
+    if (buffer.size() >= CHUNK_BYTES) {
+      flushChunk();
+    }
+  }
+
+  /** Writes the frames recorded so far and stops recording. */
+  void close() {
+    if (writer == null) {
+      return;
+    }
+    writer = null;
+    flushChunk();
+    executor.shutdown();
+  }
+
+  private void flushChunk() {
+    byte[] chunk = buffer.toByteArray();
+    buffer.reset();
+    executor.execute(
+        () -> {
+          try (OutputStream out = new FileOutputStream(file, true)) {
+            out.write(chunk);
+          } catch (IOException e) {
+            Log.e(TAG, "Cannot write to " + file, e);
+          }
+        });
+  }
+}
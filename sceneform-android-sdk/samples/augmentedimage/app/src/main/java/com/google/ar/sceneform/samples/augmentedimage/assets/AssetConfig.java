@@ -0,0 +1,519 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.assets;
+
+import com.google.gson.stream.JsonReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable view of ar-assets-config.json.
+ *
+ * <p>The configuration is read with a streaming {@link JsonReader}, straight into typed objects:
+ *
+ * <pre>
+ * {
+ *   "assets": {
+ *     "B lymphocyte": {
+ *       "protein": {
+ *         "url": "https://storage.googleapis.com/arbio/1crn_3.gltf",
+ *         "position": [0.0, -1.0, 0.0],
+ *         "rotation": [1.0, 0.5, -0.8, 270.0],
+ *         "scale": 0.5,
+ *         "lods": [{"url": "https://storage.googleapis.com/arbio/1crn_3_lod1.glb",
+ *                   "screen_size": 0.5}],
+ *         "textures": [{"url": "https://storage.googleapis.com/arbio/1crn_3_t1024.glb",
+ *                       "max_size": 1024}]
+ *       }
+ *     }
+ *   },
+ *   "images": {
+ *     "B lymphocyte": {"priority": 10},
+ *     "Myosin close": {"behavior": "bundled_model", "model": "brain_areas/scene.sfb",
+ *                      "placement": "corner"},
+ *     "Mobile lab rat": {"behavior": "view", "layout": "rat_genome", "placement": "corner"}
+ *   },
+ *   "manifest_version": 12,
+ *   "files": {...}
+ * }
+ * </pre>
+ *
+ * <p>An image's priority says how likely it is to be scanned first, e.g. because it is printed on
+ * a handout. Groups with a positive priority are prefetched at startup, highest first. An image's
+ * {@link ImageBehavior} says what it shows; by default the models of its group. The
+ * manifest version and files are described in {@link AssetManifest}. A model's optional levels
+ * of detail are written by the {@code generateLods} tool; each is shown while the model covers
+ * less than its {@code screen_size} of the screen height.
+ *
+ * <p>Models and levels of detail may list texture variants, written by the {@code
+ * downscaleTextures} tool, largest first. A variant exists for every {@code max_size} the
+ * original's largest texture exceeds. Parsed with a texture size limit, each model and level uses
+ * the largest variant within the limit in place of its {@code url}.
+ */
+public final class AssetConfig {
+
+  private static final float[] DEFAULT_POSITION = {0f, 0f, 0f};
+  private static final float[] DEFAULT_ROTATION = {0f, 0f, 0f, 1f};
+
+  /** Texture size limit that keeps the textures models were authored with. */
+  public static final int NO_TEXTURE_LIMIT = 0;
+
+  private final Map<String, ImageAssetGroup> groups;
+  private final Map<String, Integer> priorities;
+  private final Map<String, ImageBehavior> behaviors;
+  private final List<ImageAssetGroup> prefetchOrder;
+  private final AssetManifest manifest;
+  private final List<String> textureVariantUrls;
+
+  private AssetConfig(
+      Map<String, ImageAssetGroup> groups,
+      Map<String, Integer> priorities,
+      Map<String, ImageBehavior> behaviors,
+      AssetManifest manifest,
+      Collection<String> textureVariantUrls) {
+    this.groups = Collections.unmodifiableMap(groups);
+    this.behaviors = Collections.unmodifiableMap(behaviors);
+    this.textureVariantUrls = Collections.unmodifiableList(new ArrayList<>(textureVariantUrls));
+    this.manifest = manifest;
+    this.priorities = Collections.unmodifiableMap(priorities);
+
+    List<ImageAssetGroup> prefetchOrder = new ArrayList<>();
+    for (ImageAssetGroup group : groups.values()) {
+      if (getPriority(group.getName()) > 0) {
+        prefetchOrder.add(group);
+      }
+    }
+    // Stable, so groups of equal priority keep their order in the file.
+    Collections.sort(
+        prefetchOrder,
+        (a, b) -> Integer.compare(getPriority(b.getName()), getPriority(a.getName())));
+    this.prefetchOrder = Collections.unmodifiableList(prefetchOrder);
+  }
+
+  /** Returns the models configured for the image with the given name, or null if there are none. */
+  public ImageAssetGroup getGroup(String imageName) {
+    return groups.get(imageName);
+  }
+
+  public Collection<ImageAssetGroup> getGroups() {
+    return groups.values();
+  }
+
+  /** Returns the file hashes of this configuration, empty if it has no manifest. */
+  public AssetManifest getManifest() {
+    return manifest;
+  }
+
+  /** Returns the URL of every model and level of detail in the configuration, each once. */
+  public List<String> getModelUrls() {
+    Set<String> urls = new LinkedHashSet<>();
+    for (ImageAssetGroup group : groups.values()) {
+      for (ModelAsset model : group.getModels()) {
+        for (int level = 0; level < model.getLodCount(); level++) {
+          urls.add(model.getLod(level).getUrl());
+        }
+      }
+    }
+    return new ArrayList<>(urls);
+  }
+
+  /**
+   * Returns the URL of every texture variant in the configuration, including those not chosen
+   * under this configuration's texture size limit, each once.
+   */
+  public List<String> getTextureVariantUrls() {
+    return textureVariantUrls;
+  }
+
+  /** Returns the configured priority of the named image, or 0 if it has none. */
+  public int getPriority(String imageName) {
+    Integer priority = priorities.get(imageName);
+    return priority != null ? priority : 0;
+  }
+
+  /** Returns what the named image shows, by default the models of its group. */
+  public ImageBehavior getBehavior(String imageName) {
+    ImageBehavior behavior = behaviors.get(imageName);
+    return behavior != null ? behavior : ImageBehavior.DEFAULT;
+  }
+
+  /** Returns the behaviors of the images listed under {@code "images"}, keyed by image name. */
+  public Map<String, ImageBehavior> getBehaviors() {
+    return behaviors;
+  }
+
+  /** Returns the groups to prefetch at startup, highest priority first. */
+  public List<ImageAssetGroup> getPrefetchOrder() {
+    return prefetchOrder;
+  }
+
+  public static AssetConfig parse(String json) throws IOException {
+    return parse(new StringReader(json), NO_TEXTURE_LIMIT);
+  }
+
+  public static AssetConfig parse(String json, int maxTextureSize) throws IOException {
+    return parse(new StringReader(json), maxTextureSize);
+  }
+
+  public static AssetConfig parse(Reader in) throws IOException {
+    return parse(in, NO_TEXTURE_LIMIT);
+  }
+
+  /**
+   * Parses a configuration, choosing for each model the texture variant for {@code
+   * maxTextureSize}. Unknown keys are skipped, so newer configs stay readable.
+   */
+  public static AssetConfig parse(Reader in, int maxTextureSize) throws IOException {
+    Map<String, ImageAssetGroup> groups = new LinkedHashMap<>();
+    Map<String, Integer> priorities = new HashMap<>();
+    Map<String, ImageBehavior> behaviors = new LinkedHashMap<>();
+    Set<String> textureVariantUrls = new LinkedHashSet<>();
+    int manifestVersion = 0;
+    Map<String, AssetManifest.FileInfo> files = new HashMap<>();
+    try (JsonReader reader = new JsonReader(in)) {
+      reader.beginObject();
+      while (reader.hasNext()) {
+        switch (reader.nextName()) {
+          case "assets":
+            reader.beginObject();
+            while (reader.hasNext()) {
+              String groupName = reader.nextName();
+              groups.put(
+                  groupName, readGroup(reader, groupName, maxTextureSize, textureVariantUrls));
+            }
+            reader.endObject();
+            break;
+          case "images":
+            reader.beginObject();
+            while (reader.hasNext()) {
+              String imageName = reader.nextName();
+              behaviors.put(imageName, readImage(reader, imageName, priorities));
+            }
+            reader.endObject();
+            break;
+          case "manifest_version":
+            manifestVersion = reader.nextInt();
+            break;
+          case "files":
+            reader.beginObject();
+            while (reader.hasNext()) {
+              String url = reader.nextName();
+              files.put(AssetManifest.normalize(url), readFileInfo(reader, url));
+            }
+            reader.endObject();
+            break;
+          default:
+            reader.skipValue();
+            break;
+        }
+      }
+      reader.endObject();
+    } catch (IllegalStateException | NumberFormatException e) {
+      // JsonReader reports a well-formed document of the wrong shape this way.
+      throw new IOException("Invalid AR assets configuration", e);
+    }
+    return new AssetConfig(
+        groups,
+        priorities,
+        behaviors,
+        new AssetManifest(manifestVersion, files),
+        textureVariantUrls);
+  }
+
+  private static AssetManifest.FileInfo readFileInfo(JsonReader reader, String url)
+      throws IOException {
+    String sha256 = null;
+    long size = -1;
+    long gzipSize = -1;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "sha256":
+          sha256 = reader.nextString().toLowerCase(Locale.US);
+          break;
+        case "size":
+          size = reader.nextLong();
+          break;
+        case "gzip_size":
+          gzipSize = reader.nextLong();
+          break;
+        default:
+          reader.skipValue();
+          break;
+      }
+    }
+    reader.endObject();
+    if (sha256 == null || size < 0) {
+      throw new IOException("File \"" + url + "\" needs a sha256 and a size");
+    }
+    return new AssetManifest.FileInfo(sha256, size, gzipSize);
+  }
+
+  private static ImageBehavior readImage(
+      JsonReader reader, String imageName, Map<String, Integer> priorities) throws IOException {
+    String behavior = ImageBehavior.MODELS;
+    String model = null;
+    String layout = null;
+    String placement = "center";
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "priority":
+          priorities.put(imageName, reader.nextInt());
+          break;
+        case "behavior":
+          behavior = reader.nextString();
+          break;
+        case "model":
+          model = reader.nextString();
+          break;
+        case "layout":
+          layout = reader.nextString();
+          break;
+        case "placement":
+          placement = reader.nextString();
+          break;
+        default:
+          reader.skipValue();
+          break;
+      }
+    }
+    reader.endObject();
+
+    if (behavior.equals(ImageBehavior.BUNDLED_MODEL) && model == null) {
+      throw new IOException("Image \"" + imageName + "\" has no model");
+    }
+    if (behavior.equals(ImageBehavior.VIEW) && layout == null) {
+      throw new IOException("Image \"" + imageName + "\" has no layout");
+    }
+    if (!placement.equals("center") && !placement.equals("corner")) {
+      throw new IOException("Image \"" + imageName + "\" has unknown placement " + placement);
+    }
+    if (behavior.equals(ImageBehavior.MODELS) && placement.equals("center")) {
+      return ImageBehavior.DEFAULT;
+    }
+    return new ImageBehavior(
+        behavior,
+        model != null ? ModelAsset.forUrl(imageName, model) : null,
+        layout,
+        placement.equals("corner"));
+  }
+
+  private static ImageAssetGroup readGroup(
+      JsonReader reader, String groupName, int maxTextureSize, Set<String> textureVariantUrls)
+      throws IOException {
+    List<ModelAsset> models = new ArrayList<>();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      models.add(readModel(reader, reader.nextName(), maxTextureSize, textureVariantUrls));
+    }
+    reader.endObject();
+    return new ImageAssetGroup(groupName, models);
+  }
+
+  private static ModelAsset readModel(
+      JsonReader reader, String modelName, int maxTextureSize, Set<String> textureVariantUrls)
+      throws IOException {
+    String url = null;
+    TextureVariants textures = new TextureVariants();
+    float[] position = DEFAULT_POSITION;
+    float[] rotation = DEFAULT_ROTATION;
+    float scale = 1f;
+    List<String> lodUrls = new ArrayList<>();
+    List<Float> lodScreenSizes = new ArrayList<>();
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "url":
+          url = reader.nextString();
+          break;
+        case "position":
+          position = readFloats(reader, 3);
+          break;
+        case "rotation":
+          float[] axisAngle = readFloats(reader, 4);
+          rotation = ModelAsset.axisAngle(axisAngle[0], axisAngle[1], axisAngle[2], axisAngle[3]);
+          break;
+        case "scale":
+          scale = (float) reader.nextDouble();
+          break;
+        case "lods":
+          reader.beginArray();
+          while (reader.hasNext()) {
+            readLod(
+                reader, modelName, lodUrls, lodScreenSizes, maxTextureSize, textureVariantUrls);
+          }
+          reader.endArray();
+          break;
+        case "textures":
+          textures.read(reader, modelName);
+          break;
+        default:
+          reader.skipValue();
+          break;
+      }
+    }
+    reader.endObject();
+
+    if (url == null) {
+      throw new IOException("Model \"" + modelName + "\" has no url");
+    }
+    url = textures.choose(url, maxTextureSize);
+    textureVariantUrls.addAll(textures.urls);
+    float[] screenSizes = new float[lodScreenSizes.size()];
+    for (int i = 0; i < screenSizes.length; i++) {
+      screenSizes[i] = lodScreenSizes.get(i);
+    }
+    return new ModelAsset(
+        modelName,
+        url,
+        position,
+        scale,
+        rotation,
+        lodUrls.toArray(new String[0]),
+        screenSizes);
+  }
+
+  private static void readLod(
+      JsonReader reader,
+      String modelName,
+      List<String> urls,
+      List<Float> screenSizes,
+      int maxTextureSize,
+      Set<String> textureVariantUrls)
+      throws IOException {
+    String url = null;
+    float screenSize = -1;
+    TextureVariants textures = new TextureVariants();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "url":
+          url = reader.nextString();
+          break;
+        case "screen_size":
+          screenSize = (float) reader.nextDouble();
+          break;
+        case "textures":
+          textures.read(reader, modelName + " LOD" + (urls.size() + 1));
+          break;
+        default:
+          reader.skipValue();
+          break;
+      }
+    }
+    reader.endObject();
+    float previous =
+        screenSizes.isEmpty() ? Float.MAX_VALUE : screenSizes.get(screenSizes.size() - 1);
+    if (url == null || screenSize <= 0 || screenSize >= previous) {
+      throw new IOException(
+          "Level of detail " + (urls.size() + 1) + " of \"" + modelName
+              + "\" needs a url and a screen_size below the previous level's");
+    }
+    urls.add(textures.choose(url, maxTextureSize));
+    screenSizes.add(screenSize);
+    textureVariantUrls.addAll(textures.urls);
+  }
+
+  /** The texture variants of one model or level of detail, largest first. */
+  private static final class TextureVariants {
+    final List<String> urls = new ArrayList<>();
+    final List<Integer> maxSizes = new ArrayList<>();
+
+    void read(JsonReader reader, String modelName) throws IOException {
+      reader.beginArray();
+      while (reader.hasNext()) {
+        String url = null;
+        int maxSize = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+          switch (reader.nextName()) {
+            case "url":
+              url = reader.nextString();
+              break;
+            case "max_size":
+              maxSize = reader.nextInt();
+              break;
+            default:
+              reader.skipValue();
+              break;
+          }
+        }
+        reader.endObject();
+        int previous = maxSizes.isEmpty() ? Integer.MAX_VALUE : maxSizes.get(maxSizes.size() - 1);
+        if (url == null || maxSize <= 0 || maxSize >= previous) {
+          throw new IOException(
+              "Texture variant " + (urls.size() + 1) + " of \"" + modelName
+                  + "\" needs a url and a max_size below the previous variant's");
+        }
+        urls.add(url);
+        maxSizes.add(maxSize);
+      }
+      reader.endArray();
+    }
+
+    /**
+     * Returns the URL to load under a texture size limit. The original fits unless there is a
+     * variant for a size at or above the limit. If no variant fits either, the smallest is the
+     * closest.
+     */
+    String choose(String url, int maxTextureSize) {
+      if (maxTextureSize == NO_TEXTURE_LIMIT
+          || maxSizes.isEmpty()
+          || maxSizes.get(0) < maxTextureSize) {
+        return url;
+      }
+      for (int i = 0; i < maxSizes.size(); i++) {
+        if (maxSizes.get(i) <= maxTextureSize) {
+          return urls.get(i);
+        }
+      }
+      return urls.get(urls.size() - 1);
+    }
+  }
+
+  private static float[] readFloats(JsonReader reader, int count) throws IOException {
+    float[] values = new float[count];
+    int read = 0;
+    reader.beginArray();
+    while (reader.hasNext()) {
+      if (read < count) {
+        values[read] = (float) reader.nextDouble();
+      } else {
+        reader.skipValue();
+      }
+      read++;
+    }
+    reader.endArray();
+    if (read < count) {
+      throw new IOException("Expected " + count + " numbers but found " + read);
+    }
+    return values;
+  }
+}
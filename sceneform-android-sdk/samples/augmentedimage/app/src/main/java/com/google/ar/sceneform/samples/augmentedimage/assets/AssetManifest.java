@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.assets;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Version and content hashes of the files an AR assets configuration refers to.
+ *
+ * <p>Written by the {@code writeManifest} tool into the configuration:
+ *
+ * <pre>
+ * "manifest_version": 12,
+ * "files": {
+ *   "https://storage.googleapis.com/arbio/1crn_3.gltf": {"sha256": "9f86d0...", "size": 1832},
+ *   "https://storage.googleapis.com/arbio/1crn_3.bin": {
+ *     "sha256": "60303a...", "size": 40960, "gzip_size": 14211
+ *   }
+ * }
+ * </pre>
+ *
+ * <p>A file listed here is identified by its hash rather than by HTTP validators, so a cached
+ * copy with the right hash is used without asking the server, and a changed file is known to have
+ * changed before it is requested. A {@code gzip_size} says that a pre-compressed copy is
+ * available at the same URL plus ".gz"; it is downloaded instead and inflated.
+ */
+public final class AssetManifest {
+
+  /** Hash and size of one file. */
+  public static final class FileInfo {
+    private final String sha256;
+    private final long size;
+    private final long gzipSize;
+
+    FileInfo(String sha256, long size, long gzipSize) {
+      this.sha256 = sha256;
+      this.size = size;
+      this.gzipSize = gzipSize;
+    }
+
+    /** Lowercase hex SHA-256 digest of the file. */
+    public String getSha256() {
+      return sha256;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    /** Size of the pre-compressed ".gz" variant, or -1 if there is none. */
+    public long getGzipSize() {
+      return gzipSize;
+    }
+  }
+
+  static final AssetManifest EMPTY =
+      new AssetManifest(0, Collections.<String, FileInfo>emptyMap());
+
+  private final int version;
+  private final Map<String, FileInfo> files;
+
+  AssetManifest(int version, Map<String, FileInfo> files) {
+    this.version = version;
+    this.files = Collections.unmodifiableMap(files);
+  }
+
+  /** Returns the manifest version, or 0 if the configuration has none. */
+  public int getVersion() {
+    return version;
+  }
+
+  /** Returns the hash and size of the file at {@code url}, or null if it is not listed. */
+  public FileInfo getFile(String url) {
+    return files.get(normalize(url));
+  }
+
+  public boolean isEmpty() {
+    return files.isEmpty();
+  }
+
+  /** Escapes the spaces some configurations and glTF files leave in URLs, so both forms match. */
+  static String normalize(String url) {
+    return url.replace(" ", "%20");
+  }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.assets;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Size-bounded, least recently used cache of directories on disk.
+ *
+ * <p>Each entry is a directory named by its key, so a model and the files it references stay
+ * together. Entries are written into a scratch directory from {@link #edit()} and published with
+ * an atomic rename in {@link #commit(String, File)}, so readers never see a partial entry. Access
+ * order survives restarts through the directories' modification times.
+ *
+ * <p>{@link #get(String)} and {@link #commit(String, File)} pin the entry they return until the
+ * caller {@link #release(String) releases} it, so eviction cannot delete files a reader is about
+ * to open. Pinned entries still count toward the budget. An entry {@link #remove(String) removed}
+ * while pinned leaves the index at once, but its directory is deleted on the last release.
+ */
+public final class DiskLruCache {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  // Scratch directories have a dot in their name, keys never do.
+  private static final String EDIT_PREFIX = "edit.";
+
+  private final File directory;
+  private final long maxBytes;
+
+  // Key to entry size in bytes, least recently used first.
+  private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+  // Key to the number of readers that have not released the entry yet.
+  private final Map<String, Integer> pins = new HashMap<>();
+  // Removed entries whose directories are deleted once they are no longer pinned.
+  private final Set<String> doomed = new HashSet<>();
+  private long size;
+  private int nextEdit;
+
+  public DiskLruCache(File directory, long maxBytes) throws IOException {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create cache directory " + directory);
+    }
+
+    File[] children = directory.listFiles();
+    if (children == null) {
+      throw new IOException("Cannot list cache directory " + directory);
+    }
+    Arrays.sort(children, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+    for (File child : children) {
+      if (!child.isDirectory()) {
+        continue;
+      }
+      if (child.getName().indexOf('.') >= 0) {
+        // Left over from an edit that was interrupted.
+        deleteRecursively(child);
+        continue;
+      }
+      long entrySize = sizeOf(child);
+      entries.put(child.getName(), entrySize);
+      size += entrySize;
+    }
+    trimToSize();
+  }
+
+  /** Returns the key for a resource and a validator, such as an ETag, of its current content. */
+  public static String key(String url, String validator) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(url.getBytes(UTF_8));
+      digest.update((byte) '\n');
+      digest.update(validator.getBytes(UTF_8));
+      return toHex(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError("SHA-256 is always available", e);
+    }
+  }
+
+  /**
+   * Returns the directory of the entry, pinned until {@link #release(String)}, and marks it as
+   * most recently used, or returns null if absent.
+   */
+  public synchronized File get(String key) {
+    Long entrySize = entries.get(key);
+    if (entrySize == null) {
+      return null;
+    }
+    File entry = new File(directory, key);
+    if (!entry.isDirectory()) {
+      // Deleted behind our back, e.g. by the system clearing storage.
+      entries.remove(key);
+      size -= entrySize;
+      return null;
+    }
+    entry.setLastModified(System.currentTimeMillis());
+    pin(key);
+    return entry;
+  }
+
+  /** Unpins an entry returned by {@link #get(String)} or {@link #commit(String, File)}. */
+  public synchronized void release(String key) {
+    Integer count = pins.get(key);
+    if (count == null) {
+      return;
+    }
+    if (count > 1) {
+      pins.put(key, count - 1);
+    } else {
+      pins.remove(key);
+      if (doomed.remove(key)) {
+        deleteRecursively(new File(directory, key));
+      }
+    }
+  }
+
+  /** Returns the size of the entry in bytes, or -1 if absent. Does not change the access order. */
+  public synchronized long sizeOf(String key) {
+    // A get would count as an access in the access-ordered map.
+    if (!entries.containsKey(key)) {
+      return -1;
+    }
+    for (Map.Entry<String, Long> entry : entries.entrySet()) {
+      if (entry.getKey().equals(key)) {
+        return entry.getValue();
+      }
+    }
+    return -1;
+  }
+
+  /** Creates an empty scratch directory to write a new entry into. */
+  public synchronized File edit() throws IOException {
+    File scratch = new File(directory, EDIT_PREFIX + nextEdit++ + "." + System.nanoTime());
+    if (!scratch.mkdirs()) {
+      throw new IOException("Cannot create " + scratch);
+    }
+    return scratch;
+  }
+
+  /**
+   * Publishes a scratch directory from {@link #edit()} as the entry for {@code key}, then evicts
+   * least recently used entries until the cache fits its budget. A key names its content, so if
+   * the entry already exists, e.g. written by a concurrent fetch, it is kept, since a reader may
+   * be using it, and the scratch directory is discarded.
+   *
+   * @return the directory of the entry, pinned until {@link #release(String)}
+   */
+  public synchronized File commit(String key, File scratch) throws IOException {
+    File existing = get(key);
+    if (existing != null) {
+      abort(scratch);
+      return existing;
+    }
+    File entry = new File(directory, key);
+    if (doomed.remove(key)) {
+      // Removed while still being read, so intact; the same key means the same content.
+      abort(scratch);
+    } else {
+      if (entry.exists()) {
+        // Not in the index, e.g. half deleted by the system clearing storage.
+        deleteRecursively(entry);
+      }
+      if (!scratch.renameTo(entry)) {
+        abort(scratch);
+        throw new IOException("Cannot commit cache entry " + key);
+      }
+    }
+    long entrySize = sizeOf(entry);
+    entries.put(key, entrySize);
+    size += entrySize;
+    pin(key);
+    trimToSize();
+    return entry;
+  }
+
+  /** Discards a scratch directory from {@link #edit()}. */
+  public void abort(File scratch) {
+    deleteRecursively(scratch);
+  }
+
+  /**
+   * Removes an entry. If it is pinned, its directory stays on disk until the last reader releases
+   * it, but it no longer counts toward the budget and {@link #get(String)} no longer returns it.
+   *
+   * @return whether the entry was present
+   */
+  public synchronized boolean remove(String key) {
+    Long entrySize = entries.remove(key);
+    if (entrySize == null) {
+      return false;
+    }
+    size -= entrySize;
+    if (pins.containsKey(key)) {
+      doomed.add(key);
+    } else {
+      deleteRecursively(new File(directory, key));
+    }
+    return true;
+  }
+
+  /** Returns the keys of all entries, least recently used first. */
+  public synchronized List<String> keys() {
+    return new ArrayList<>(entries.keySet());
+  }
+
+  public synchronized long size() {
+    return size;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  private void pin(String key) {
+    Integer count = pins.get(key);
+    pins.put(key, count != null ? count + 1 : 1);
+  }
+
+  private void trimToSize() {
+    Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+    while (size > maxBytes && iterator.hasNext()) {
+      Map.Entry<String, Long> eldest = iterator.next();
+      if (pins.containsKey(eldest.getKey())) {
+        continue;
+      }
+      iterator.remove();
+      size -= eldest.getValue();
+      deleteRecursively(new File(directory, eldest.getKey()));
+    }
+  }
+
+  private static long sizeOf(File file) {
+    if (!file.isDirectory()) {
+      return file.length();
+    }
+    long total = 0;
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        total += sizeOf(child);
+      }
+    }
+    return total;
+  }
+
+  static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+
+  static String toHex(byte[] bytes) {
+    char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+      chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(chars);
+  }
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.assets;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Downloads files over HTTP with bounded concurrency, resuming interrupted transfers.
+ *
+ * <p>At most a fixed number of connections are open to any one host, whichever thread asks, so a
+ * burst of model, buffer and texture requests queues up instead of splitting congested Wi-Fi
+ * bandwidth until every one of them times out. A body is streamed to a ".part" file next to its
+ * target through a {@link FileChannel}. If the connection drops, the download is retried after a
+ * backoff with a {@code Range} request for the missing bytes, guarded by {@code If-Range} so a
+ * file that changed in between is fetched again from the start. The target appears only once
+ * complete.
+ *
+ * <p>Every request accepts gzip. A gzip-encoded body, or a pre-compressed ".gz" variant, is kept
+ * compressed in the ".part" file, since ranges count encoded bytes, and is inflated into the
+ * target once complete. {@link Result} reports both sizes.
+ */
+public final class DownloadEngine {
+
+  /** Paces a download, e.g. for background prefetching. */
+  public interface Throttle {
+    /**
+     * Blocks until {@code bytes} more bytes may be read. Called while the download holds a
+     * connection and an engine thread, so it must only pace, never wait for other downloads.
+     */
+    void acquire(int bytes) throws IOException;
+  }
+
+  public static final Throttle UNTHROTTLED = bytes -> {};
+
+  /** Outcome of a download. Unless the status is 200, nothing was written. */
+  public static final class Result {
+    private final int status;
+    private final String etag;
+    private final String lastModified;
+    private final long bytes;
+    private final long encodedBytes;
+    private final int attempts;
+
+    Result(
+        int status,
+        String etag,
+        String lastModified,
+        long bytes,
+        long encodedBytes,
+        int attempts) {
+      this.status = status;
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.bytes = bytes;
+      this.encodedBytes = encodedBytes;
+      this.attempts = attempts;
+    }
+
+    public int getStatus() {
+      return status;
+    }
+
+    /** The ETag of the downloaded content, or null. */
+    public String getEtag() {
+      return etag;
+    }
+
+    /** The Last-Modified date of the downloaded content, or null. */
+    public String getLastModified() {
+      return lastModified;
+    }
+
+    /** Size of the downloaded file. */
+    public long getBytes() {
+      return bytes;
+    }
+
+    /** Size of the body as transferred, smaller than {@link #getBytes()} if it was compressed. */
+    public long getEncodedBytes() {
+      return encodedBytes;
+    }
+
+    /** Number of requests it took, 1 if the transfer was never interrupted. */
+    public int getAttempts() {
+      return attempts;
+    }
+  }
+
+  private static final int TIMEOUT_MILLIS = 15000;
+  private static final int MAX_ATTEMPTS = 5;
+  private static final long INITIAL_BACKOFF_MILLIS = 500;
+  private static final long CHUNK_BYTES = 64 * 1024;
+  private static final String PART_SUFFIX = ".part";
+
+  private final ExecutorService workers;
+  private final int maxConnectionsPerHost;
+  private final Map<String, Semaphore> hosts = new HashMap<>();
+
+  private final AtomicLong bytesTransferred = new AtomicLong();
+  private final AtomicLong bytesDecoded = new AtomicLong();
+  private final AtomicLong bytesResumed = new AtomicLong();
+  private final AtomicLong retries = new AtomicLong();
+
+  public DownloadEngine(int threads, int maxConnectionsPerHost) {
+    this.workers = Executors.newFixedThreadPool(threads);
+    this.maxConnectionsPerHost = maxConnectionsPerHost;
+  }
+
+  /** Runs {@link #download} on one of the engine's worker threads. */
+  public Future<Result> submit(
+      String url, File target, Map<String, String> headers, Throttle throttle) {
+    return submit(url, target, headers, throttle, false);
+  }
+
+  /** Runs {@link #download} on one of the engine's worker threads. */
+  public Future<Result> submit(
+      String url,
+      File target,
+      Map<String, String> headers,
+      Throttle throttle,
+      boolean precompressed) {
+    return workers.submit(() -> download(url, target, headers, throttle, precompressed));
+  }
+
+  public Result download(String url, File target, Map<String, String> headers, Throttle throttle)
+      throws IOException {
+    return download(url, target, headers, throttle, false);
+  }
+
+  /**
+   * Downloads {@code url} to {@code target} on the calling thread.
+   *
+   * @param headers request headers, e.g. to make the download conditional; sent on every attempt
+   *     except those that resume with a range request
+   * @param precompressed whether the file at {@code url} is itself gzip data to be inflated, such
+   *     as a ".gz" variant
+   * @return the result; if the server answered anything but 200, such as 304, the target is left
+   *     untouched
+   * @throws IOException if the download still fails after retrying
+   */
+  public Result download(
+      String url,
+      File target,
+      Map<String, String> headers,
+      Throttle throttle,
+      boolean precompressed)
+      throws IOException {
+    File part = new File(target.getPath() + PART_SUFFIX);
+    part.delete();
+    Semaphore host = hostSemaphore(new URL(url).getHost());
+
+    String etag = null;
+    String lastModified = null;
+    boolean encoded = false;
+    IOException failure = null;
+    for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+      if (attempt > 1) {
+        retries.incrementAndGet();
+        sleep(INITIAL_BACKOFF_MILLIS << (attempt - 2));
+      }
+      acquire(host);
+      HttpURLConnection connection = null;
+      try {
+        long offset = part.length();
+        connection = open(url);
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        if (offset > 0 && (etag != null || lastModified != null)) {
+          connection.setRequestProperty("Range", "bytes=" + offset + "-");
+          connection.setRequestProperty("If-Range", etag != null ? etag : lastModified);
+        } else {
+          if (offset > 0) {
+            // Without a validator the partial body cannot be matched to the file; start over.
+            part.delete();
+            offset = 0;
+          }
+          for (Map.Entry<String, String> header : headers.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+          }
+        }
+
+        int status = connection.getResponseCode();
+        boolean append;
+        if (status == HttpURLConnection.HTTP_PARTIAL) {
+          if (offset == 0 || !resumesAt(connection, offset) || isGzip(connection) != encoded) {
+            // Start over with a plain request.
+            part.delete();
+            throw new IOException("Unexpected range in response for " + url);
+          }
+          append = true;
+          bytesResumed.addAndGet(offset);
+        } else if (status == HttpURLConnection.HTTP_OK) {
+          // A full body, either the first time or because the file changed since.
+          append = false;
+          etag = connection.getHeaderField("ETag");
+          lastModified = connection.getHeaderField("Last-Modified");
+          encoded = isGzip(connection);
+        } else if (status < HttpURLConnection.HTTP_INTERNAL_ERROR) {
+          // E.g. not modified, or not found: nothing a retry would change.
+          part.delete();
+          return new Result(status, null, null, 0, 0, attempt);
+        } else {
+          throw new IOException("Unexpected HTTP status " + status + " for " + url);
+        }
+
+        try (InputStream in = connection.getInputStream()) {
+          transfer(in, part, append, throttle);
+        }
+        long length = connection.getHeaderFieldLong("Content-Length", -1);
+        if (length >= 0 && part.length() != (append ? offset + length : length)) {
+          throw new IOException("Connection closed early for " + url);
+        }
+        long encodedBytes = part.length();
+        target.delete();
+        if (encoded || precompressed) {
+          inflate(part, target);
+        } else {
+          if (!part.renameTo(target)) {
+            throw new IOException("Cannot rename " + part + " to " + target);
+          }
+          bytesDecoded.addAndGet(encodedBytes);
+        }
+        return new Result(
+            HttpURLConnection.HTTP_OK, etag, lastModified, target.length(), encodedBytes, attempt);
+      } catch (InterruptedIOException e) {
+        if (Thread.currentThread().isInterrupted()) {
+          part.delete();
+          throw e;
+        }
+        // A socket timeout, worth another try.
+        failure = e;
+      } catch (UnknownHostException e) {
+        // Offline; retrying will not help.
+        part.delete();
+        throw e;
+      } catch (IOException e) {
+        failure = e;
+      } finally {
+        if (connection != null) {
+          connection.disconnect();
+        }
+        host.release();
+      }
+    }
+    part.delete();
+    throw failure;
+  }
+
+  /** Total bytes received by all downloads, as encoded on the wire. */
+  public long getBytesTransferred() {
+    return bytesTransferred.get();
+  }
+
+  /** Total size of all downloaded files, after inflating compressed bodies. */
+  public long getBytesDecoded() {
+    return bytesDecoded.get();
+  }
+
+  /** Bytes that did not have to be downloaded again because an interrupted transfer resumed. */
+  public long getBytesResumed() {
+    return bytesResumed.get();
+  }
+
+  public long getRetryCount() {
+    return retries.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "transferred=%dB decoded=%dB resumed=%dB retries=%d",
+        getBytesTransferred(), getBytesDecoded(), getBytesResumed(), getRetryCount());
+  }
+
+  private void transfer(InputStream in, File part, boolean append, Throttle throttle)
+      throws IOException {
+    ReadableByteChannel source = Channels.newChannel(in);
+    try (FileChannel out = new FileOutputStream(part, append).getChannel()) {
+      long position = out.size();
+      long read;
+      while ((read = out.transferFrom(source, position, CHUNK_BYTES)) > 0) {
+        position += read;
+        bytesTransferred.addAndGet(read);
+        throttle.acquire((int) read);
+      }
+    }
+  }
+
+  /** Inflates a complete gzip ".part" file into the target, then deletes it. */
+  private void inflate(File part, File target) throws IOException {
+    try (ReadableByteChannel source =
+            Channels.newChannel(new GZIPInputStream(new FileInputStream(part), 64 * 1024));
+        FileChannel out = new FileOutputStream(target).getChannel()) {
+      long position = 0;
+      long read;
+      while ((read = out.transferFrom(source, position, CHUNK_BYTES)) > 0) {
+        position += read;
+      }
+      bytesDecoded.addAndGet(position);
+    } catch (IOException e) {
+      // Corrupt data; the retry starts from scratch.
+      target.delete();
+      throw e;
+    } finally {
+      part.delete();
+    }
+  }
+
+  private synchronized Semaphore hostSemaphore(String host) {
+    Semaphore semaphore = hosts.get(host);
+    if (semaphore == null) {
+      semaphore = new Semaphore(maxConnectionsPerHost, true);
+      hosts.put(host, semaphore);
+    }
+    return semaphore;
+  }
+
+  /** Whether a 206 response's Content-Range starts where the partial file ends. */
+  private static boolean resumesAt(HttpURLConnection connection, long offset) {
+    String range = connection.getHeaderField("Content-Range");
+    return range != null && range.startsWith("bytes " + offset + "-");
+  }
+
+  private static boolean isGzip(HttpURLConnection connection) {
+    return "gzip".equalsIgnoreCase(connection.getHeaderField("Content-Encoding"));
+  }
+
+  private static HttpURLConnection open(String url) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setConnectTimeout(TIMEOUT_MILLIS);
+    connection.setReadTimeout(TIMEOUT_MILLIS);
+    connection.setUseCaches(false);
+    return connection;
+  }
+
+  private static void acquire(Semaphore semaphore) throws InterruptedIOException {
+    try {
+      semaphore.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for a connection");
+    }
+  }
+
+  private static void sleep(long millis) throws InterruptedIOException {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted before retrying");
+    }
+  }
+}
@@ -0,0 +1,442 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.assets;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A glTF model held as one JSON document and one binary buffer, the layout of a GLB file.
+ *
+ * <p>Edits go to {@link #json} and {@link #bin}; {@link #prune()} drops data nothing refers to
+ * any more and {@link #write(File)} writes a GLB file. Used by the asset tools and, for models
+ * that need converting before Sceneform can load them, on the device.
+ */
+public final class Glb {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  static final int GLB_MAGIC = 0x46546C67;
+  private static final int GLB_VERSION = 2;
+  static final int CHUNK_JSON = 0x4E4F534A;
+  static final int CHUNK_BIN = 0x004E4942;
+  static final int GLB_HEADER_BYTES = 12;
+  static final int CHUNK_HEADER_BYTES = 8;
+  private static final int ALIGNMENT = 4;
+
+  public static final int BYTE = 5120;
+  public static final int UNSIGNED_BYTE = 5121;
+  public static final int SHORT = 5122;
+  public static final int UNSIGNED_SHORT = 5123;
+  public static final int UNSIGNED_INT = 5125;
+  public static final int FLOAT = 5126;
+  public static final int ARRAY_BUFFER = 34962;
+  public static final int ELEMENT_ARRAY_BUFFER = 34963;
+
+  public final JsonObject json;
+  public final ByteArrayOutputStream bin;
+
+  public Glb(JsonObject json, ByteArrayOutputStream bin) {
+    this.json = json;
+    this.bin = bin;
+  }
+
+  /** Reads a GLB file, copying its binary chunk onto the heap once. */
+  public static Glb read(File file) throws IOException {
+    MappedGlb mapped = MappedGlb.map(file);
+    ByteBuffer data = mapped.bin();
+    ByteArrayOutputStream bin = new ByteArrayOutputStream(data.remaining());
+    // The channel copies in small pieces rather than through one more array of the whole chunk.
+    Channels.newChannel(bin).write(data);
+    return new Glb(mapped.json, bin);
+  }
+
+  /** Reads only the JSON chunk of a GLB file, without its binary data. */
+  public static JsonObject readJson(File file) throws IOException {
+    return MappedGlb.map(file).json;
+  }
+
+  /**
+   * Writes this model as a GLB file, through a temporary file.
+   *
+   * @return the size of the file
+   */
+  public long write(File file) throws IOException {
+    int binLength = bin.size();
+    if (binLength > 0) {
+      JsonArray buffers = new JsonArray();
+      JsonObject buffer = new JsonObject();
+      buffer.addProperty("byteLength", binLength);
+      buffers.add(buffer);
+      json.add("buffers", buffers);
+    } else {
+      json.remove("buffers");
+    }
+
+    byte[] jsonBytes = json.toString().getBytes(UTF_8);
+    int jsonChunkLength = padded(jsonBytes.length);
+    int binChunkLength = padded(binLength);
+    long total = GLB_HEADER_BYTES + CHUNK_HEADER_BYTES + jsonChunkLength;
+    if (binLength > 0) {
+      total += CHUNK_HEADER_BYTES + binChunkLength;
+    }
+
+    File temp = new File(file.getPath() + ".tmp");
+    try (OutputStream out = new FileOutputStream(temp)) {
+      out.write(littleEndian(GLB_MAGIC, GLB_VERSION, (int) total));
+      out.write(littleEndian(jsonChunkLength, CHUNK_JSON));
+      out.write(jsonBytes);
+      for (int i = jsonBytes.length; i < jsonChunkLength; i++) {
+        // The JSON chunk is padded with spaces.
+        out.write(' ');
+      }
+      if (binLength > 0) {
+        out.write(littleEndian(binChunkLength, CHUNK_BIN));
+        bin.writeTo(out);
+        for (int i = binLength; i < binChunkLength; i++) {
+          out.write(0);
+        }
+      }
+    }
+    if (!temp.renameTo(file)) {
+      throw new IOException("Cannot write " + file);
+    }
+    return total;
+  }
+
+  /** Returns a little-endian copy of the binary buffer as it is now. */
+  public ByteBuffer data() {
+    return ByteBuffer.wrap(bin.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Returns the named top-level array. If there is none, returns an empty array that is not part
+   * of the model, since glTF does not allow empty arrays.
+   */
+  public JsonArray array(String name) {
+    return json.has(name) ? json.getAsJsonArray(name) : new JsonArray();
+  }
+
+  public JsonObject accessor(int index) {
+    return array("accessors").get(index).getAsJsonObject();
+  }
+
+  /**
+   * Appends {@code length} bytes of {@code bytes} as a new buffer view starting on a 4-byte
+   * boundary.
+   *
+   * @return the index of the buffer view
+   */
+  public int addView(byte[] bytes, int offset, int length) {
+    while (bin.size() % ALIGNMENT != 0) {
+      bin.write(0);
+    }
+    JsonObject view = new JsonObject();
+    view.addProperty("buffer", 0);
+    view.addProperty("byteOffset", bin.size());
+    view.addProperty("byteLength", length);
+    bin.write(bytes, offset, length);
+    JsonArray views = array("bufferViews");
+    views.add(view);
+    json.add("bufferViews", views);
+    return views.size() - 1;
+  }
+
+  /**
+   * Appends vertex data as a new buffer view for vertex attributes.
+   *
+   * @param stride bytes from one element to the next, a multiple of 4
+   * @param elementBytes bytes of one element, without padding
+   * @return the index of the buffer view
+   */
+  public int addVertexView(byte[] bytes, int stride, int elementBytes) {
+    int view = addView(bytes, 0, bytes.length);
+    JsonObject viewJson = array("bufferViews").get(view).getAsJsonObject();
+    viewJson.addProperty("target", ARRAY_BUFFER);
+    if (stride != elementBytes) {
+      viewJson.addProperty("byteStride", stride);
+    }
+    return view;
+  }
+
+  /** Byte position of an accessor's first element in {@link #data()}. */
+  public int offsetOf(JsonObject accessor) {
+    JsonObject view = viewOf(accessor);
+    int viewOffset = view.has("byteOffset") ? view.get("byteOffset").getAsInt() : 0;
+    return viewOffset + (accessor.has("byteOffset") ? accessor.get("byteOffset").getAsInt() : 0);
+  }
+
+  /** Bytes from one element of an accessor to the next. */
+  public int strideOf(JsonObject accessor) {
+    JsonObject view = viewOf(accessor);
+    int stride = view.has("byteStride") ? view.get("byteStride").getAsInt() : 0;
+    // Some exporters write a stride of 0 for tightly packed data.
+    return stride > 0 ? stride : elementBytes(accessor);
+  }
+
+  public static int elementBytes(JsonObject accessor) {
+    return GltfFootprint.componentCount(accessor.get("type").getAsString())
+        * GltfFootprint.componentBytes(accessor.get("componentType").getAsInt());
+  }
+
+  /**
+   * Reads an accessor as floats, all components of each element in turn. Normalized integer
+   * components are mapped to [0, 1] or [-1, 1].
+   */
+  public float[] readFloats(ByteBuffer data, JsonObject accessor) {
+    int components = GltfFootprint.componentCount(accessor.get("type").getAsString());
+    int componentType = accessor.get("componentType").getAsInt();
+    int componentBytes = GltfFootprint.componentBytes(componentType);
+    boolean normalized = accessor.has("normalized") && accessor.get("normalized").getAsBoolean();
+    int count = accessor.get("count").getAsInt();
+    int start = offsetOf(accessor);
+    int stride = strideOf(accessor);
+    float[] values = new float[count * components];
+    for (int i = 0; i < count; i++) {
+      for (int c = 0; c < components; c++) {
+        int at = start + i * stride + c * componentBytes;
+        float value;
+        switch (componentType) {
+          case BYTE:
+            value = normalized ? Math.max(data.get(at) / 127f, -1f) : data.get(at);
+            break;
+          case UNSIGNED_BYTE:
+            value = normalized ? (data.get(at) & 0xFF) / 255f : data.get(at) & 0xFF;
+            break;
+          case SHORT:
+            value = normalized ? Math.max(data.getShort(at) / 32767f, -1f) : data.getShort(at);
+            break;
+          case UNSIGNED_SHORT:
+            value =
+                normalized ? (data.getShort(at) & 0xFFFF) / 65535f : data.getShort(at) & 0xFFFF;
+            break;
+          case UNSIGNED_INT:
+            value = data.getInt(at) & 0xFFFFFFFFL;
+            break;
+          default:
+            value = data.getFloat(at);
+            break;
+        }
+        values[i * components + c] = value;
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Appends a tightly packed float accessor with its bounds.
+   *
+   * @param type the accessor type, such as {@code "VEC3"}
+   * @return the index of the accessor
+   */
+  public int addFloats(float[] values, String type) {
+    int components = GltfFootprint.componentCount(type);
+    ByteBuffer buffer = ByteBuffer.allocate(values.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+    float[] min = new float[components];
+    float[] max = new float[components];
+    Arrays.fill(min, Float.MAX_VALUE);
+    Arrays.fill(max, -Float.MAX_VALUE);
+    for (int i = 0; i < values.length; i++) {
+      buffer.putFloat(values[i]);
+      min[i % components] = Math.min(min[i % components], values[i]);
+      max[i % components] = Math.max(max[i % components], values[i]);
+    }
+    int view = addVertexView(buffer.array(), components * 4, components * 4);
+    JsonObject accessor = new JsonObject();
+    accessor.addProperty("bufferView", view);
+    accessor.addProperty("componentType", FLOAT);
+    accessor.addProperty("count", values.length / components);
+    accessor.addProperty("type", type);
+    if (values.length > 0) {
+      accessor.add("min", toJson(min));
+      accessor.add("max", toJson(max));
+    }
+    return addAccessor(accessor);
+  }
+
+  /** Appends an accessor and returns its index. */
+  public int addAccessor(JsonObject accessor) {
+    JsonArray accessors = array("accessors");
+    accessors.add(accessor);
+    json.add("accessors", accessors);
+    return accessors.size() - 1;
+  }
+
+  public static JsonArray toJson(float[] values) {
+    JsonArray array = new JsonArray();
+    for (float value : values) {
+      array.add(value);
+    }
+    return array;
+  }
+
+  public int[] readIndices(ByteBuffer data, JsonObject accessor) {
+    int componentType = accessor.get("componentType").getAsInt();
+    int count = accessor.get("count").getAsInt();
+    int start = offsetOf(accessor);
+    int[] indices = new int[count];
+    for (int i = 0; i < count; i++) {
+      switch (componentType) {
+        case UNSIGNED_BYTE:
+          indices[i] = data.get(start + i) & 0xFF;
+          break;
+        case UNSIGNED_SHORT:
+          indices[i] = data.getShort(start + i * 2) & 0xFFFF;
+          break;
+        default:
+          indices[i] = data.getInt(start + i * 4);
+          break;
+      }
+    }
+    return indices;
+  }
+
+  private JsonObject viewOf(JsonObject accessor) {
+    return array("bufferViews").get(accessor.get("bufferView").getAsInt()).getAsJsonObject();
+  }
+
+  /**
+   * Drops accessors and buffer views nothing refers to any more and rebuilds the binary buffer
+   * from the buffer views that are left.
+   */
+  public void prune() {
+    ByteBuffer data = data();
+    JsonArray accessors = array("accessors");
+    int[] accessorMap = new int[accessors.size()];
+    Arrays.fill(accessorMap, -1);
+    forEachAccessorReference((owner, key) -> accessorMap[owner.get(key).getAsInt()] = 0);
+    JsonArray keptAccessors = new JsonArray();
+    for (int i = 0; i < accessorMap.length; i++) {
+      if (accessorMap[i] == 0) {
+        accessorMap[i] = keptAccessors.size();
+        keptAccessors.add(accessors.get(i));
+      }
+    }
+    forEachAccessorReference(
+        (owner, key) -> owner.addProperty(key, accessorMap[owner.get(key).getAsInt()]));
+    json.remove("accessors");
+    if (keptAccessors.size() > 0) {
+      json.add("accessors", keptAccessors);
+    }
+
+    JsonArray views = array("bufferViews");
+    int[] viewMap = new int[views.size()];
+    Arrays.fill(viewMap, -1);
+    forEachViewReference((owner, key) -> viewMap[owner.get(key).getAsInt()] = 0);
+    bin.reset();
+    json.remove("bufferViews");
+    for (int i = 0; i < viewMap.length; i++) {
+      if (viewMap[i] != 0) {
+        continue;
+      }
+      JsonObject view = views.get(i).getAsJsonObject();
+      int offset = view.has("byteOffset") ? view.get("byteOffset").getAsInt() : 0;
+      byte[] bytes = new byte[view.get("byteLength").getAsInt()];
+      data.position(offset);
+      data.get(bytes);
+      int copy = addView(bytes, 0, bytes.length);
+      JsonObject copied = array("bufferViews").get(copy).getAsJsonObject();
+      for (String key : new String[] {"byteStride", "target", "name"}) {
+        if (view.has(key)) {
+          copied.add(key, view.get(key));
+        }
+      }
+      viewMap[i] = copy;
+    }
+    forEachViewReference(
+        (owner, key) -> owner.addProperty(key, viewMap[owner.get(key).getAsInt()]));
+  }
+
+  private interface Reference {
+    void visit(JsonObject owner, String key);
+  }
+
+  private void forEachAccessorReference(Reference reference) {
+    for (JsonElement mesh : array("meshes")) {
+      for (JsonElement element : mesh.getAsJsonObject().getAsJsonArray("primitives")) {
+        JsonObject primitive = element.getAsJsonObject();
+        visitValues(primitive.getAsJsonObject("attributes"), reference);
+        visitIfPresent(primitive, "indices", reference);
+        if (primitive.has("targets")) {
+          for (JsonElement target : primitive.getAsJsonArray("targets")) {
+            visitValues(target.getAsJsonObject(), reference);
+          }
+        }
+      }
+    }
+    for (JsonElement skin : array("skins")) {
+      visitIfPresent(skin.getAsJsonObject(), "inverseBindMatrices", reference);
+    }
+    for (JsonElement animation : array("animations")) {
+      for (JsonElement sampler : animation.getAsJsonObject().getAsJsonArray("samplers")) {
+        visitIfPresent(sampler.getAsJsonObject(), "input", reference);
+        visitIfPresent(sampler.getAsJsonObject(), "output", reference);
+      }
+    }
+  }
+
+  private void forEachViewReference(Reference reference) {
+    for (JsonElement element : array("accessors")) {
+      JsonObject accessor = element.getAsJsonObject();
+      visitIfPresent(accessor, "bufferView", reference);
+      if (accessor.has("sparse")) {
+        JsonObject sparse = accessor.getAsJsonObject("sparse");
+        visitIfPresent(sparse.getAsJsonObject("indices"), "bufferView", reference);
+        visitIfPresent(sparse.getAsJsonObject("values"), "bufferView", reference);
+      }
+    }
+    for (JsonElement image : array("images")) {
+      visitIfPresent(image.getAsJsonObject(), "bufferView", reference);
+    }
+  }
+
+  private static void visitValues(JsonObject object, Reference reference) {
+    for (String key : object.keySet()) {
+      reference.visit(object, key);
+    }
+  }
+
+  private static void visitIfPresent(JsonObject object, String key, Reference reference) {
+    if (object.has(key)) {
+      reference.visit(object, key);
+    }
+  }
+
+  private static byte[] littleEndian(int... values) {
+    ByteBuffer buffer = ByteBuffer.allocate(values.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+    for (int value : values) {
+      buffer.putInt(value);
+    }
+    return buffer.array();
+  }
+
+  /** Rounds {@code length} up to a multiple of 4, the alignment of chunks and vertex data. */
+  public static int padded(int length) {
+    return (length + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.assets;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+
+/**
+ * Estimates how much memory a model takes once loaded, without loading it.
+ *
+ * <p>For glTF and GLB files this is the size of every accessor, i.e. the vertex and index data
+ * uploaded to the GPU, plus the decoded size of every texture. Other formats, such as Sceneform
+ * binaries, are estimated from their file size.
+ */
+public final class GltfFootprint {
+
+  /** Estimates the memory of one decoded texture from its encoded bytes. */
+  public interface TextureSizer {
+    long estimateBytes(InputStream encodedImage) throws IOException;
+  }
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  // Sceneform binaries hold compressed textures that grow when decoded.
+  private static final int OTHER_FORMAT_EXPANSION = 2;
+
+  private GltfFootprint() {}
+
+  public static long estimate(File model, TextureSizer textureSizer) throws IOException {
+    String name = model.getName();
+    try {
+      if (name.endsWith(".gltf")) {
+        JsonObject gltf;
+        try (InputStreamReader reader =
+            new InputStreamReader(new FileInputStream(model), UTF_8)) {
+          gltf = new JsonParser().parse(reader).getAsJsonObject();
+        }
+        return accessorBytes(gltf) + textureBytes(gltf, model, null, textureSizer);
+      }
+      if (name.endsWith(".glb")) {
+        MappedGlb glb = MappedGlb.map(model);
+        return accessorBytes(glb.json) + textureBytes(glb.json, model, glb, textureSizer);
+      }
+    } catch (JsonParseException | IllegalStateException | ClassCastException e) {
+      throw new IOException("Invalid glTF " + model, e);
+    }
+    return model.length() * OTHER_FORMAT_EXPANSION;
+  }
+
+  private static long accessorBytes(JsonObject gltf) {
+    long total = 0;
+    for (JsonElement element : array(gltf, "accessors")) {
+      JsonObject accessor = element.getAsJsonObject();
+      total +=
+          accessor.get("count").getAsLong()
+              * componentCount(accessor.get("type").getAsString())
+              * componentBytes(accessor.get("componentType").getAsInt());
+    }
+    return total;
+  }
+
+  /**
+   * Sums the decoded size of the textures. External images are read next to the model; images in
+   * buffer views are streamed from the mapped binary chunk of {@code glb}, if there is one.
+   */
+  private static long textureBytes(
+      JsonObject gltf, File model, MappedGlb glb, TextureSizer textureSizer) throws IOException {
+    long total = 0;
+    for (JsonElement element : array(gltf, "images")) {
+      JsonObject image = element.getAsJsonObject();
+      if (image.has("uri")) {
+        String uri = image.get("uri").getAsString();
+        if (uri.startsWith("data:")) {
+          continue;
+        }
+        File file = new File(model.getParentFile(), decodePath(uri));
+        if (file.exists()) {
+          try (InputStream in = new FileInputStream(file)) {
+            total += textureSizer.estimateBytes(in);
+          }
+        }
+      } else if (image.has("bufferView") && glb != null) {
+        total += textureSizer.estimateBytes(glb.openView(image.get("bufferView").getAsInt()));
+      }
+    }
+    return total;
+  }
+
+  private static JsonArray array(JsonObject gltf, String name) {
+    return gltf.has(name) ? gltf.getAsJsonArray(name) : new JsonArray();
+  }
+
+  /** Number of components in one element of a glTF accessor type, e.g. 3 for VEC3. */
+  public static int componentCount(String type) {
+    switch (type) {
+      case "SCALAR":
+        return 1;
+      case "VEC2":
+        return 2;
+      case "VEC3":
+        return 3;
+      case "VEC4":
+      case "MAT2":
+        return 4;
+      case "MAT3":
+        return 9;
+      case "MAT4":
+        return 16;
+      default:
+        throw new IllegalStateException("Unknown accessor type " + type);
+    }
+  }
+
+  /** Size in bytes of one component of a glTF accessor component type. */
+  public static int componentBytes(int componentType) {
+    switch (componentType) {
+      case 5120: // BYTE
+      case 5121: // UNSIGNED_BYTE
+        return 1;
+      case 5122: // SHORT
+      case 5123: // UNSIGNED_SHORT
+        return 2;
+      case 5125: // UNSIGNED_INT
+      case 5126: // FLOAT
+        return 4;
+      default:
+        throw new IllegalStateException("Unknown component type " + componentType);
+    }
+  }
+
+  private static String decodePath(String uri) throws IOException {
+    try {
+      return new URI(uri.replace(" ", "%20")).getPath();
+    } catch (URISyntaxException e) {
+      throw new IOException("Invalid URI " + uri, e);
+    }
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.assets;
+
+import java.util.Collections;
+import java.util.List;
+
+/** The models shown for one augmented image, keyed in the configuration by the image's name. */
+public final class ImageAssetGroup {
+
+  private final String name;
+  private final List<ModelAsset> models;
+
+  ImageAssetGroup(String name, List<ModelAsset> models) {
+    this.name = name;
+    this.models = Collections.unmodifiableList(models);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public List<ModelAsset> getModels() {
+    return models;
+  }
+
+  @Override
+  public String toString() {
+    return name + " " + models;
+  }
+}
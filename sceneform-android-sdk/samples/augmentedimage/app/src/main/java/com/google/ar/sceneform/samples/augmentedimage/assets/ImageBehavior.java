@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.assets;
+
+/**
+ * What is shown on one augmented image, keyed in the configuration's {@code "images"} by the
+ * image's name. Images without an entry show the models of their group.
+ */
+public final class ImageBehavior {
+
+  /** Shows the models configured for the image under {@code "assets"}. */
+  public static final String MODELS = "models";
+
+  /** Shows one model bundled in the app's assets directory, named by {@code "model"}. */
+  public static final String BUNDLED_MODEL = "bundled_model";
+
+  /** Shows an Android layout of the app, named by {@code "layout"}. */
+  public static final String VIEW = "view";
+
+  static final ImageBehavior DEFAULT = new ImageBehavior(MODELS, null, null, false);
+
+  private final String name;
+  private final ModelAsset model;
+  private final String layout;
+  private final boolean atCorner;
+
+  ImageBehavior(String name, ModelAsset model, String layout, boolean atCorner) {
+    this.name = name;
+    this.model = model;
+    this.layout = layout;
+    this.atCorner = atCorner;
+  }
+
+  /** Returns the behavior's name. Names this version does not know are kept as they are. */
+  public String getName() {
+    return name;
+  }
+
+  /** Returns the model of a {@link #BUNDLED_MODEL} behavior, otherwise null. */
+  public ModelAsset getModel() {
+    return model;
+  }
+
+  /** Returns the layout resource name of a {@link #VIEW} behavior, otherwise null. */
+  public String getLayout() {
+    return layout;
+  }
+
+  /**
+   * Whether a single model or view is placed at the image's upper left corner ({@code
+   * "placement": "corner"}) rather than at its center.
+   */
+  public boolean isAtCorner() {
+    return atCorner;
+  }
+
+  @Override
+  public String toString() {
+    return name
+        + (model != null ? " " + model.getUrl() : "")
+        + (layout != null ? " " + layout : "");
+  }
+}
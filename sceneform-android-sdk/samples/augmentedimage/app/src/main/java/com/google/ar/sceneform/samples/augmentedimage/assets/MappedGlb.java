@@ -0,0 +1,214 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.assets;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * A GLB file mapped into memory and read in place.
+ *
+ * <p>Only the JSON chunk is copied onto the heap. Buffer views and accessors are returned as
+ * little-endian views of the mapped binary chunk, so reading a multi-megabyte model copies nothing
+ * and the kernel pages the file in as it is touched. The views stay valid after the file is closed
+ * or deleted, until they are garbage collected. Use {@link Glb} to edit a model.
+ */
+public final class MappedGlb {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  public final JsonObject json;
+  private final ByteBuffer bin;
+
+  private MappedGlb(JsonObject json, ByteBuffer bin) {
+    this.json = json;
+    this.bin = bin;
+  }
+
+  public static MappedGlb map(File file) throws IOException {
+    ByteBuffer mapped;
+    try (FileInputStream in = new FileInputStream(file);
+        FileChannel channel = in.getChannel()) {
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    mapped.order(ByteOrder.LITTLE_ENDIAN);
+    int jsonStart = Glb.GLB_HEADER_BYTES + Glb.CHUNK_HEADER_BYTES;
+    if (mapped.limit() < jsonStart || mapped.getInt(0) != Glb.GLB_MAGIC) {
+      throw new IOException("Not a GLB file: " + file);
+    }
+    int length = Math.min(mapped.getInt(8), mapped.limit());
+    int jsonLength = mapped.getInt(Glb.GLB_HEADER_BYTES);
+    if (mapped.getInt(Glb.GLB_HEADER_BYTES + 4) != Glb.CHUNK_JSON
+        || jsonLength < 0
+        || jsonStart + jsonLength > length) {
+      throw new IOException("GLB file without a JSON chunk: " + file);
+    }
+    JsonObject json;
+    try {
+      json =
+          new JsonParser()
+              .parse(UTF_8.decode(slice(mapped, jsonStart, jsonLength)).toString())
+              .getAsJsonObject();
+    } catch (JsonParseException | IllegalStateException e) {
+      throw new IOException("Invalid glTF " + file, e);
+    }
+
+    ByteBuffer bin = ByteBuffer.allocate(0);
+    int binChunk = jsonStart + jsonLength;
+    if (binChunk + Glb.CHUNK_HEADER_BYTES <= length
+        && mapped.getInt(binChunk + 4) == Glb.CHUNK_BIN) {
+      int binLength = mapped.getInt(binChunk);
+      if (binLength < 0 || binChunk + Glb.CHUNK_HEADER_BYTES + binLength > length) {
+        throw new IOException("Truncated GLB file: " + file);
+      }
+      bin = slice(mapped, binChunk + Glb.CHUNK_HEADER_BYTES, binLength);
+    }
+    return new MappedGlb(json, bin);
+  }
+
+  /** Returns the binary chunk, empty if there is none. */
+  public ByteBuffer bin() {
+    return bin.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /** Returns the bytes of a buffer view. */
+  public ByteBuffer view(int index) {
+    JsonObject view = array("bufferViews").get(index).getAsJsonObject();
+    int offset = view.has("byteOffset") ? view.get("byteOffset").getAsInt() : 0;
+    return slice(bin, offset, view.get("byteLength").getAsInt());
+  }
+
+  /** Streams the bytes of a buffer view, e.g. an encoded image, to a decoder. */
+  public InputStream openView(int index) {
+    ByteBuffer view = view(index);
+    return new InputStream() {
+      @Override
+      public int read() {
+        return view.hasRemaining() ? view.get() & 0xFF : -1;
+      }
+
+      @Override
+      public int read(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+          return 0;
+        }
+        if (!view.hasRemaining()) {
+          return -1;
+        }
+        int read = Math.min(length, view.remaining());
+        view.get(bytes, offset, read);
+        return read;
+      }
+
+      @Override
+      public int available() {
+        return view.remaining();
+      }
+    };
+  }
+
+  public JsonObject accessor(int index) {
+    return array("accessors").get(index).getAsJsonObject();
+  }
+
+  /** Bytes from one element of an accessor to the next in {@link #elements(int)}. */
+  public int strideOf(int accessor) {
+    JsonObject properties = accessor(accessor);
+    int viewIndex = properties.get("bufferView").getAsInt();
+    JsonObject view = array("bufferViews").get(viewIndex).getAsJsonObject();
+    int stride = view.has("byteStride") ? view.get("byteStride").getAsInt() : 0;
+    // Some exporters write a stride of 0 for tightly packed data.
+    return stride > 0 ? stride : Glb.elementBytes(properties);
+  }
+
+  /**
+   * Returns the elements of an accessor, starting at its first, {@link #strideOf(int)} bytes
+   * apart. Interleaved attributes share the bytes of their buffer view.
+   *
+   * @throws IllegalArgumentException for sparse accessors and those without a buffer view, whose
+   *     elements are not stored in place
+   */
+  public ByteBuffer elements(int accessor) {
+    JsonObject properties = accessor(accessor);
+    if (properties.has("sparse") || !properties.has("bufferView")) {
+      throw new IllegalArgumentException("Accessor " + accessor + " is not stored in place");
+    }
+    int count = properties.get("count").getAsInt();
+    ByteBuffer view = view(properties.get("bufferView").getAsInt());
+    int offset = properties.has("byteOffset") ? properties.get("byteOffset").getAsInt() : 0;
+    int length = count > 0 ? (count - 1) * strideOf(accessor) + Glb.elementBytes(properties) : 0;
+    return slice(view, offset, length);
+  }
+
+  /** Returns a tightly packed float accessor, all components of each element in turn. */
+  public FloatBuffer floats(int accessor) {
+    return packed(accessor, Glb.FLOAT).asFloatBuffer();
+  }
+
+  /** Returns a tightly packed accessor of signed or unsigned 16-bit components. */
+  public ShortBuffer shorts(int accessor) {
+    int componentType = accessor(accessor).get("componentType").getAsInt();
+    return packed(accessor, componentType == Glb.SHORT ? Glb.SHORT : Glb.UNSIGNED_SHORT)
+        .asShortBuffer();
+  }
+
+  /** Returns a tightly packed accessor of unsigned 32-bit components, such as indices. */
+  public IntBuffer ints(int accessor) {
+    return packed(accessor, Glb.UNSIGNED_INT).asIntBuffer();
+  }
+
+  private ByteBuffer packed(int accessor, int componentType) {
+    JsonObject properties = accessor(accessor);
+    if (properties.get("componentType").getAsInt() != componentType) {
+      throw new IllegalArgumentException(
+          "Accessor " + accessor + " has component type " + properties.get("componentType"));
+    }
+    if (strideOf(accessor) != Glb.elementBytes(properties)) {
+      throw new IllegalArgumentException(
+          "Accessor " + accessor + " is interleaved; read it with elements()");
+    }
+    return elements(accessor);
+  }
+
+  private JsonArray array(String name) {
+    return json.has(name) ? json.getAsJsonArray(name) : new JsonArray();
+  }
+
+  /** Returns a little-endian view of {@code length} bytes of {@code buffer} from {@code offset}. */
+  private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+    if (offset < 0 || length < 0 || offset + length > buffer.limit()) {
+      throw new IndexOutOfBoundsException(
+          "Bytes " + offset + "+" + length + " outside a buffer of " + buffer.limit());
+    }
+    ByteBuffer duplicate = buffer.duplicate();
+    duplicate.limit(offset + length).position(offset);
+    return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+  }
+}
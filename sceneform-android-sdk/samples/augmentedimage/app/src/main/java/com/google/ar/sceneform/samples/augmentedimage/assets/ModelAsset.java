@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.assets;
+
+/**
+ * One 3D model placed relative to an augmented image.
+ *
+ * <p>The transform is resolved once when the configuration is parsed. The configured rotation is
+ * an axis and an angle in degrees; it is stored here as a unit quaternion, so placing the model
+ * needs no further math.
+ */
+public final class ModelAsset {
+
+  private final String name;
+  private final String url;
+  private final boolean sfb;
+  private final boolean glb;
+
+  // x, y, z
+  private final float[] position;
+  private final float scale;
+  // x, y, z, w
+  private final float[] rotation;
+  // Coarser levels of detail, finest first, and the screen size below which each is shown.
+  private final ModelAsset[] lods;
+  private final float[] lodScreenSizes;
+
+  ModelAsset(String name, String url, float[] position, float scale, float[] rotation) {
+    this(name, url, position, scale, rotation, new String[0], new float[0]);
+  }
+
+  ModelAsset(
+      String name,
+      String url,
+      float[] position,
+      float scale,
+      float[] rotation,
+      String[] lodUrls,
+      float[] lodScreenSizes) {
+    this.name = name;
+    this.url = url;
+    this.sfb = url.endsWith("sfb");
+    this.glb = url.endsWith(".glb");
+    this.position = position;
+    this.scale = scale;
+    this.rotation = rotation;
+    this.lods = new ModelAsset[lodUrls.length];
+    for (int i = 0; i < lodUrls.length; i++) {
+      lods[i] = new ModelAsset(name + " LOD" + (i + 1), lodUrls[i], position, scale, rotation);
+    }
+    this.lodScreenSizes = lodScreenSizes;
+  }
+
+  /**
+   * Returns a model with no transform, e.g. for a Sceneform binary bundled in the APK's assets
+   * directory, which is loaded by its relative path.
+   */
+  public static ModelAsset forUrl(String name, String url) {
+    return new ModelAsset(name, url, new float[] {0f, 0f, 0f}, 1f, new float[] {0f, 0f, 0f, 1f});
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  /** Whether the model is a Sceneform binary, the only format with animation support here. */
+  public boolean isSfb() {
+    return sfb;
+  }
+
+  /** Whether the model is a binary glTF, with its buffers and images in the same file. */
+  public boolean isGlb() {
+    return glb;
+  }
+
+  /** Number of levels of detail, including this model as level 0. */
+  public int getLodCount() {
+    return lods.length + 1;
+  }
+
+  /**
+   * Returns the model of a level of detail, this model for level 0. The same level always returns
+   * the same instance, so it can be cached.
+   */
+  public ModelAsset getLod(int level) {
+    return level == 0 ? this : lods[level - 1];
+  }
+
+  /**
+   * Returns the share of the screen height below which a level is shown, for levels from 1. It
+   * decreases with the level.
+   */
+  public float getLodScreenSize(int level) {
+    return lodScreenSizes[level - 1];
+  }
+
+  public float getPositionX() {
+    return position[0];
+  }
+
+  public float getPositionY() {
+    return position[1];
+  }
+
+  public float getPositionZ() {
+    return position[2];
+  }
+
+  public float getScale() {
+    return scale;
+  }
+
+  public float getRotationX() {
+    return rotation[0];
+  }
+
+  public float getRotationY() {
+    return rotation[1];
+  }
+
+  public float getRotationZ() {
+    return rotation[2];
+  }
+
+  public float getRotationW() {
+    return rotation[3];
+  }
+
+  /**
+   * Converts an axis and an angle in degrees to a unit quaternion, the same way as Sceneform's
+   * {@code Quaternion.axisAngle}. A zero axis yields the identity rotation.
+   */
+  static float[] axisAngle(float axisX, float axisY, float axisZ, float degrees) {
+    double length = Math.sqrt(axisX * axisX + axisY * axisY + axisZ * axisZ);
+    if (length == 0) {
+      return new float[] {0f, 0f, 0f, 1f};
+    }
+    double halfAngle = Math.toRadians(degrees) * 0.5;
+    double sin = Math.sin(halfAngle) / length;
+    return new float[] {
+      (float) (axisX * sin),
+      (float) (axisY * sin),
+      (float) (axisZ * sin),
+      (float) Math.cos(halfAngle)
+    };
+  }
+
+  @Override
+  public String toString() {
+    return name + " (" + url + ")";
+  }
+}
@@ -0,0 +1,919 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.assets;
+
+import com.google.gson.stream.JsonReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk cache in front of remote model files.
+ *
+ * <p>Entries are keyed by the model URL plus a validator of its content, the ETag or else the
+ * Last-Modified date. A cached model is revalidated with a conditional GET, so a repeat visit
+ * costs one small round trip and then loads from local storage. When the network is down the
+ * cached copy is used as is. A glTF model is stored together with the buffers and images it
+ * references by relative URI, in the same layout, so it loads from disk without rewriting. Files
+ * are transferred by a {@link DownloadEngine}, which bounds concurrency and resumes drops.
+ *
+ * <p>Models listed in the {@link AssetManifest} are handled by content hash instead. A cached
+ * model whose files all match the manifest is used without a request. Otherwise a new entry is
+ * assembled: files whose hash is unchanged are copied from the previous entry and only the rest
+ * are downloaded and verified. {@link #sync} does this for every cached model when a new manifest
+ * arrives, all or nothing.
+ *
+ * <p>Downloads accept gzip, and files with a pre-compressed variant in the manifest are fetched
+ * through it. {@link #getTransfer(String)} reports what each model cost on the network.
+ */
+public final class ModelFileCache {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final String INDEX_FILE_NAME = "index.properties";
+  private static final String MAIN_FILE_NAME = "model";
+
+  private static final String ETAG_PREFIX = "etag:";
+  private static final String DATE_PREFIX = "date:";
+  private static final String NO_VALIDATOR = "none";
+  private static final String HASH_PREFIX = "sha256:";
+  private static final String GZIP_SUFFIX = ".gz";
+
+  // Path in the entry to the SHA-256 of each file, for entries built from a manifest.
+  private static final String HASHES_FILE_NAME = "hashes.properties";
+
+  private final DiskLruCache cache;
+  private final DownloadEngine engine;
+  private final File indexFile;
+  // Model URL to the validator of the cached copy.
+  private final Properties index = new Properties();
+  private volatile AssetManifest manifest = AssetManifest.EMPTY;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong bytesSaved = new AtomicLong();
+  private final AtomicLong bytesDownloaded = new AtomicLong();
+  private final AtomicLong bytesEncoded = new AtomicLong();
+  // Model URL to the bytes of its last download.
+  private final Map<String, Transfer> transfers = new ConcurrentHashMap<>();
+  private final AtomicLong bytesReused = new AtomicLong();
+  private final AtomicLong orphansRemoved = new AtomicLong();
+  // Model URL to the fetch in progress, which concurrent fetches of the model wait for.
+  private final Map<String, InFlight> inFlight = new ConcurrentHashMap<>();
+
+  /** Size of a model's downloaded files, as transferred and as stored. */
+  public static final class Transfer {
+    private final long encodedBytes;
+    private final long rawBytes;
+
+    Transfer(long encodedBytes, long rawBytes) {
+      this.encodedBytes = encodedBytes;
+      this.rawBytes = rawBytes;
+    }
+
+    public long getEncodedBytes() {
+      return encodedBytes;
+    }
+
+    public long getRawBytes() {
+      return rawBytes;
+    }
+
+    @Override
+    public String toString() {
+      long percent = rawBytes > 0 ? encodedBytes * 100 / rawBytes : 100;
+      return encodedBytes + "B transferred for " + rawBytes + "B (" + percent + "%)";
+    }
+  }
+
+  /** Sums the downloads of one fetch. */
+  private static final class Tally {
+    long encodedBytes;
+    long rawBytes;
+
+    void add(DownloadEngine.Result result) {
+      encodedBytes += result.getEncodedBytes();
+      rawBytes += result.getBytes();
+    }
+  }
+
+  /** An entry built for a manifest that is not yet recorded in the index. */
+  private static final class Staged {
+    final String validator;
+    final String key;
+    final File entry;
+    // False if an existing entry already matched the manifest.
+    final boolean created;
+
+    Staged(String validator, String key, File entry, boolean created) {
+      this.validator = validator;
+      this.key = key;
+      this.entry = entry;
+      this.created = created;
+    }
+  }
+
+  /**
+   * A fetch in progress. Paced by the throttle of the caller that started it, until an unthrottled
+   * caller, such as a foreground load, joins it.
+   */
+  private final class InFlight implements DownloadEngine.Throttle {
+    final FutureTask<File> task;
+    private final DownloadEngine.Throttle throttle;
+    private volatile boolean unthrottled;
+
+    InFlight(String url, DownloadEngine.Throttle throttle) {
+      this.throttle = throttle;
+      unthrottled = throttle == DownloadEngine.UNTHROTTLED;
+      task = new FutureTask<>(() -> load(url, this));
+    }
+
+    void join(DownloadEngine.Throttle throttle) {
+      if (throttle == DownloadEngine.UNTHROTTLED) {
+        unthrottled = true;
+      }
+    }
+
+    @Override
+    public void acquire(int bytes) throws IOException {
+      if (!unthrottled) {
+        throttle.acquire(bytes);
+      }
+    }
+  }
+
+  public ModelFileCache(File directory, long maxBytes, DownloadEngine engine) throws IOException {
+    this.engine = engine;
+    cache = new DiskLruCache(directory, maxBytes);
+    indexFile = new File(directory, INDEX_FILE_NAME);
+    if (indexFile.exists()) {
+      try (InputStream in = new FileInputStream(indexFile)) {
+        index.load(in);
+      }
+    }
+    // Entries made obsolete while still being read last time, or never indexed.
+    Set<String> orphans = new HashSet<>(cache.keys());
+    orphans.removeAll(indexedKeys());
+    for (String orphan : orphans) {
+      if (cache.remove(orphan)) {
+        orphansRemoved.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Returns a local copy of the model at {@code url}, downloading it if it is not cached or has
+   * changed. The copy is kept from eviction until it is passed to {@link #release(File)}. Blocks,
+   * so call it off the main thread.
+   */
+  public File fetch(String url) throws IOException {
+    return fetch(url, DownloadEngine.UNTHROTTLED);
+  }
+
+  /**
+   * Like {@link #fetch(String)}, but downloads at the pace allowed by {@code throttle}. Concurrent
+   * fetches of the same model share one download.
+   */
+  public File fetch(String url, DownloadEngine.Throttle throttle) throws IOException {
+    while (true) {
+      InFlight fetch = new InFlight(url, throttle);
+      InFlight running = inFlight.putIfAbsent(url, fetch);
+      if (running == null) {
+        try {
+          fetch.task.run();
+          return awaitFile(fetch.task);
+        } finally {
+          inFlight.remove(url, fetch);
+        }
+      }
+      running.join(throttle);
+      File model = awaitFile(running.task);
+      // The fetch that started the download holds the model for its own caller.
+      if (cache.get(entryKey(model)) != null) {
+        return model;
+      }
+      // Released and evicted before this caller could hold it; fetch it again.
+      inFlight.remove(url, running);
+    }
+  }
+
+  /** Lets the cache evict a model returned by {@link #fetch}, e.g. once it has been built. */
+  public void release(File model) {
+    cache.release(entryKey(model));
+  }
+
+  private File load(String url, DownloadEngine.Throttle throttle) throws IOException {
+    AssetManifest manifest = this.manifest;
+    if (manifest.getFile(url) != null) {
+      Staged staged;
+      try {
+        staged = stage(url, manifest, throttle);
+      } catch (IOException e) {
+        File stale = indexedEntry(url);
+        if (stale != null) {
+          // Offline: the previous version is better than nothing.
+          return mainFile(stale);
+        }
+        throw e;
+      }
+      synchronized (index) {
+        String stale = index.getProperty(url);
+        index.setProperty(url, staged.validator);
+        saveIndex();
+        if (stale != null && !DiskLruCache.key(url, stale).equals(staged.key)) {
+          cache.remove(DiskLruCache.key(url, stale));
+        }
+      }
+      return mainFile(staged.entry);
+    }
+
+    String validator;
+    synchronized (index) {
+      validator = index.getProperty(url);
+    }
+    String cachedKey = validator != null ? DiskLruCache.key(url, validator) : null;
+    File cached = cachedKey != null ? cache.get(cachedKey) : null;
+
+    Map<String, String> headers = new HashMap<>();
+    if (cached != null) {
+      if (validator.startsWith(ETAG_PREFIX)) {
+        headers.put("If-None-Match", validator.substring(ETAG_PREFIX.length()));
+      } else if (validator.startsWith(DATE_PREFIX)) {
+        headers.put("If-Modified-Since", validator.substring(DATE_PREFIX.length()));
+      }
+    }
+
+    File scratch = null;
+    boolean servedCached = false;
+    try {
+      scratch = cache.edit();
+      File main = new File(scratch, MAIN_FILE_NAME + extensionOf(url));
+      DownloadEngine.Result result;
+      try {
+        result = engine.download(url, main, headers, throttle);
+      } catch (IOException e) {
+        if (cached != null) {
+          // Offline: the last copy we have is better than nothing.
+          cache.abort(scratch);
+          servedCached = true;
+          return hit(cachedKey, cached);
+        }
+        throw e;
+      }
+
+      if (cached != null && result.getStatus() != HttpURLConnection.HTTP_OK) {
+        // Not modified, or a server error we can ride out with the cached copy.
+        cache.abort(scratch);
+        servedCached = true;
+        return hit(cachedKey, cached);
+      }
+      if (result.getStatus() != HttpURLConnection.HTTP_OK) {
+        throw new IOException("Unexpected HTTP status " + result.getStatus() + " for " + url);
+      }
+      Tally tally = new Tally();
+      tally.add(result);
+      return commit(url, validatorOf(result), scratch, main, cachedKey, throttle, tally);
+    } catch (IOException e) {
+      if (scratch != null) {
+        cache.abort(scratch);
+      }
+      throw e;
+    } finally {
+      if (cached != null && !servedCached) {
+        cache.release(cachedKey);
+      }
+    }
+  }
+
+  /** Sets the manifest of the configuration in use, e.g. the cached one at startup. */
+  public void setManifest(AssetManifest manifest) {
+    this.manifest = manifest;
+  }
+
+  /**
+   * Brings every cached model listed in {@code next} up to date, then makes {@code next} the
+   * current manifest and removes the entries it made obsolete, including those of models no
+   * longer in {@code modelUrls}. An obsolete entry still held by a {@link #fetch} caller, e.g. a
+   * model being built, is deleted once released, or else at the next launch. Only files whose
+   * hash changed are downloaded; models that were never fetched stay unfetched. Blocks, so call it
+   * off the main thread.
+   *
+   * @throws IOException if any download fails, in which case the new entries are discarded and
+   *     the previous manifest and entries stay in use
+   */
+  public void sync(
+      AssetManifest next, Collection<String> modelUrls, DownloadEngine.Throttle throttle)
+      throws IOException {
+    Map<String, Staged> staged = new LinkedHashMap<>();
+    try {
+      for (String url : modelUrls) {
+        boolean cached;
+        synchronized (index) {
+          cached = index.getProperty(url) != null;
+        }
+        if (cached && next.getFile(url) != null) {
+          staged.put(url, stage(url, next, throttle));
+        }
+      }
+    } catch (IOException e) {
+      for (Staged entry : staged.values()) {
+        cache.release(entry.key);
+        if (entry.created) {
+          cache.remove(entry.key);
+        }
+      }
+      throw e;
+    }
+
+    synchronized (index) {
+      Set<String> previousKeys = indexedKeys();
+      for (Map.Entry<String, Staged> entry : staged.entrySet()) {
+        index.setProperty(entry.getKey(), entry.getValue().validator);
+      }
+      index.keySet().retainAll(new HashSet<>(modelUrls));
+      saveIndex();
+      manifest = next;
+
+      previousKeys.removeAll(indexedKeys());
+      for (String orphan : previousKeys) {
+        if (cache.remove(orphan)) {
+          orphansRemoved.incrementAndGet();
+        }
+      }
+    }
+    for (Staged entry : staged.values()) {
+      cache.release(entry.key);
+    }
+  }
+
+  /** Number of fetches served from disk. */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /** Number of fetches that had to download the model. */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /** Bytes that did not have to be downloaded because they were served from disk. */
+  public long getBytesSaved() {
+    return bytesSaved.get();
+  }
+
+  /** Size of all downloaded files as stored. */
+  public long getBytesDownloaded() {
+    return bytesDownloaded.get();
+  }
+
+  /** Size of all downloaded files as transferred, smaller if they were compressed. */
+  public long getBytesTransferred() {
+    return bytesEncoded.get();
+  }
+
+  /** Returns what the last download of the model at {@code url} cost, or null if none ran. */
+  public Transfer getTransfer(String url) {
+    return transfers.get(url);
+  }
+
+  /** Bytes copied from a previous version of a model because their hash did not change. */
+  public long getBytesReused() {
+    return bytesReused.get();
+  }
+
+  /** Number of entries deleted because no configuration refers to them anymore. */
+  public long getOrphansRemoved() {
+    return orphansRemoved.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "hits=%d misses=%d saved=%dB downloaded=%dB transferred=%dB reused=%dB orphans=%d"
+            + " size=%dB/%dB %s",
+        getHitCount(),
+        getMissCount(),
+        getBytesSaved(),
+        getBytesDownloaded(),
+        getBytesTransferred(),
+        getBytesReused(),
+        getOrphansRemoved(),
+        cache.size(),
+        cache.getMaxBytes(),
+        engine);
+  }
+
+  private File hit(String key, File entry) {
+    hits.incrementAndGet();
+    bytesSaved.addAndGet(Math.max(cache.sizeOf(key), 0));
+    return mainFile(entry);
+  }
+
+  private File commit(
+      String url,
+      String validator,
+      File scratch,
+      File main,
+      String staleKey,
+      DownloadEngine.Throttle throttle,
+      Tally tally)
+      throws IOException {
+    if (main.getName().endsWith(".gltf")) {
+      downloadDependencies(url, scratch, relativeUris(main), throttle, tally);
+    }
+
+    String key = DiskLruCache.key(url, validator);
+    File entry;
+    synchronized (index) {
+      entry = cache.commit(key, scratch);
+      if (staleKey != null && !staleKey.equals(key)) {
+        cache.remove(staleKey);
+      }
+      index.setProperty(url, validator);
+      saveIndex();
+    }
+    record(url, tally);
+    return mainFile(entry);
+  }
+
+  private void record(String url, Tally tally) {
+    misses.incrementAndGet();
+    bytesDownloaded.addAndGet(tally.rawBytes);
+    bytesEncoded.addAndGet(tally.encodedBytes);
+    transfers.put(url, new Transfer(tally.encodedBytes, tally.rawBytes));
+  }
+
+  /**
+   * Returns an entry for {@code url} whose files match {@code manifest}, reusing the indexed entry
+   * if it matches and otherwise committing a new one assembled from the indexed entry's unchanged
+   * files plus downloads. Does not touch the index. The entry is held until released.
+   */
+  private Staged stage(String url, AssetManifest manifest, DownloadEngine.Throttle throttle)
+      throws IOException {
+    String validator;
+    synchronized (index) {
+      validator = index.getProperty(url);
+    }
+    String baseKey = validator != null ? DiskLruCache.key(url, validator) : null;
+    File base = baseKey != null ? cache.get(baseKey) : null;
+    try {
+      Properties baseHashes = base != null ? readHashes(base) : new Properties();
+      if (base != null
+          && validator.startsWith(HASH_PREFIX)
+          && matches(url, baseHashes, manifest)) {
+        hits.incrementAndGet();
+        bytesSaved.addAndGet(Math.max(cache.sizeOf(baseKey), 0));
+        // Held for the caller, like a new entry.
+        cache.get(baseKey);
+        return new Staged(validator, baseKey, base, false);
+      }
+      return assemble(url, manifest, base, baseHashes, throttle);
+    } finally {
+      if (base != null) {
+        cache.release(baseKey);
+      }
+    }
+  }
+
+  /** Commits a new entry for {@code url} from the base entry's unchanged files plus downloads. */
+  private Staged assemble(
+      String url,
+      AssetManifest manifest,
+      File base,
+      Properties baseHashes,
+      DownloadEngine.Throttle throttle)
+      throws IOException {
+    File scratch = cache.edit();
+    try {
+      Properties hashes = new Properties();
+      String mainPath = MAIN_FILE_NAME + extensionOf(url);
+      File main = new File(scratch, mainPath);
+      Tally tally = new Tally();
+      obtain(url, manifest, base, baseHashes, mainPath, main, hashes, throttle, null, tally);
+
+      if (main.getName().endsWith(".gltf")) {
+        URI baseUri = toUri(url);
+        List<Future<DownloadEngine.Result>> downloads = new ArrayList<>();
+        try {
+          for (String relative : relativeUris(main)) {
+            URI dependency = toUri(relative);
+            String path = dependency.getPath();
+            obtain(
+                baseUri.resolve(dependency).toString(),
+                manifest,
+                base,
+                baseHashes,
+                path,
+                dependencyFile(scratch, path),
+                hashes,
+                throttle,
+                downloads,
+                tally);
+          }
+          for (Future<DownloadEngine.Result> download : downloads) {
+            DownloadEngine.Result result = await(download);
+            if (result.getStatus() != HttpURLConnection.HTTP_OK) {
+              throw new IOException("Unexpected HTTP status " + result.getStatus() + " for " + url);
+            }
+            tally.add(result);
+          }
+        } finally {
+          for (Future<DownloadEngine.Result> download : downloads) {
+            download.cancel(true);
+          }
+        }
+        verifyAll(url, scratch, manifest, hashes);
+      }
+
+      String newValidator = HASH_PREFIX + digestOf(hashes);
+      try (OutputStream out = new FileOutputStream(new File(scratch, HASHES_FILE_NAME))) {
+        hashes.store(out, null);
+      }
+      String key = DiskLruCache.key(url, newValidator);
+      File entry = cache.commit(key, scratch);
+      record(url, tally);
+      return new Staged(newValidator, key, entry, true);
+    } catch (IOException e) {
+      cache.abort(scratch);
+      throw e;
+    }
+  }
+
+  /**
+   * Puts the file at {@code fileUrl} into {@code target}: copied from the base entry if its hash
+   * matches the manifest, or if the manifest does not list it; otherwise downloaded, right away
+   * or, when {@code downloads} is given, in the background. A pre-compressed variant is preferred.
+   * Records the hash in {@code hashes} and the download in {@code tally}, unless the download is
+   * still running.
+   */
+  private void obtain(
+      String fileUrl,
+      AssetManifest manifest,
+      File base,
+      Properties baseHashes,
+      String path,
+      File target,
+      Properties hashes,
+      DownloadEngine.Throttle throttle,
+      List<Future<DownloadEngine.Result>> downloads,
+      Tally tally)
+      throws IOException {
+    AssetManifest.FileInfo info = manifest.getFile(fileUrl);
+    File old = base != null ? new File(base, path) : null;
+    if (old != null && old.isFile()) {
+      String oldHash = baseHashes.getProperty(path);
+      if (oldHash == null) {
+        oldHash = sha256(old);
+      }
+      if (info == null || info.getSha256().equals(oldHash)) {
+        copy(old, target);
+        bytesReused.addAndGet(target.length());
+        hashes.setProperty(path, oldHash);
+        return;
+      }
+    }
+
+    Map<String, String> noHeaders = Collections.emptyMap();
+    boolean precompressed = info != null && info.getGzipSize() >= 0;
+    String source = precompressed ? fileUrl + GZIP_SUFFIX : fileUrl;
+    if (downloads != null) {
+      downloads.add(engine.submit(source, target, noHeaders, throttle, precompressed));
+      return;
+    }
+    DownloadEngine.Result result =
+        engine.download(source, target, noHeaders, throttle, precompressed);
+    if (result.getStatus() != HttpURLConnection.HTTP_OK) {
+      throw new IOException("Unexpected HTTP status " + result.getStatus() + " for " + source);
+    }
+    hashes.setProperty(path, verify(fileUrl, target, info));
+    tally.add(result);
+  }
+
+  /** Checks and records the hashes of the dependencies that were downloaded in the background. */
+  private static void verifyAll(String url, File scratch, AssetManifest manifest, Properties hashes)
+      throws IOException {
+    URI baseUri = toUri(url);
+    for (String relative : relativeUris(new File(scratch, MAIN_FILE_NAME + extensionOf(url)))) {
+      URI dependency = toUri(relative);
+      String path = dependency.getPath();
+      if (hashes.getProperty(path) == null) {
+        String dependencyUrl = baseUri.resolve(dependency).toString();
+        hashes.setProperty(
+            path,
+            verify(dependencyUrl, new File(scratch, path), manifest.getFile(dependencyUrl)));
+      }
+    }
+  }
+
+  /** Returns the hash of a downloaded file, after checking it against the manifest if listed. */
+  private static String verify(String url, File file, AssetManifest.FileInfo info)
+      throws IOException {
+    String hash = sha256(file);
+    if (info != null && (file.length() != info.getSize() || !hash.equals(info.getSha256()))) {
+      throw new IOException("Content of " + url + " does not match the manifest");
+    }
+    return hash;
+  }
+
+  /** Whether every file of an entry that the manifest lists has the listed hash. */
+  private static boolean matches(String url, Properties hashes, AssetManifest manifest)
+      throws IOException {
+    String mainPath = MAIN_FILE_NAME + extensionOf(url);
+    if (!manifest.getFile(url).getSha256().equals(hashes.getProperty(mainPath))) {
+      return false;
+    }
+    URI baseUri = toUri(url);
+    for (String path : hashes.stringPropertyNames()) {
+      if (path.equals(mainPath)) {
+        continue;
+      }
+      AssetManifest.FileInfo info = manifest.getFile(baseUri.resolve(toUri(path)).toString());
+      if (info != null && !info.getSha256().equals(hashes.getProperty(path))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private File indexedEntry(String url) {
+    String validator;
+    synchronized (index) {
+      validator = index.getProperty(url);
+    }
+    return validator != null ? cache.get(DiskLruCache.key(url, validator)) : null;
+  }
+
+  /** Returns the cache keys of all indexed entries. Call with the index locked. */
+  private Set<String> indexedKeys() {
+    Set<String> keys = new HashSet<>();
+    for (String url : index.stringPropertyNames()) {
+      keys.add(DiskLruCache.key(url, index.getProperty(url)));
+    }
+    return keys;
+  }
+
+  private static Properties readHashes(File entry) {
+    Properties hashes = new Properties();
+    File file = new File(entry, HASHES_FILE_NAME);
+    if (file.exists()) {
+      try (InputStream in = new FileInputStream(file)) {
+        hashes.load(in);
+      } catch (IOException e) {
+        // Every file will be hashed again instead.
+        hashes.clear();
+      }
+    }
+    return hashes;
+  }
+
+  /** Digest of the path and hash of every file, independent of their order. */
+  private static String digestOf(Properties hashes) {
+    StringBuilder lines = new StringBuilder();
+    for (String path : new TreeSet<>(hashes.stringPropertyNames())) {
+      lines.append(path).append('=').append(hashes.getProperty(path)).append('\n');
+    }
+    return DiskLruCache.toHex(sha256Digest().digest(lines.toString().getBytes(UTF_8)));
+  }
+
+  static String sha256(File file) throws IOException {
+    MessageDigest digest = sha256Digest();
+    try (InputStream in = new FileInputStream(file)) {
+      byte[] buffer = new byte[64 * 1024];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    return DiskLruCache.toHex(digest.digest());
+  }
+
+  private static MessageDigest sha256Digest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError("SHA-256 is always available", e);
+    }
+  }
+
+  private static void copy(File source, File target) throws IOException {
+    try (FileChannel in = new FileInputStream(source).getChannel();
+        FileChannel out = new FileOutputStream(target).getChannel()) {
+      long position = 0;
+      long size = in.size();
+      while (position < size) {
+        position += in.transferTo(position, size - position, out);
+      }
+    }
+  }
+
+  /** Downloads the buffers and images of a glTF model in parallel, within the engine's limits. */
+  private void downloadDependencies(
+      String url,
+      File scratch,
+      List<String> relativeUris,
+      DownloadEngine.Throttle throttle,
+      Tally tally)
+      throws IOException {
+    URI base = toUri(url);
+    List<Future<DownloadEngine.Result>> downloads = new ArrayList<>();
+    try {
+      for (String relative : relativeUris) {
+        URI dependency = toUri(relative);
+        File target = dependencyFile(scratch, dependency.getPath());
+        downloads.add(
+            engine.submit(
+                base.resolve(dependency).toString(),
+                target,
+                Collections.<String, String>emptyMap(),
+                throttle));
+      }
+      for (int i = 0; i < downloads.size(); i++) {
+        DownloadEngine.Result result = await(downloads.get(i));
+        if (result.getStatus() != HttpURLConnection.HTTP_OK) {
+          throw new IOException(
+              "Unexpected HTTP status " + result.getStatus() + " for " + relativeUris.get(i));
+        }
+        tally.add(result);
+      }
+    } finally {
+      for (Future<DownloadEngine.Result> download : downloads) {
+        download.cancel(true);
+      }
+    }
+  }
+
+  private static File dependencyFile(File scratch, String path) throws IOException {
+    File target = new File(scratch, path);
+    if (!target.getCanonicalPath().startsWith(scratch.getCanonicalPath() + File.separator)) {
+      throw new IOException("Model references a file outside its directory: " + path);
+    }
+    File parent = target.getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Cannot create " + parent);
+    }
+    return target;
+  }
+
+  private static DownloadEngine.Result await(Future<DownloadEngine.Result> download)
+      throws IOException {
+    return get(download, "Download failed");
+  }
+
+  private static File awaitFile(Future<File> fetch) throws IOException {
+    return get(fetch, "Fetch failed");
+  }
+
+  private static <T> T get(Future<T> future, String failure) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for a download");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(failure, cause);
+    }
+  }
+
+  private void saveIndex() {
+    File temp = new File(indexFile.getPath() + ".tmp");
+    try (OutputStream out = new FileOutputStream(temp)) {
+      index.store(out, null);
+    } catch (IOException e) {
+      temp.delete();
+      return;
+    }
+    temp.renameTo(indexFile);
+  }
+
+  private static String validatorOf(DownloadEngine.Result result) {
+    if (result.getEtag() != null) {
+      return ETAG_PREFIX + result.getEtag();
+    }
+    if (result.getLastModified() != null) {
+      return DATE_PREFIX + result.getLastModified();
+    }
+    return NO_VALIDATOR;
+  }
+
+  private static String entryKey(File model) {
+    return model.getParentFile().getName();
+  }
+
+  private static File mainFile(File entry) {
+    File[] children = entry.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        if (child.getName().startsWith(MAIN_FILE_NAME + ".")) {
+          return child;
+        }
+      }
+    }
+    return new File(entry, MAIN_FILE_NAME);
+  }
+
+  /** Returns the extension of the URL's path, e.g. ".gltf", or an empty string. */
+  static String extensionOf(String url) {
+    String path;
+    try {
+      path = new URL(url).getPath();
+    } catch (IOException e) {
+      path = url;
+    }
+    int dot = path.lastIndexOf('.');
+    return dot > path.lastIndexOf('/') ? path.substring(dot) : "";
+  }
+
+  /** Returns the buffer and image URIs of a glTF file that are relative to the file itself. */
+  public static List<String> relativeUris(File gltf) throws IOException {
+    List<String> uris = new ArrayList<>();
+    try (JsonReader reader =
+        new JsonReader(new InputStreamReader(new FileInputStream(gltf), UTF_8))) {
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if (name.equals("buffers") || name.equals("images")) {
+          reader.beginArray();
+          while (reader.hasNext()) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+              if (reader.nextName().equals("uri")) {
+                String uri = reader.nextString();
+                if (!uri.startsWith("data:") && !uri.contains("://")) {
+                  uris.add(uri);
+                }
+              } else {
+                reader.skipValue();
+              }
+            }
+            reader.endObject();
+          }
+          reader.endArray();
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+    } catch (IllegalStateException e) {
+      throw new IOException("Invalid glTF " + gltf, e);
+    }
+    return uris;
+  }
+
+  /** Parses a URI, tolerating the unescaped spaces some exporters write into glTF files. */
+  private static URI toUri(String uri) throws IOException {
+    try {
+      return new URI(uri.replace(" ", "%20"));
+    } catch (URISyntaxException e) {
+      throw new IOException("Invalid URI " + uri, e);
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.assets;
+
+/**
+ * Token bucket rate limiter for bytes.
+ *
+ * <p>Tokens accrue at a steady rate up to a burst size. Taking more tokens than are available
+ * puts the bucket in debt, and the caller sleeps until the debt is repaid, so the long-run rate
+ * holds even for requests larger than the burst.
+ */
+public final class TokenBucket {
+
+  private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+  private final long bytesPerSecond;
+  private final long burstBytes;
+
+  private double tokens;
+  private long lastRefillNanos;
+
+  public TokenBucket(long bytesPerSecond, long burstBytes) {
+    if (bytesPerSecond <= 0 || burstBytes <= 0) {
+      throw new IllegalArgumentException("Rate and burst must be positive");
+    }
+    this.bytesPerSecond = bytesPerSecond;
+    this.burstBytes = burstBytes;
+    this.tokens = burstBytes;
+    this.lastRefillNanos = System.nanoTime();
+  }
+
+  /** Takes {@code bytes} tokens, sleeping as long as needed to stay within the rate. */
+  public void acquire(long bytes) throws InterruptedException {
+    long waitNanos;
+    synchronized (this) {
+      refill();
+      tokens -= bytes;
+      waitNanos = tokens < 0 ? (long) (-tokens * NANOS_PER_SECOND / bytesPerSecond) : 0;
+    }
+    if (waitNanos > 0) {
+      Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+    }
+  }
+
+  public long getBytesPerSecond() {
+    return bytesPerSecond;
+  }
+
+  private void refill() {
+    long now = System.nanoTime();
+    double accrued = (double) (now - lastRefillNanos) * bytesPerSecond / NANOS_PER_SECOND;
+    tokens = Math.min(burstBytes, tokens + accrued);
+    lastRefillNanos = now;
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.assets;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Expands models written by the {@code quantizeVertices} tool back into float vertex data.
+ *
+ * <p>Quantized models store positions as 16-bit normalized integers, placed by a dequantization
+ * transform on the node showing the mesh ({@value #MESH_QUANTIZATION}), and normals as two
+ * octahedral components of 8 or 16 bits ({@value #OCTAHEDRAL_NORMALS}). Sceneform's glTF loader
+ * reads neither, so downloaded models are expanded before they are built: positions are moved
+ * back to model space, which makes the dequantization transforms identities, and normals are
+ * decoded to unit vectors. Colors stay 8-bit, which core glTF allows.
+ */
+public final class VertexDequantizer {
+
+  public static final String MESH_QUANTIZATION = "KHR_mesh_quantization";
+  public static final String OCTAHEDRAL_NORMALS = "ARBIO_octahedral_normals";
+
+  private VertexDequantizer() {}
+
+  /** Whether a model needs {@link #expand(Glb)} before Sceneform can load it. */
+  public static boolean isQuantized(JsonObject gltf) {
+    if (!gltf.has("extensionsRequired")) {
+      return false;
+    }
+    for (JsonElement extension : gltf.getAsJsonArray("extensionsRequired")) {
+      String name = extension.getAsString();
+      if (name.equals(MESH_QUANTIZATION) || name.equals(OCTAHEDRAL_NORMALS)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Replaces the quantized positions and normals of a model with float ones. */
+  public static void expand(Glb glb) {
+    ByteBuffer data = glb.data();
+    JsonArray meshes = glb.array("meshes");
+    JsonArray nodes = glb.array("nodes");
+    for (int mesh = 0; mesh < meshes.size(); mesh++) {
+      float[] translation = {0f, 0f, 0f};
+      float[] scale = {1f, 1f, 1f};
+      for (JsonElement element : nodes) {
+        JsonObject node = element.getAsJsonObject();
+        if (node.has("mesh") && node.get("mesh").getAsInt() == mesh && node.has("scale")) {
+          translation = readVector(node, "translation", translation);
+          scale = readVector(node, "scale", scale);
+        }
+      }
+
+      // Accessors shared by primitives of the mesh are expanded once.
+      Map<Integer, Integer> expanded = new HashMap<>();
+      boolean positionsExpanded = false;
+      for (JsonElement element : meshes.get(mesh).getAsJsonObject().getAsJsonArray("primitives")) {
+        JsonObject attributes = element.getAsJsonObject().getAsJsonObject("attributes");
+        for (Map.Entry<String, JsonElement> attribute : attributes.entrySet()) {
+          int index = attribute.getValue().getAsInt();
+          JsonObject accessor = glb.accessor(index);
+          boolean position =
+              attribute.getKey().equals("POSITION")
+                  && accessor.get("componentType").getAsInt() != Glb.FLOAT;
+          boolean normal =
+              attribute.getKey().equals("NORMAL")
+                  && accessor.get("type").getAsString().equals("VEC2");
+          if (!position && !normal) {
+            continue;
+          }
+          Integer replacement = expanded.get(index);
+          if (replacement == null) {
+            float[] values = glb.readFloats(data, accessor);
+            if (position) {
+              for (int i = 0; i < values.length; i++) {
+                values[i] = translation[i % 3] + scale[i % 3] * values[i];
+              }
+              positionsExpanded = true;
+            } else {
+              values = decodeOctahedral(values);
+            }
+            replacement = glb.addFloats(values, "VEC3");
+            expanded.put(index, replacement);
+          }
+          attribute.setValue(new JsonPrimitive(replacement));
+        }
+      }
+
+      if (positionsExpanded) {
+        for (JsonElement element : nodes) {
+          JsonObject node = element.getAsJsonObject();
+          if (node.has("mesh") && node.get("mesh").getAsInt() == mesh) {
+            node.remove("translation");
+            node.remove("scale");
+          }
+        }
+      }
+    }
+    removeExtension(glb.json, "extensionsUsed");
+    removeExtension(glb.json, "extensionsRequired");
+    glb.prune();
+  }
+
+  /** Decodes octahedral (u, v) pairs in [-1, 1] to unit vectors. */
+  public static float[] decodeOctahedral(float[] encoded) {
+    float[] normals = new float[encoded.length / 2 * 3];
+    for (int i = 0; i < encoded.length / 2; i++) {
+      float x = encoded[i * 2];
+      float y = encoded[i * 2 + 1];
+      float z = 1f - Math.abs(x) - Math.abs(y);
+      // Folds the lower hemisphere back from the corners of the square.
+      float fold = Math.max(-z, 0f);
+      x += x >= 0 ? -fold : fold;
+      y += y >= 0 ? -fold : fold;
+      float length = (float) Math.sqrt(x * x + y * y + z * z);
+      normals[i * 3] = x / length;
+      normals[i * 3 + 1] = y / length;
+      normals[i * 3 + 2] = z / length;
+    }
+    return normals;
+  }
+
+  private static float[] readVector(JsonObject node, String name, float[] fallback) {
+    if (!node.has(name)) {
+      return fallback;
+    }
+    JsonArray array = node.getAsJsonArray(name);
+    return new float[] {
+      array.get(0).getAsFloat(), array.get(1).getAsFloat(), array.get(2).getAsFloat()
+    };
+  }
+
+  private static void removeExtension(JsonObject gltf, String listName) {
+    if (!gltf.has(listName)) {
+      return;
+    }
+    JsonArray kept = new JsonArray();
+    for (JsonElement extension : gltf.getAsJsonArray(listName)) {
+      String name = extension.getAsString();
+      if (!name.equals(MESH_QUANTIZATION) && !name.equals(OCTAHEDRAL_NORMALS)) {
+        kept.add(extension);
+      }
+    }
+    if (kept.size() > 0) {
+      gltf.add(listName, kept);
+    } else {
+      gltf.remove(listName);
+    }
+  }
+}
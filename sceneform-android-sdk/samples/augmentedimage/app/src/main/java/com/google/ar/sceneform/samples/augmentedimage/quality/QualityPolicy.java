@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.quality;
+
+import java.util.Arrays;
+
+/**
+ * Chooses a rendering quality level from recent frame times.
+ *
+ * <p>The policy keeps the times of the last {@link #WINDOW_FRAMES} frames. Once a full window has
+ * been seen at the current level, quality steps down a level when the window's {@link
+ * #PERCENTILE} frame time misses the budget. Quality steps back up once that percentile has stayed
+ * under {@link #HEADROOM} of the budget for a while. A step up that misses the budget again soon
+ * after doubles the wait before the next step up, so quality does not swing between two levels.
+ *
+ * <p>Pure Java, so it runs the same on the device and in the tools' trace replays. Not thread safe.
+ */
+public final class QualityPolicy {
+
+  /** Quality levels, best first. Each level keeps the cuts of the levels before it. */
+  public enum Level {
+    /** Everything as authored. */
+    FULL,
+    /** Models show one level of detail coarser than their screen size calls for. */
+    COARSER_DETAIL,
+    /** Heavy models neither cast nor receive shadows. */
+    NO_HEAVY_SHADOWS,
+    /** Model animations are paused. */
+    PAUSED_ANIMATIONS,
+    /** Only the nearest few images in view are drawn. */
+    CAPPED_IMAGES
+  }
+
+  // Frames whose times are kept.
+  static final int WINDOW_FRAMES = 60;
+
+  // Share of frames that must meet the budget.
+  static final float PERCENTILE = 0.9f;
+
+  // Share of the budget the percentile must stay under before quality steps up.
+  static final float HEADROOM = 0.75f;
+
+  // Frames of headroom before the first step up, and the most a reverted step up can wait.
+  static final int STEP_UP_FRAMES = 180;
+  static final int MAX_STEP_UP_FRAMES = 8 * STEP_UP_FRAMES;
+
+  // A frame this long is a pause, such as the app in the background, not a slow frame.
+  private static final long PAUSE_NANOS = 1000000000L;
+
+  private static final Level[] LEVELS = Level.values();
+
+  private final long budgetNanos;
+  private final long[] window = new long[WINDOW_FRAMES];
+  private final long[] sorted = new long[WINDOW_FRAMES];
+  // Frames in the window since the level last changed, up to WINDOW_FRAMES.
+  private int count;
+  private int next;
+  private Level level = Level.FULL;
+  private long percentileNanos;
+  private int headroomFrames;
+  private int stepUpFrames = STEP_UP_FRAMES;
+  // Frames since the last step up, or -1 once it has held for two windows.
+  private int sinceStepUp = -1;
+
+  /** @param budgetNanos frame time that {@link #PERCENTILE} of frames must meet */
+  public QualityPolicy(long budgetNanos) {
+    this.budgetNanos = budgetNanos;
+  }
+
+  public Level getLevel() {
+    return level;
+  }
+
+  /** Returns the {@link #PERCENTILE} frame time of the last full window, or 0 before the first. */
+  public long getPercentileNanos() {
+    return percentileNanos;
+  }
+
+  /**
+   * Records the time of one frame.
+   *
+   * @return true if the level changed
+   */
+  public boolean onFrame(long frameNanos) {
+    if (frameNanos <= 0 || frameNanos >= PAUSE_NANOS) {
+      return false;
+    }
+    window[next] = frameNanos;
+    next = (next + 1) % WINDOW_FRAMES;
+    if (sinceStepUp >= 0 && ++sinceStepUp > 2 * WINDOW_FRAMES) {
+      // The last step up held.
+      sinceStepUp = -1;
+      stepUpFrames = STEP_UP_FRAMES;
+    }
+    if (count < WINDOW_FRAMES) {
+      count++;
+      if (count < WINDOW_FRAMES) {
+        return false;
+      }
+    }
+
+    System.arraycopy(window, 0, sorted, 0, WINDOW_FRAMES);
+    Arrays.sort(sorted);
+    percentileNanos = sorted[(int) (PERCENTILE * (WINDOW_FRAMES - 1))];
+
+    if (percentileNanos > budgetNanos) {
+      headroomFrames = 0;
+      if (level.ordinal() == LEVELS.length - 1) {
+        return false;
+      }
+      if (sinceStepUp >= 0) {
+        // The last step up did not hold.
+        stepUpFrames = Math.min(2 * stepUpFrames, MAX_STEP_UP_FRAMES);
+        sinceStepUp = -1;
+      }
+      moveTo(LEVELS[level.ordinal() + 1]);
+      return true;
+    }
+    if (percentileNanos < HEADROOM * budgetNanos && level != Level.FULL) {
+      if (++headroomFrames >= stepUpFrames) {
+        headroomFrames = 0;
+        sinceStepUp = 0;
+        moveTo(LEVELS[level.ordinal() - 1]);
+        return true;
+      }
+    } else {
+      headroomFrames = 0;
+    }
+    return false;
+  }
+
+  private void moveTo(Level level) {
+    this.level = level;
+    // Frames from before the change say little about the new level.
+    count = 0;
+  }
+
+  @Override
+  public String toString() {
+    return level + ", p" + (int) (PERCENTILE * 100) + " " + percentileNanos / 1000000 + "ms";
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.tracking;
+
+import com.google.ar.sceneform.samples.augmentedimage.tracking.TraceFrame.TrackingState;
+import java.util.Collection;
+
+/**
+ * Decides, once per camera frame, what happens to the augmented images ARCore updated in it.
+ *
+ * <p>First, images out of view move on through their lifecycle; while the app is idle this is
+ * done at most every {@code idleUpdateMillis}. Then, if the camera is tracking, each updated image
+ * is handled by its tracking state: a paused image has been detected but not tracked yet, a
+ * tracking image gets a node unless it already has one, and a stopped image is evicted. ARCore
+ * reports a tracked image on every frame while it is in view, so only the first report adds a
+ * node.
+ *
+ * <p>A {@link Target} carries the decisions out. Pure Java, so the app and the desktop tools
+ * handle frames with the same code. Not thread safe.
+ *
+ * @param <T> the image type, e.g. ARCore's {@code AugmentedImage}
+ */
+public final class FrameDispatcher<T> {
+
+  /** Applies the decisions to the scene. */
+  public interface Target<T> {
+    /** Returns ARCore's tracking state of an updated image. */
+    TrackingState stateOf(T image);
+
+    /** Moves images that have been out of view long enough on to their next state. */
+    void update(long now);
+
+    /** Records an image that has been detected but is not tracked yet. */
+    void detected(T image, long now);
+
+    /**
+     * Records a report of a tracked image.
+     *
+     * @return false if the image has no node yet
+     */
+    boolean tracked(T image, long now);
+
+    /** Adds a node for a tracked image that has none. */
+    void add(T image, long now);
+
+    /** Evicts an image ARCore will not track again. */
+    void stopped(T image);
+  }
+
+  private final Target<T> target;
+  private final long idleUpdateMillis;
+  private long lastUpdateMillis;
+
+  public FrameDispatcher(Target<T> target, long idleUpdateMillis) {
+    this.target = target;
+    this.idleUpdateMillis = idleUpdateMillis;
+  }
+
+  /**
+   * Handles one frame.
+   *
+   * @param now the time of the frame in milliseconds
+   * @param idle whether no one seems to be using the app, so out of view images can wait
+   * @param cameraState ARCore's tracking state of the camera
+   * @param updated the images ARCore updated in the frame
+   */
+  public void onFrame(long now, boolean idle, TrackingState cameraState, Collection<T> updated) {
+    if (!idle || now - lastUpdateMillis >= idleUpdateMillis) {
+      lastUpdateMillis = now;
+      target.update(now);
+    }
+    if (cameraState != TrackingState.TRACKING) {
+      return;
+    }
+    for (T image : updated) {
+      switch (target.stateOf(image)) {
+        case PAUSED:
+          target.detected(image, now);
+          break;
+        case TRACKING:
+          if (!target.tracked(image, now)) {
+            target.add(image, now);
+          }
+          break;
+        case STOPPED:
+          target.stopped(image);
+          break;
+      }
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.tracking;
+
+import java.util.Arrays;
+
+/**
+ * One node per augmented image, in an array indexed by the image's position in the image
+ * database, {@code AugmentedImage.getIndex()}.
+ *
+ * <p>Those indices run from 0 to the size of the database, so a lookup is one array read, with no
+ * hashing of the image and no boxing. Not thread safe.
+ */
+public final class ImageNodeRegistry<N> {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private Object[] nodes = new Object[INITIAL_CAPACITY];
+  private int size;
+
+  /** Returns the node of the image at {@code index}, or null if it has none. */
+  @SuppressWarnings("unchecked")
+  public N get(int index) {
+    return index < nodes.length ? (N) nodes[index] : null;
+  }
+
+  /** Sets the node of the image at {@code index}, returning the node it replaces, if any. */
+  public N put(int index, N node) {
+    if (index < 0) {
+      throw new IndexOutOfBoundsException("Image index " + index);
+    }
+    if (index >= nodes.length) {
+      nodes = Arrays.copyOf(nodes, Math.max(index + 1, nodes.length * 2));
+    }
+    N previous = get(index);
+    nodes[index] = node;
+    if (previous == null && node != null) {
+      size++;
+    } else if (previous != null && node == null) {
+      size--;
+    }
+    return previous;
+  }
+
+  /** Removes the node of the image at {@code index} and returns it, or null if it had none. */
+  public N remove(int index) {
+    return index < nodes.length ? put(index, null) : null;
+  }
+
+  /** Returns an index past every node, so {@code get(i)} for lower {@code i} finds them all. */
+  public int indexLimit() {
+    return nodes.length;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+}
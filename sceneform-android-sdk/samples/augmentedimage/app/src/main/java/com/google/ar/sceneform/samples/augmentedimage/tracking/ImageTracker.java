@@ -0,0 +1,215 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.tracking;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Moves each augmented image, by its index in the image database, through detected, tracking,
+ * last known pose, lost and evicted.
+ *
+ * <ul>
+ *   <li>{@link State#DETECTED}: seen by ARCore, but not tracked yet, so it has no node.
+ *   <li>{@link State#TRACKING}: reported by ARCore within {@link #OUT_OF_VIEW_MILLIS}; its node is
+ *       shown.
+ *   <li>{@link State#LAST_KNOWN_POSE}: out of view; its node is hidden but keeps its anchor.
+ *   <li>{@link State#LOST}: out of view for {@link #DETACH_MILLIS}; its anchor is detached, so
+ *       ARCore stops updating it, but its node keeps its models. The most recently lost images are
+ *       kept this way, up to {@link #MAX_LOST_IMAGES}, and are shown again at once with a new
+ *       anchor when tracked again.
+ *   <li>{@link State#EVICTED}: out of view for {@link #RELEASE_MILLIS}, pushed out of the lost
+ *       images, or stopped by ARCore. Its node is removed and its models are released; tracking it
+ *       again builds a new node.
+ * </ul>
+ *
+ * <p>ARCore 1.10 keeps an image that left the camera view in {@code TRACKING}, so an image counts
+ * as out of view once it has not been among a frame's updated trackables for a while.
+ *
+ * <p>Only the states are kept here; a {@link Listener} applies them to nodes and anchors. Pure
+ * Java, so recorded sessions can be replayed through it on a desktop JVM. Not thread safe.
+ */
+public final class ImageTracker {
+
+  // An image not reported as updated for this long is hidden.
+  public static final long OUT_OF_VIEW_MILLIS = 1000;
+  // A hidden image's anchor is detached after this long out of view.
+  public static final long DETACH_MILLIS = 10000;
+  // A lost image's node and models are released after this long out of view.
+  public static final long RELEASE_MILLIS = 120000;
+  // Lost images kept ready to be shown again at once.
+  public static final int MAX_LOST_IMAGES = 4;
+
+  public enum State {
+    DETECTED,
+    TRACKING,
+    LAST_KNOWN_POSE,
+    LOST,
+    EVICTED
+  }
+
+  /** Applies state changes to the scene. */
+  public interface Listener {
+    /** Called after the image at {@code index} moves from {@code from} to {@code to}. */
+    void onStateChanged(int index, State from, State to);
+
+    /** Called by {@link #update} for each image in {@link State#TRACKING}. */
+    void onTracking(int index);
+  }
+
+  /** An image that has been detected and not evicted. */
+  private static final class Tracked {
+    State state = State.DETECTED;
+    boolean hasNode;
+    // When ARCore last reported the image as tracking, in milliseconds.
+    long lastTracked;
+  }
+
+  private final Listener listener;
+  private final ImageNodeRegistry<Tracked> images = new ImageNodeRegistry<>();
+  // Indices of LOST images, least recently lost first.
+  private final Deque<Integer> lost = new ArrayDeque<>();
+  private int nodeCount;
+
+  public ImageTracker(Listener listener) {
+    this.listener = listener;
+  }
+
+  /** Whether no image has a node. */
+  public boolean isEmpty() {
+    return nodeCount == 0;
+  }
+
+  /** Returns the number of images with a node. */
+  public int getNodeCount() {
+    return nodeCount;
+  }
+
+  /** Returns the state of the image at {@code index}; EVICTED if it has none. */
+  public State stateOf(int index) {
+    Tracked tracked = images.get(index);
+    return tracked != null ? tracked.state : State.EVICTED;
+  }
+
+  /** Records an image ARCore reports as detected but not yet tracked. */
+  public void detected(int index) {
+    if (images.get(index) == null) {
+      images.put(index, new Tracked());
+    }
+  }
+
+  /**
+   * Records an image ARCore reports as tracking and shows it again if it was hidden or lost.
+   *
+   * @return false if the image has no node yet and one should be added with {@link #add}
+   */
+  public boolean tracked(int index, long now) {
+    Tracked tracked = images.get(index);
+    if (tracked == null || !tracked.hasNode) {
+      return false;
+    }
+    tracked.lastTracked = now;
+    switch (tracked.state) {
+      case LAST_KNOWN_POSE:
+        moveTo(index, tracked, State.TRACKING);
+        break;
+      case LOST:
+        lost.remove(index);
+        moveTo(index, tracked, State.TRACKING);
+        break;
+      default:
+        break;
+    }
+    return true;
+  }
+
+  /** Records that a node was added for a newly tracked image. */
+  public void add(int index, long now) {
+    Tracked tracked = images.get(index);
+    if (tracked == null) {
+      tracked = new Tracked();
+      images.put(index, tracked);
+    }
+    tracked.hasNode = true;
+    tracked.lastTracked = now;
+    nodeCount++;
+    moveTo(index, tracked, State.TRACKING);
+  }
+
+  /** Evicts an image ARCore will not track again. */
+  public void stopped(int index) {
+    Tracked tracked = images.get(index);
+    if (tracked != null) {
+      evict(index, tracked);
+    }
+  }
+
+  /** Moves images that have been out of view long enough on to their next state. */
+  public void update(long now) {
+    if (images.isEmpty()) {
+      return;
+    }
+    for (int index = 0; index < images.indexLimit(); index++) {
+      Tracked tracked = images.get(index);
+      if (tracked == null || !tracked.hasNode) {
+        continue;
+      }
+      long outOfView = now - tracked.lastTracked;
+      switch (tracked.state) {
+        case TRACKING:
+          if (outOfView > OUT_OF_VIEW_MILLIS) {
+            moveTo(index, tracked, State.LAST_KNOWN_POSE);
+          } else {
+            listener.onTracking(index);
+          }
+          break;
+        case LAST_KNOWN_POSE:
+          if (outOfView > DETACH_MILLIS) {
+            moveTo(index, tracked, State.LOST);
+            lost.addLast(index);
+            if (lost.size() > MAX_LOST_IMAGES) {
+              int oldest = lost.peekFirst();
+              evict(oldest, images.get(oldest));
+            }
+          }
+          break;
+        case LOST:
+          if (outOfView > RELEASE_MILLIS) {
+            evict(index, tracked);
+          }
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  private void evict(int index, Tracked tracked) {
+    images.remove(index);
+    lost.remove(index);
+    if (tracked.hasNode) {
+      nodeCount--;
+    }
+    moveTo(index, tracked, State.EVICTED);
+  }
+
+  private void moveTo(int index, Tracked tracked, State state) {
+    State from = tracked.state;
+    tracked.state = state;
+    listener.onStateChanged(index, from, state);
+  }
+}
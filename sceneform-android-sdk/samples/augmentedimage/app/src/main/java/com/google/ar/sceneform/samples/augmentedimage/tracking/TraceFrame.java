@@ -0,0 +1,108 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.tracking;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One recorded ARCore frame: the camera's tracking state and the augmented images the frame
+ * updated, as written by {@link TraceWriter} and read by {@link TraceReader}.
+ */
+public final class TraceFrame {
+
+  /** ARCore's {@code TrackingState}, by the same names. */
+  public enum TrackingState {
+    TRACKING,
+    PAUSED,
+    STOPPED
+  }
+
+  /** One updated augmented image. */
+  public static final class Image {
+    private final int index;
+    private final String name;
+    private final TrackingState state;
+    private final float[] pose;
+    private final float extentX;
+    private final float extentZ;
+
+    /**
+     * @param pose the center pose: translation x, y, z then rotation quaternion x, y, z, w
+     */
+    public Image(
+        int index, String name, TrackingState state, float[] pose, float extentX, float extentZ) {
+      if (pose.length != 7) {
+        throw new IllegalArgumentException("Pose of " + pose.length + " values");
+      }
+      this.index = index;
+      this.name = name;
+      this.state = state;
+      this.pose = pose;
+      this.extentX = extentX;
+      this.extentZ = extentZ;
+    }
+
+    public int getIndex() {
+      return index;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public TrackingState getState() {
+      return state;
+    }
+
+    /** Returns the center pose: translation x, y, z then rotation quaternion x, y, z, w. */
+    public float[] getPose() {
+      return pose.clone();
+    }
+
+    public float getExtentX() {
+      return extentX;
+    }
+
+    public float getExtentZ() {
+      return extentZ;
+    }
+  }
+
+  private final long timestampNanos;
+  private final TrackingState cameraState;
+  private final List<Image> images;
+
+  public TraceFrame(long timestampNanos, TrackingState cameraState, List<Image> images) {
+    this.timestampNanos = timestampNanos;
+    this.cameraState = cameraState;
+    this.images = Collections.unmodifiableList(images);
+  }
+
+  /** Returns ARCore's timestamp of the camera image, {@code Frame.getTimestamp()}. */
+  public long getTimestampNanos() {
+    return timestampNanos;
+  }
+
+  public TrackingState getCameraState() {
+    return cameraState;
+  }
+
+  public List<Image> getImages() {
+    return images;
+  }
+}
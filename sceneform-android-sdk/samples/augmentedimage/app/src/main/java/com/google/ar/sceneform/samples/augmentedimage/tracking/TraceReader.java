@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.tracking;
+
+import com.google.ar.sceneform.samples.augmentedimage.tracking.TraceFrame.TrackingState;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Reads the frames of a trace written by {@link TraceWriter}. Not thread safe. */
+public final class TraceReader {
+
+  private static final TrackingState[] STATES = TrackingState.values();
+
+  private final DataInputStream in;
+  private final ImageNodeRegistry<String> names = new ImageNodeRegistry<>();
+  private long lastTimestamp;
+
+  /** Reads and checks the trace header from {@code in}. */
+  public TraceReader(InputStream in) throws IOException {
+    this.in = new DataInputStream(in);
+    if (this.in.readInt() != TraceWriter.MAGIC) {
+      throw new IOException("Not a trackable trace");
+    }
+    int version = this.in.readUnsignedByte();
+    if (version != TraceWriter.VERSION) {
+      throw new IOException("Unsupported trace version " + version);
+    }
+  }
+
+  /** Returns the next frame, or null at the end of the trace. */
+  public TraceFrame next() throws IOException {
+    int first = in.read();
+    if (first < 0) {
+      return null;
+    }
+    try {
+      long timestamp = lastTimestamp + unZigZag(readVarLong(first));
+      lastTimestamp = timestamp;
+      TrackingState cameraState = stateOf(in.readUnsignedByte());
+      int count = (int) readVarLong(in.readUnsignedByte());
+      List<TraceFrame.Image> images = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        int index = (int) readVarLong(in.readUnsignedByte());
+        int state = in.readUnsignedByte();
+        if ((state & TraceWriter.NAME_FOLLOWS) != 0) {
+          names.put(index, in.readUTF());
+        }
+        String name = names.get(index);
+        if (name == null) {
+          throw new IOException("Image " + index + " has no name");
+        }
+        float[] pose = new float[7];
+        for (int j = 0; j < 7; j++) {
+          pose[j] = in.readFloat();
+        }
+        images.add(
+            new TraceFrame.Image(
+                index,
+                name,
+                stateOf(state & ~TraceWriter.NAME_FOLLOWS),
+                pose,
+                in.readFloat(),
+                in.readFloat()));
+      }
+      return new TraceFrame(timestamp, cameraState, images);
+    } catch (EOFException e) {
+      throw new IOException("Trace ends within a frame", e);
+    }
+  }
+
+  private static TrackingState stateOf(int ordinal) throws IOException {
+    if (ordinal >= STATES.length) {
+      throw new IOException("Unknown tracking state " + ordinal);
+    }
+    return STATES[ordinal];
+  }
+
+  private static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  /** Reads a variable-length value whose first byte has been read already. */
+  private long readVarLong(int first) throws IOException {
+    long value = first & 0x7F;
+    int shift = 7;
+    for (int b = first; (b & 0x80) != 0; shift += 7) {
+      if (shift > 63) {
+        throw new IOException("Malformed trace");
+      }
+      b = in.readUnsignedByte();
+      value |= (long) (b & 0x7F) << shift;
+    }
+    return value;
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.tracking;
+
+import com.google.ar.sceneform.samples.augmentedimage.tracking.TraceFrame.TrackingState;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes ARCore frames to a compact binary trace, for {@link TraceReader}.
+ *
+ * <p>The trace starts with {@link #MAGIC} and {@link #VERSION}. Each frame is then written as
+ * its timestamp, as a variable-length delta from the previous frame's, the camera's tracking
+ * state, and the number of images it updated. Each image is its database index, its tracking
+ * state, its name the first time the index appears, its center pose as seven floats and its two
+ * extents. A frame with one image takes about 45 bytes.
+ *
+ * <p>Frames are written whole, so a trace cut at a frame boundary is still readable. Not thread
+ * safe.
+ */
+public final class TraceWriter {
+
+  /** "ARTR". */
+  public static final int MAGIC = 0x41525452;
+
+  public static final int VERSION = 1;
+
+  // Set on an image's state when its name follows.
+  static final int NAME_FOLLOWS = 0x80;
+
+  private final DataOutputStream out;
+  private final ImageNodeRegistry<String> names = new ImageNodeRegistry<>();
+  private long lastTimestamp;
+  private int imagesLeft;
+
+  /** Writes the trace header to {@code out}. */
+  public TraceWriter(OutputStream out) throws IOException {
+    this.out = new DataOutputStream(out);
+    this.out.writeInt(MAGIC);
+    this.out.writeByte(VERSION);
+  }
+
+  /** Starts a frame, to be followed by {@code imageCount} calls to {@link #image}. */
+  public void beginFrame(long timestampNanos, TrackingState cameraState, int imageCount)
+      throws IOException {
+    if (imagesLeft != 0) {
+      throw new IllegalStateException(imagesLeft + " images of the last frame are missing");
+    }
+    writeVarLong(zigZag(timestampNanos - lastTimestamp));
+    lastTimestamp = timestampNanos;
+    out.writeByte(cameraState.ordinal());
+    writeVarLong(imageCount);
+    imagesLeft = imageCount;
+  }
+
+  /**
+   * Writes one image of the current frame.
+   *
+   * @param pose the center pose: translation x, y, z then rotation quaternion x, y, z, w
+   */
+  public void image(
+      int index, String name, TrackingState state, float[] pose, float extentX, float extentZ)
+      throws IOException {
+    if (imagesLeft == 0) {
+      throw new IllegalStateException("More images than the frame's count");
+    }
+    imagesLeft--;
+    writeVarLong(index);
+    boolean newName = !name.equals(names.get(index));
+    out.writeByte(state.ordinal() | (newName ? NAME_FOLLOWS : 0));
+    if (newName) {
+      out.writeUTF(name);
+      names.put(index, name);
+    }
+    for (int i = 0; i < 7; i++) {
+      out.writeFloat(pose[i]);
+    }
+    out.writeFloat(extentX);
+    out.writeFloat(extentZ);
+  }
+
+  /** Writes a whole frame. */
+  public void write(TraceFrame frame) throws IOException {
+    beginFrame(frame.getTimestampNanos(), frame.getCameraState(), frame.getImages().size());
+    for (TraceFrame.Image image : frame.getImages()) {
+      image(
+          image.getIndex(),
+          image.getName(),
+          image.getState(),
+          image.getPose(),
+          image.getExtentX(),
+          image.getExtentZ());
+    }
+  }
+
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  private static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private void writeVarLong(long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+}
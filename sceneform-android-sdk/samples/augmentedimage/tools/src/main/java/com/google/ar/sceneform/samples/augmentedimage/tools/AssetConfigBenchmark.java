@@ -0,0 +1,176 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.tools;
+
+import com.google.ar.sceneform.samples.augmentedimage.assets.AssetConfig;
+import com.google.ar.sceneform.samples.augmentedimage.assets.ImageAssetGroup;
+import com.google.ar.sceneform.samples.augmentedimage.assets.ModelAsset;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Microbenchmark of the typed {@link AssetConfig} against the Gson {@code Map<String, Object>}
+ * path it replaced, on a generated configuration with 1,000 images of two models each.
+ *
+ * <p>Each operation parses the configuration and then reads the transform of every model once,
+ * the way the node does when placing models. Reports time and heap allocation per operation.
+ *
+ * <p>Usage: {@code ./gradlew :tools:benchmarkAssetConfig}
+ */
+public final class AssetConfigBenchmark {
+
+  private static final int IMAGES = 1000;
+  private static final int WARMUP_ITERATIONS = 50;
+  private static final int MEASURED_ITERATIONS = 200;
+
+  // Keeps results live so the JIT cannot drop the work.
+  private static float sink;
+
+  private AssetConfigBenchmark() {}
+
+  public static void main(String[] args) throws Exception {
+    String json = generateConfig(IMAGES);
+    System.out.printf("Config: %d images, %d bytes%n", IMAGES, json.length());
+
+    Operation mapPath = AssetConfigBenchmark::mapPath;
+    Operation typedPath = AssetConfigBenchmark::typedPath;
+
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      mapPath.run(json);
+      typedPath.run(json);
+    }
+    report("Gson Map<String, Object>", mapPath, json);
+    report("AssetConfig JsonReader", typedPath, json);
+    System.out.println("sink=" + sink);
+  }
+
+  private interface Operation {
+    void run(String json) throws Exception;
+  }
+
+  private static void report(String label, Operation operation, String json) throws Exception {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+    long thread = Thread.currentThread().getId();
+
+    long bytesBefore = allocations.getThreadAllocatedBytes(thread);
+    long start = System.nanoTime();
+    for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+      operation.run(json);
+    }
+    long nanos = System.nanoTime() - start;
+    long bytes = allocations.getThreadAllocatedBytes(thread) - bytesBefore;
+
+    System.out.printf(
+        "%-26s %9.3f ms/op %12d bytes/op%n",
+        label, nanos / 1e6 / MEASURED_ITERATIONS, bytes / MEASURED_ITERATIONS);
+  }
+
+  /** Mirrors the former parsing in AugmentedImageNode, including its casts and boxing. */
+  @SuppressWarnings("unchecked")
+  private static void mapPath(String json) {
+    Type type = new TypeToken<Map<String, Object>>() {}.getType();
+    Map<String, Object> jsonContent = new Gson().fromJson(json, type);
+    Map<String, Object> assets = (Map<String, Object>) jsonContent.get("assets");
+
+    for (Map.Entry<String, Object> entry : assets.entrySet()) {
+      Map<String, Object> asset = (Map<String, Object>) entry.getValue();
+      for (Map.Entry<String, Object> modelEntry : asset.entrySet()) {
+        Map<String, Object> modelAsset = (Map<String, Object>) modelEntry.getValue();
+
+        Double scale =
+            modelAsset.containsKey("scale")
+                ? (Double) modelAsset.get("scale")
+                : Double.valueOf(1.0);
+        List<Double> position =
+            modelAsset.containsKey("position")
+                ? (List<Double>) modelAsset.get("position")
+                : Arrays.asList(0.0, 0.0, 0.0);
+        List<Double> rotation =
+            modelAsset.containsKey("rotation")
+                ? (List<Double>) modelAsset.get("rotation")
+                : Arrays.asList(0.0, 0.0, 0.0, 0.0);
+
+        Float x = position.get(0).floatValue();
+        Float y = position.get(1).floatValue();
+        Float z = position.get(2).floatValue();
+        Float rX = rotation.get(0).floatValue();
+        Float rY = rotation.get(1).floatValue();
+        Float rZ = rotation.get(2).floatValue();
+        Float rW = rotation.get(3).floatValue();
+        Float s = scale.floatValue();
+
+        Float[] quaternion = axisAngle(rX, rY, rZ, rW);
+        sink += x + y + z + s + quaternion[0] + quaternion[1] + quaternion[2] + quaternion[3];
+      }
+    }
+  }
+
+  private static void typedPath(String json) throws Exception {
+    AssetConfig config = AssetConfig.parse(json);
+    for (ImageAssetGroup group : config.getGroups()) {
+      for (ModelAsset model : group.getModels()) {
+        sink +=
+            model.getPositionX()
+                + model.getPositionY()
+                + model.getPositionZ()
+                + model.getScale()
+                + model.getRotationX()
+                + model.getRotationY()
+                + model.getRotationZ()
+                + model.getRotationW();
+      }
+    }
+  }
+
+  /**
+   * The axis-angle conversion the node used to redo for every placement, boxed as it was. Does the
+   * same work as {@code ModelAsset.axisAngle}.
+   */
+  private static Float[] axisAngle(Float x, Float y, Float z, Float degrees) {
+    Float length = (float) Math.sqrt(x * x + y * y + z * z);
+    if (length == 0) {
+      return new Float[] {0f, 0f, 0f, 1f};
+    }
+    Float halfAngle = (float) Math.toRadians(degrees) * 0.5f;
+    Float sin = (float) Math.sin(halfAngle) / length;
+    return new Float[] {x * sin, y * sin, z * sin, (float) Math.cos(halfAngle)};
+  }
+
+  private static String generateConfig(int images) {
+    StringBuilder json = new StringBuilder("{\"assets\": {");
+    for (int i = 0; i < images; i++) {
+      if (i > 0) {
+        json.append(',');
+      }
+      json.append("\"Image ").append(i).append("\": {")
+          .append("\"cell\": {\"url\": \"https://storage.googleapis.com/arbio/cell_")
+          .append(i).append(".gltf\", \"scale\": 0.5, \"position\": [0.0, -1.0, ")
+          .append(i % 7).append(".25]},")
+          .append("\"protein\": {\"url\": \"https://storage.googleapis.com/arbio/protein_")
+          .append(i).append(".sfb\", \"rotation\": [1.0, 0.5, -0.8, 270.0]}")
+          .append('}');
+    }
+    return json.append("}}").toString();
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.tools;
+
+import com.google.ar.sceneform.samples.augmentedimage.assets.DownloadEngine;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Soak test of {@link DownloadEngine} against a local stand-in for the model host.
+ *
+ * <p>The server throttles every connection and drops a share of responses part way through the
+ * body. It honors {@code Range} and {@code If-Range} the way Cloud Storage does. All files are
+ * downloaded at once; the run fails unless every file arrives intact and no more connections
+ * than the per-host limit were ever open at the same time.
+ *
+ * <p>Usage: {@code ./gradlew :tools:soakDownloadEngine}
+ */
+public final class DownloadSoak {
+
+  private static final int FILES = 24;
+  private static final int FILE_BYTES = 1024 * 1024;
+  private static final String ETAG = "\"v1\"";
+
+  private static final double DROP_RATE = 0.3;
+  private static final int BYTES_PER_SECOND_PER_CONNECTION = 2 * 1024 * 1024;
+  private static final int SERVER_CHUNK_BYTES = 16 * 1024;
+
+  private static final int ENGINE_THREADS = 8;
+  private static final int MAX_CONNECTIONS_PER_HOST = 3;
+
+  private static final AtomicInteger openConnections = new AtomicInteger();
+  private static final AtomicInteger maxOpenConnections = new AtomicInteger();
+  private static final AtomicInteger drops = new AtomicInteger();
+  private static final AtomicInteger rangeRequests = new AtomicInteger();
+
+  private DownloadSoak() {}
+
+  public static void main(String[] args) throws Exception {
+    List<byte[]> files = new ArrayList<>();
+    Random random = new Random(42);
+    for (int i = 0; i < FILES; i++) {
+      byte[] content = new byte[FILE_BYTES];
+      random.nextBytes(content);
+      files.add(content);
+    }
+
+    HttpServer server =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    ExecutorService serverThreads = Executors.newCachedThreadPool();
+    server.setExecutor(serverThreads);
+    server.createContext("/", exchange -> serve(exchange, files));
+    server.start();
+    String base = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+
+    File directory = new File(System.getProperty("java.io.tmpdir"), "download-soak");
+    directory.mkdirs();
+    DownloadEngine engine = new DownloadEngine(ENGINE_THREADS, MAX_CONNECTIONS_PER_HOST);
+
+    int failures = 0;
+    long start = System.nanoTime();
+    try {
+      List<Future<DownloadEngine.Result>> downloads = new ArrayList<>();
+      for (int i = 0; i < FILES; i++) {
+        downloads.add(
+            engine.submit(
+                base + i,
+                new File(directory, i + ".bin"),
+                Collections.<String, String>emptyMap(),
+                DownloadEngine.UNTHROTTLED));
+      }
+      int attempts = 0;
+      for (int i = 0; i < FILES; i++) {
+        try {
+          DownloadEngine.Result result = downloads.get(i).get();
+          attempts += result.getAttempts();
+          if (!Arrays.equals(digest(new File(directory, i + ".bin")), digest(files.get(i)))) {
+            System.out.println("File " + i + " is corrupt");
+            failures++;
+          }
+        } catch (Exception e) {
+          System.out.println("File " + i + " failed: " + e.getCause());
+          failures++;
+        }
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+
+      System.out.printf("Files: %d x %d bytes in %.1f s%n", FILES, FILE_BYTES, seconds);
+      System.out.printf(
+          "Drops injected: %d, range requests: %d, attempts: %d%n",
+          drops.get(), rangeRequests.get(), attempts);
+      System.out.println("Engine: " + engine);
+      System.out.printf(
+          "Max open connections: %d (limit %d)%n",
+          maxOpenConnections.get(), MAX_CONNECTIONS_PER_HOST);
+      if (maxOpenConnections.get() > MAX_CONNECTIONS_PER_HOST) {
+        System.out.println("Per-host limit exceeded");
+        failures++;
+      }
+    } finally {
+      server.stop(0);
+      serverThreads.shutdownNow();
+    }
+    System.out.println(failures == 0 ? "PASS" : "FAIL: " + failures);
+    System.exit(failures == 0 ? 0 : 1);
+  }
+
+  private static void serve(HttpExchange exchange, List<byte[]> files) throws IOException {
+    int open = openConnections.incrementAndGet();
+    maxOpenConnections.accumulateAndGet(open, Math::max);
+    try {
+      String path = exchange.getRequestURI().getPath();
+      byte[] content = files.get(Integer.parseInt(path.substring(1)));
+      int offset = 0;
+      String range = exchange.getRequestHeaders().getFirst("Range");
+      String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+      exchange.getResponseHeaders().set("ETag", ETAG);
+      boolean sameVersion = ifRange == null || ifRange.equals(ETAG);
+      if (range != null && range.startsWith("bytes=") && sameVersion) {
+        rangeRequests.incrementAndGet();
+        offset = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+        String contentRange = offset + "-" + (content.length - 1) + "/" + content.length;
+        exchange.getResponseHeaders().set("Content-Range", "bytes " + contentRange);
+        exchange.sendResponseHeaders(206, content.length - offset);
+      } else {
+        exchange.sendResponseHeaders(200, content.length);
+      }
+
+      // Drop somewhere in the body, as a flaky access point would.
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      int end =
+          random.nextDouble() < DROP_RATE
+              ? offset + random.nextInt(content.length - offset)
+              : content.length;
+      OutputStream body = exchange.getResponseBody();
+      long nanosPerChunk = 1_000_000_000L * SERVER_CHUNK_BYTES / BYTES_PER_SECOND_PER_CONNECTION;
+      for (int position = offset; position < end; position += SERVER_CHUNK_BYTES) {
+        body.write(content, position, Math.min(SERVER_CHUNK_BYTES, end - position));
+        body.flush();
+        sleepNanos(nanosPerChunk);
+      }
+      if (end < content.length) {
+        drops.incrementAndGet();
+      }
+    } catch (IOException e) {
+      // The client went away.
+    } finally {
+      openConnections.decrementAndGet();
+      // Closing before the declared length is written aborts the connection.
+      exchange.close();
+    }
+  }
+
+  private static byte[] digest(File file) throws Exception {
+    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    try (InputStream in = new FileInputStream(file)) {
+      byte[] buffer = new byte[64 * 1024];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    return digest.digest();
+  }
+
+  private static byte[] digest(byte[] content) throws Exception {
+    return MessageDigest.getInstance("SHA-256").digest(content);
+  }
+
+  private static void sleepNanos(long nanos) {
+    try {
+      Thread.sleep(nanos / 1_000_000, (int) (nanos % 1_000_000));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.tools;
+
+import com.google.ar.sceneform.samples.augmentedimage.assets.Glb;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Packs every glTF model of an AR assets configuration into a single GLB file and points the
+ * configuration at it, so a device fetches each model in one request and caches it as one entry.
+ *
+ * <p>All buffers are merged into the GLB binary chunk, each starting on a 4-byte boundary, and
+ * external and data URI images are moved into buffer views. The GLB is written next to the glTF
+ * in a local copy of the bucket. Upload the GLB files, then run {@code writeManifest} and upload
+ * the configuration.
+ *
+ * <p>Usage: {@code ./gradlew :tools:packGlb -Pconfig=ar-assets-config.json -Proot=arbio/
+ * -PbaseUrl=https://storage.googleapis.com/arbio/}
+ */
+public final class GlbPacker {
+
+  private GlbPacker() {}
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 3) {
+      System.err.println("Usage: GlbPacker <config.json> <bucket directory> <bucket URL>");
+      System.exit(2);
+    }
+    File configFile = new File(args[0]);
+    File root = new File(args[1]);
+    String baseUrl = args[2].endsWith("/") ? args[2] : args[2] + "/";
+
+    JsonObject json = ManifestWriter.readJson(configFile);
+
+    // Models shared by several images are packed once.
+    Map<String, String> packed = new HashMap<>();
+    for (Map.Entry<String, JsonElement> group : json.getAsJsonObject("assets").entrySet()) {
+      for (Map.Entry<String, JsonElement> model : group.getValue().getAsJsonObject().entrySet()) {
+        JsonObject asset = model.getValue().getAsJsonObject();
+        String url = asset.get("url").getAsString();
+        if (!url.endsWith(".gltf")) {
+          continue;
+        }
+        if (!url.startsWith(baseUrl)) {
+          System.out.println("Skipping " + url + ", not under " + baseUrl);
+          continue;
+        }
+        String glbUrl = packed.get(url);
+        if (glbUrl == null) {
+          File gltf = ManifestWriter.localFile(root, baseUrl, url);
+          File glb = new File(gltf.getParentFile(), glbName(gltf.getName()));
+          long bytes = pack(gltf, glb);
+          glbUrl = glbName(url);
+          packed.put(url, glbUrl);
+          System.out.printf("%s: %d bytes -> %s%n", gltf, bytes, glb);
+        }
+        asset.addProperty("url", glbUrl);
+      }
+    }
+
+    ManifestWriter.writeJson(configFile, json);
+    System.out.printf(
+        "Packed %d models. Upload the GLB files, then run writeManifest.%n", packed.size());
+  }
+
+  /**
+   * Writes {@code gltfFile}, its buffers and its images to {@code glbFile}.
+   *
+   * @return the size of the GLB file
+   */
+  static long pack(File gltfFile, File glbFile) throws IOException {
+    return load(gltfFile).write(glbFile);
+  }
+
+  /** Reads a .glb file, or packs a .gltf file with its buffers and images. */
+  static Glb load(File file) throws IOException {
+    if (file.getName().endsWith(".glb")) {
+      return Glb.read(file);
+    }
+    JsonObject gltf;
+    try (Reader reader =
+        new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+      gltf = new JsonParser().parse(reader).getAsJsonObject();
+    }
+    File directory = file.getParentFile();
+    Glb glb = new Glb(gltf, new ByteArrayOutputStream());
+
+    JsonArray buffers = glb.array("buffers");
+    long[] bufferOffsets = new long[buffers.size()];
+    for (int i = 0; i < buffers.size(); i++) {
+      JsonObject buffer = buffers.get(i).getAsJsonObject();
+      if (!buffer.has("uri")) {
+        throw new IOException("Buffer " + i + " of " + file + " has no URI");
+      }
+      bufferOffsets[i] = append(glb.bin, read(directory, buffer.get("uri").getAsString()));
+    }
+
+    for (JsonElement element : glb.array("bufferViews")) {
+      JsonObject view = element.getAsJsonObject();
+      int buffer = view.get("buffer").getAsInt();
+      long offset = view.has("byteOffset") ? view.get("byteOffset").getAsLong() : 0;
+      view.addProperty("buffer", 0);
+      view.addProperty("byteOffset", bufferOffsets[buffer] + offset);
+    }
+
+    for (JsonElement element : glb.array("images")) {
+      JsonObject image = element.getAsJsonObject();
+      if (!image.has("uri")) {
+        continue;
+      }
+      String uri = image.get("uri").getAsString();
+      byte[] bytes = read(directory, uri);
+      image.remove("uri");
+      image.addProperty("bufferView", glb.addView(bytes, 0, bytes.length));
+      if (!image.has("mimeType")) {
+        image.addProperty("mimeType", mimeType(uri));
+      }
+    }
+    return glb;
+  }
+
+  /** Appends {@code bytes} on an aligned boundary and returns where they start. */
+  private static long append(ByteArrayOutputStream bin, byte[] bytes) {
+    while (bin.size() != Glb.padded(bin.size())) {
+      bin.write(0);
+    }
+    long offset = bin.size();
+    bin.write(bytes, 0, bytes.length);
+    return offset;
+  }
+
+  private static byte[] read(File directory, String uri) throws IOException {
+    if (uri.startsWith("data:")) {
+      int comma = uri.indexOf(',');
+      if (comma < 0 || !uri.substring(0, comma).endsWith(";base64")) {
+        throw new IOException("Unsupported data URI " + uri.substring(0, Math.max(comma, 0)));
+      }
+      return Base64.getDecoder().decode(uri.substring(comma + 1));
+    }
+    File file = new File(directory, ManifestWriter.toUri(uri).getPath());
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) file.length());
+    try (InputStream in = new FileInputStream(file)) {
+      byte[] buffer = new byte[64 * 1024];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        bytes.write(buffer, 0, read);
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  private static String mimeType(String uri) throws IOException {
+    if (uri.startsWith("data:")) {
+      return uri.substring("data:".length(), uri.indexOf(';'));
+    }
+    String lower = uri.toLowerCase();
+    if (lower.endsWith(".png")) {
+      return "image/png";
+    }
+    if (lower.endsWith(".jpg") || lower.endsWith(".jpeg")) {
+      return "image/jpeg";
+    }
+    throw new IOException("Unknown image type " + uri);
+  }
+
+  private static String glbName(String gltf) {
+    return gltf.substring(0, gltf.length() - ".gltf".length()) + ".glb";
+  }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.tools;
+
+import com.google.ar.sceneform.samples.augmentedimage.assets.Glb;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Generates coarser levels of detail for every glTF and GLB model of an AR assets configuration
+ * and lists them in the configuration, for the app's {@code LodNode}:
+ *
+ * <pre>
+ * "protein": {
+ *   "url": "https://storage.googleapis.com/arbio/1crn_3.glb",
+ *   "lods": [
+ *     {"url": "https://storage.googleapis.com/arbio/1crn_3_lod1.glb", "screen_size": 0.5},
+ *     {"url": "https://storage.googleapis.com/arbio/1crn_3_lod2.glb", "screen_size": 0.25},
+ *     {"url": "https://storage.googleapis.com/arbio/1crn_3_lod3.glb", "screen_size": 0.12}
+ *   ]
+ * }
+ * </pre>
+ *
+ * <p>Level {@code n} keeps about {@link #TRIANGLE_RATIOS}{@code [n - 1]} of the triangles of each
+ * mesh, simplified by {@link MeshSimplifier}, and only the vertices those triangles use. It is
+ * shown while the model covers less than {@code screen_size} of the screen height. Primitives
+ * with morph targets or sparse accessors are kept as they are. A level that would barely be
+ * smaller than the one before it ends the chain.
+ *
+ * <p>The levels are written as GLB files next to the models in a local copy of the bucket.
+ * Upload them, then run {@code writeManifest} and upload the configuration.
+ *
+ * <p>Usage: {@code ./gradlew :tools:generateLods -Pconfig=ar-assets-config.json -Proot=arbio/
+ * -PbaseUrl=https://storage.googleapis.com/arbio/}
+ */
+public final class LodGenerator {
+
+  static final float[] TRIANGLE_RATIOS = {0.5f, 0.25f, 0.1f};
+  static final float[] SCREEN_SIZES = {0.5f, 0.25f, 0.12f};
+
+  // A level must have at most this share of the previous level's triangles to be worth a file.
+  private static final float MIN_REDUCTION = 0.8f;
+
+  private static final int TRIANGLES = 4;
+
+  private LodGenerator() {}
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 3) {
+      System.err.println("Usage: LodGenerator <config.json> <bucket directory> <bucket URL>");
+      System.exit(2);
+    }
+    File configFile = new File(args[0]);
+    File root = new File(args[1]);
+    String baseUrl = args[2].endsWith("/") ? args[2] : args[2] + "/";
+    JsonObject json = ManifestWriter.readJson(configFile);
+
+    // Models shared by several images are simplified once.
+    Map<String, JsonArray> generated = new HashMap<>();
+    for (Map.Entry<String, JsonElement> group : json.getAsJsonObject("assets").entrySet()) {
+      for (Map.Entry<String, JsonElement> model : group.getValue().getAsJsonObject().entrySet()) {
+        JsonObject asset = model.getValue().getAsJsonObject();
+        String url = asset.get("url").getAsString();
+        if (!url.endsWith(".gltf") && !url.endsWith(".glb")) {
+          continue;
+        }
+        if (!url.startsWith(baseUrl)) {
+          System.out.println("Skipping " + url + ", not under " + baseUrl);
+          continue;
+        }
+        JsonArray lods = generated.get(url);
+        if (lods == null) {
+          lods = generate(ManifestWriter.localFile(root, baseUrl, url), url);
+          generated.put(url, lods);
+        }
+        if (lods.size() > 0) {
+          asset.add("lods", lods);
+        } else {
+          asset.remove("lods");
+        }
+      }
+    }
+
+    ManifestWriter.writeJson(configFile, json);
+    System.out.println("Upload the LOD files, then run writeManifest.");
+  }
+
+  /** Writes the levels of one model and returns their configuration entries. */
+  private static JsonArray generate(File model, String url) throws IOException {
+    String base = url.substring(0, url.lastIndexOf('.'));
+    String fileBase = model.getName().substring(0, model.getName().lastIndexOf('.'));
+    JsonArray lods = new JsonArray();
+    long previous = triangleCount(GlbPacker.load(model));
+    System.out.printf("%s: %d triangles%n", model, previous);
+    for (int level = 1; level <= TRIANGLE_RATIOS.length; level++) {
+      long start = System.nanoTime();
+      Glb glb = GlbPacker.load(model);
+      long triangles = simplify(glb, TRIANGLE_RATIOS[level - 1]);
+      if (triangles > previous * MIN_REDUCTION) {
+        System.out.printf("  level %d: stopped at %d triangles%n", level, triangles);
+        break;
+      }
+      File file = new File(model.getParentFile(), fileBase + "_lod" + level + ".glb");
+      long bytes = glb.write(file);
+      System.out.printf(
+          "  level %d: %d triangles, %d bytes, %d ms%n",
+          level, triangles, bytes, (System.nanoTime() - start) / 1_000_000);
+
+      JsonObject lod = new JsonObject();
+      lod.addProperty("url", base + "_lod" + level + ".glb");
+      lod.addProperty("screen_size", SCREEN_SIZES[level - 1]);
+      lods.add(lod);
+      previous = triangles;
+    }
+    return lods;
+  }
+
+  /**
+   * Simplifies every triangle mesh of {@code glb} to {@code ratio} of its triangles and drops the
+   * data no longer used.
+   *
+   * @return the number of triangles left
+   */
+  static long simplify(Glb glb, float ratio) {
+    ByteBuffer data = glb.data();
+    JsonArray accessors = glb.array("accessors");
+    long total = 0;
+    for (JsonElement mesh : glb.array("meshes")) {
+      for (JsonElement element : mesh.getAsJsonObject().getAsJsonArray("primitives")) {
+        JsonObject primitive = element.getAsJsonObject();
+        JsonObject attributes = primitive.getAsJsonObject("attributes");
+        if (!isSimplifiable(glb, primitive)) {
+          total += triangleCount(glb, primitive);
+          continue;
+        }
+        JsonObject position = glb.accessor(attributes.get("POSITION").getAsInt());
+        float[] positions = glb.readFloats(data, position);
+        int[] indices =
+            primitive.has("indices")
+                ? glb.readIndices(data, glb.accessor(primitive.get("indices").getAsInt()))
+                : sequence(positions.length / 3);
+        int target = Math.max(1, (int) (indices.length / 3 * ratio));
+        int[] simplified = MeshSimplifier.simplify(positions, indices, target);
+        total += simplified.length / 3;
+
+        // Keep only the vertices the remaining triangles use, in order of first use.
+        int[] remap = new int[positions.length / 3];
+        Arrays.fill(remap, -1);
+        int[] kept = new int[remap.length];
+        int vertexCount = 0;
+        for (int i = 0; i < simplified.length; i++) {
+          int vertex = simplified[i];
+          if (remap[vertex] < 0) {
+            kept[vertexCount] = vertex;
+            remap[vertex] = vertexCount++;
+          }
+          simplified[i] = remap[vertex];
+        }
+        kept = Arrays.copyOf(kept, vertexCount);
+
+        for (Map.Entry<String, JsonElement> attribute : attributes.entrySet()) {
+          JsonObject source = glb.accessor(attribute.getValue().getAsInt());
+          JsonObject compacted = copyElements(glb, data, source, kept);
+          if (attribute.getKey().equals("POSITION")) {
+            setBounds(compacted, positions, kept);
+          }
+          accessors.add(compacted);
+          attribute.setValue(new JsonPrimitive(accessors.size() - 1));
+        }
+        accessors.add(writeIndices(glb, simplified, vertexCount));
+        primitive.addProperty("indices", accessors.size() - 1);
+      }
+    }
+    glb.prune();
+    return total;
+  }
+
+  private static boolean isSimplifiable(Glb glb, JsonObject primitive) {
+    if (primitive.has("mode") && primitive.get("mode").getAsInt() != TRIANGLES) {
+      return false;
+    }
+    if (primitive.has("targets")) {
+      return false;
+    }
+    JsonObject attributes = primitive.getAsJsonObject("attributes");
+    if (!attributes.has("POSITION")) {
+      return false;
+    }
+    for (Map.Entry<String, JsonElement> attribute : attributes.entrySet()) {
+      JsonObject accessor = glb.accessor(attribute.getValue().getAsInt());
+      if (accessor.has("sparse") || !accessor.has("bufferView")) {
+        return false;
+      }
+    }
+    JsonObject position = glb.accessor(attributes.get("POSITION").getAsInt());
+    return position.get("componentType").getAsInt() == Glb.FLOAT;
+  }
+
+  /** Copies the elements {@code kept} of an accessor into a new, tightly packed buffer view. */
+  static JsonObject copyElements(Glb glb, ByteBuffer data, JsonObject source, int[] kept) {
+    int elementBytes = Glb.elementBytes(source);
+    // Vertex attributes start on 4-byte boundaries.
+    int stride = Glb.padded(elementBytes);
+    int start = glb.offsetOf(source);
+    int sourceStride = glb.strideOf(source);
+    byte[] bytes = new byte[kept.length * stride];
+    for (int i = 0; i < kept.length; i++) {
+      int from = start + kept[i] * sourceStride;
+      for (int b = 0; b < elementBytes; b++) {
+        bytes[i * stride + b] = data.get(from + b);
+      }
+    }
+    int view = glb.addVertexView(bytes, stride, elementBytes);
+
+    JsonObject accessor = source.deepCopy();
+    accessor.addProperty("bufferView", view);
+    accessor.remove("byteOffset");
+    accessor.addProperty("count", kept.length);
+    // Only recomputed for positions; optional elsewhere.
+    accessor.remove("min");
+    accessor.remove("max");
+    return accessor;
+  }
+
+  static JsonObject writeIndices(Glb glb, int[] indices, int vertexCount) {
+    boolean shorts = vertexCount <= 0xFFFF;
+    ByteBuffer buffer =
+        ByteBuffer.allocate(indices.length * (shorts ? 2 : 4)).order(ByteOrder.LITTLE_ENDIAN);
+    for (int index : indices) {
+      if (shorts) {
+        buffer.putShort((short) index);
+      } else {
+        buffer.putInt(index);
+      }
+    }
+    int view = glb.addView(buffer.array(), 0, buffer.capacity());
+    glb.array("bufferViews").get(view).getAsJsonObject()
+        .addProperty("target", Glb.ELEMENT_ARRAY_BUFFER);
+    JsonObject accessor = new JsonObject();
+    accessor.addProperty("bufferView", view);
+    accessor.addProperty("componentType", shorts ? Glb.UNSIGNED_SHORT : Glb.UNSIGNED_INT);
+    accessor.addProperty("count", indices.length);
+    accessor.addProperty("type", "SCALAR");
+    return accessor;
+  }
+
+  static void setBounds(JsonObject accessor, float[] positions, int[] kept) {
+    float[] min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+    float[] max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+    for (int vertex : kept) {
+      for (int axis = 0; axis < 3; axis++) {
+        min[axis] = Math.min(min[axis], positions[vertex * 3 + axis]);
+        max[axis] = Math.max(max[axis], positions[vertex * 3 + axis]);
+      }
+    }
+    JsonArray minJson = new JsonArray();
+    JsonArray maxJson = new JsonArray();
+    for (int axis = 0; axis < 3; axis++) {
+      minJson.add(min[axis]);
+      maxJson.add(max[axis]);
+    }
+    accessor.add("min", minJson);
+    accessor.add("max", maxJson);
+  }
+
+  static long triangleCount(Glb glb) {
+    long total = 0;
+    for (JsonElement mesh : glb.array("meshes")) {
+      for (JsonElement element : mesh.getAsJsonObject().getAsJsonArray("primitives")) {
+        total += triangleCount(glb, element.getAsJsonObject());
+      }
+    }
+    return total;
+  }
+
+  private static long triangleCount(Glb glb, JsonObject primitive) {
+    if (primitive.has("mode") && primitive.get("mode").getAsInt() != TRIANGLES) {
+      return 0;
+    }
+    int accessor =
+        primitive.has("indices")
+            ? primitive.get("indices").getAsInt()
+            : primitive.getAsJsonObject("attributes").get("POSITION").getAsInt();
+    return glb.accessor(accessor).get("count").getAsLong() / 3;
+  }
+
+  static int[] sequence(int count) {
+    int[] indices = new int[count];
+    for (int i = 0; i < count; i++) {
+      indices[i] = i;
+    }
+    return indices;
+  }
+}
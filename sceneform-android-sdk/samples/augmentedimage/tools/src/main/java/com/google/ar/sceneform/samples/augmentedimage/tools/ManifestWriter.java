@@ -0,0 +1,165 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.tools;
+
+import com.google.ar.sceneform.samples.augmentedimage.assets.AssetConfig;
+import com.google.ar.sceneform.samples.augmentedimage.assets.ModelFileCache;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes the manifest of an AR assets configuration: bumps {@code manifest_version} and lists the
+ * SHA-256 and size of every model file, texture variants included, and every buffer and image its
+ * glTF references. A file with a ".gz" sibling also gets a {@code gzip_size}, so devices download
+ * the compressed copy.
+ *
+ * <p>The files are read from a local copy of the bucket, e.g. one made with {@code gsutil rsync}.
+ * Run it after editing models and before uploading the configuration, so devices download only
+ * the files that changed.
+ *
+ * <p>Usage: {@code ./gradlew :tools:writeManifest -Pconfig=ar-assets-config.json
+ * -Proot=arbio/ -PbaseUrl=https://storage.googleapis.com/arbio/}
+ */
+public final class ManifestWriter {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private ManifestWriter() {}
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 3) {
+      System.err.println("Usage: ManifestWriter <config.json> <bucket directory> <bucket URL>");
+      System.exit(2);
+    }
+    File configFile = new File(args[0]);
+    File root = new File(args[1]);
+    String baseUrl = args[2].endsWith("/") ? args[2] : args[2] + "/";
+
+    JsonObject json = readJson(configFile);
+    AssetConfig config = AssetConfig.parse(json.toString());
+
+    Map<String, JsonObject> files = new TreeMap<>();
+    List<String> urls = new ArrayList<>(config.getModelUrls());
+    urls.addAll(config.getTextureVariantUrls());
+    for (String url : urls) {
+      if (!url.startsWith(baseUrl)) {
+        System.out.println("Skipping " + url + ", not under " + baseUrl);
+        continue;
+      }
+      File model = localFile(root, baseUrl, url);
+      files.put(url, describe(model));
+      if (model.getName().endsWith(".gltf")) {
+        URI modelUri = toUri(url);
+        for (String relative : ModelFileCache.relativeUris(model)) {
+          String dependencyUrl = modelUri.resolve(toUri(relative)).toString();
+          files.put(dependencyUrl, describe(localFile(root, baseUrl, dependencyUrl)));
+        }
+      }
+    }
+
+    int version = json.has("manifest_version") ? json.get("manifest_version").getAsInt() + 1 : 1;
+    json.addProperty("manifest_version", version);
+    JsonObject filesJson = new JsonObject();
+    long total = 0;
+    for (Map.Entry<String, JsonObject> file : files.entrySet()) {
+      filesJson.add(file.getKey(), file.getValue());
+      total += file.getValue().get("size").getAsLong();
+    }
+    json.add("files", filesJson);
+
+    writeJson(configFile, json);
+    System.out.printf(
+        "Manifest version %d: %d files, %d bytes%n", version, files.size(), total);
+  }
+
+  static JsonObject readJson(File file) throws IOException {
+    try (Reader reader = new InputStreamReader(new FileInputStream(file), UTF_8)) {
+      return new JsonParser().parse(reader).getAsJsonObject();
+    }
+  }
+
+  /** Replaces {@code file} with pretty-printed {@code json}, through a temporary file. */
+  static void writeJson(File file, JsonObject json) throws IOException {
+    File temp = new File(file.getPath() + ".tmp");
+    try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), UTF_8)) {
+      new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create().toJson(json, writer);
+      writer.write('\n');
+    }
+    if (!temp.renameTo(file)) {
+      throw new IOException("Cannot replace " + file);
+    }
+  }
+
+  static File localFile(File root, String baseUrl, String url) throws IOException {
+    String path = toUri(url.substring(baseUrl.length())).getPath();
+    File file = new File(root, path);
+    if (!file.isFile()) {
+      throw new IOException("Missing local copy of " + url + " at " + file);
+    }
+    return file;
+  }
+
+  private static JsonObject describe(File file) throws Exception {
+    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    try (InputStream in = new FileInputStream(file)) {
+      byte[] buffer = new byte[64 * 1024];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(String.format("%02x", b));
+    }
+    JsonObject info = new JsonObject();
+    info.addProperty("sha256", hex.toString());
+    info.addProperty("size", file.length());
+    // Uploaded next to the file by e.g. gzip -k -9; devices download it instead.
+    File gzip = new File(file.getPath() + ".gz");
+    if (gzip.isFile()) {
+      info.addProperty("gzip_size", gzip.length());
+    }
+    return info;
+  }
+
+  static URI toUri(String uri) throws IOException {
+    try {
+      return new URI(uri.replace(" ", "%20"));
+    } catch (URISyntaxException e) {
+      throw new IOException("Invalid URI " + uri, e);
+    }
+  }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.tools;
+
+import com.google.ar.sceneform.samples.augmentedimage.assets.Glb;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reorders the triangles and vertices of every glTF and GLB model of an AR assets configuration,
+ * including levels of detail, so the GPU transforms each vertex fewer times.
+ *
+ * <p>Vertices whose attributes are identical are welded, triangles are ordered for the vertex
+ * cache and then for overdraw by {@link VertexCacheOptimizer}, and vertices are renumbered in the
+ * order the triangles use them. Primitives that share vertices are optimized together. Nothing
+ * is moved or removed, so the models look the same. For each model the average cache miss ratio
+ * (ACMR, vertices transformed per triangle) and average transform to vertex ratio (ATVR, times
+ * each vertex is transformed) are printed before and after, for a {@value
+ * VertexCacheOptimizer#FIFO_SIZE}-entry FIFO cache.
+ *
+ * <p>GLB files are rewritten in place; a glTF file is written as a GLB next to it and the
+ * configuration points at that. Upload the files, gzip them again if a {@code .gz} copy is
+ * served, then run {@code writeManifest} and upload the configuration.
+ *
+ * <p>Usage: {@code ./gradlew :tools:optimizeMeshes -Pconfig=ar-assets-config.json -Proot=arbio/
+ * -PbaseUrl=https://storage.googleapis.com/arbio/}
+ */
+public final class MeshOptimizer {
+
+  // A cluster may be split for overdraw while that costs at most 5% more vertex cache misses.
+  static final float OVERDRAW_THRESHOLD = 1.05f;
+
+  private static final int TRIANGLES = 4;
+
+  private MeshOptimizer() {}
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 3) {
+      System.err.println("Usage: MeshOptimizer <config.json> <bucket directory> <bucket URL>");
+      System.exit(2);
+    }
+    File configFile = new File(args[0]);
+    File root = new File(args[1]);
+    String baseUrl = args[2].endsWith("/") ? args[2] : args[2] + "/";
+    JsonObject json = ManifestWriter.readJson(configFile);
+
+    // Models shared by several images are optimized once.
+    Map<String, String> optimized = new HashMap<>();
+    for (Map.Entry<String, JsonElement> group : json.getAsJsonObject("assets").entrySet()) {
+      for (Map.Entry<String, JsonElement> model : group.getValue().getAsJsonObject().entrySet()) {
+        JsonObject asset = model.getValue().getAsJsonObject();
+        optimizeUrl(asset, root, baseUrl, optimized);
+        if (asset.has("lods")) {
+          for (JsonElement lod : asset.getAsJsonArray("lods")) {
+            optimizeUrl(lod.getAsJsonObject(), root, baseUrl, optimized);
+          }
+        }
+      }
+    }
+
+    ManifestWriter.writeJson(configFile, json);
+    System.out.printf(
+        "Optimized %d models. Upload them, then run writeManifest.%n", optimized.size());
+  }
+
+  private static void optimizeUrl(
+      JsonObject entry, File root, String baseUrl, Map<String, String> optimized)
+      throws IOException {
+    String url = entry.get("url").getAsString();
+    if (!url.endsWith(".gltf") && !url.endsWith(".glb")) {
+      return;
+    }
+    if (!url.startsWith(baseUrl)) {
+      System.out.println("Skipping " + url + ", not under " + baseUrl);
+      return;
+    }
+    String optimizedUrl = optimized.get(url);
+    if (optimizedUrl == null) {
+      File model = ManifestWriter.localFile(root, baseUrl, url);
+      String name = model.getName().substring(0, model.getName().lastIndexOf('.'));
+      File output = new File(model.getParentFile(), name + ".glb");
+      long start = System.nanoTime();
+      Glb glb = GlbPacker.load(model);
+      Report report = optimize(glb);
+      glb.write(output);
+      System.out.printf(
+          "%s: %s, %d ms%n", output, report, (System.nanoTime() - start) / 1_000_000);
+      File gzip = new File(output.getPath() + ".gz");
+      if (gzip.delete()) {
+        System.out.println("  removed the outdated " + gzip.getName() + ", gzip it again");
+      }
+      optimizedUrl = url.substring(0, url.lastIndexOf('.')) + ".glb";
+      optimized.put(url, optimizedUrl);
+    }
+    entry.addProperty("url", optimizedUrl);
+  }
+
+  /** Vertex cache statistics of one model, summed over its triangle primitives. */
+  static final class Report {
+    long triangles;
+    long verticesBefore;
+    long verticesAfter;
+    long transformedBefore;
+    long transformedAfter;
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%d triangles, %d -> %d vertices, ACMR %.3f -> %.3f, ATVR %.3f -> %.3f",
+          triangles,
+          verticesBefore,
+          verticesAfter,
+          ratio(transformedBefore, triangles),
+          ratio(transformedAfter, triangles),
+          ratio(transformedBefore, verticesBefore),
+          ratio(transformedAfter, verticesAfter));
+    }
+
+    private static double ratio(long a, long b) {
+      return b > 0 ? (double) a / b : 0;
+    }
+  }
+
+  /** Optimizes every indexable triangle primitive of {@code glb} and drops the old data. */
+  static Report optimize(Glb glb) {
+    ByteBuffer data = glb.data();
+    Report report = new Report();
+    // Primitives with the same attributes and morph targets share vertices.
+    Map<String, List<JsonObject>> groups = new LinkedHashMap<>();
+    for (JsonElement mesh : glb.array("meshes")) {
+      for (JsonElement element : mesh.getAsJsonObject().getAsJsonArray("primitives")) {
+        JsonObject primitive = element.getAsJsonObject();
+        if (isOptimizable(glb, primitive)) {
+          String key = primitive.get("attributes") + "/" + primitive.get("targets");
+          groups.computeIfAbsent(key, k -> new ArrayList<>()).add(primitive);
+        }
+      }
+    }
+    for (List<JsonObject> primitives : groups.values()) {
+      optimize(glb, data, primitives, report);
+    }
+    glb.prune();
+    return report;
+  }
+
+  private static void optimize(
+      Glb glb, ByteBuffer data, List<JsonObject> primitives, Report report) {
+    JsonObject attributes = primitives.get(0).getAsJsonObject("attributes");
+    List<JsonObject> sources = new ArrayList<>();
+    for (Map.Entry<String, JsonElement> attribute : attributes.entrySet()) {
+      sources.add(glb.accessor(attribute.getValue().getAsInt()));
+    }
+    JsonArray targets = primitives.get(0).getAsJsonArray("targets");
+    if (targets != null) {
+      for (JsonElement target : targets) {
+        for (Map.Entry<String, JsonElement> attribute : target.getAsJsonObject().entrySet()) {
+          sources.add(glb.accessor(attribute.getValue().getAsInt()));
+        }
+      }
+    }
+    JsonObject position = glb.accessor(attributes.get("POSITION").getAsInt());
+    int vertexCount = position.get("count").getAsInt();
+    float[] positions = glb.readFloats(data, position);
+    int[] weld =
+        VertexCacheOptimizer.weld(
+            vertexBytes(glb, data, sources, vertexCount), vertexStride(sources));
+
+    List<int[]> optimized = new ArrayList<>();
+    int totalIndices = 0;
+    boolean[] usedBefore = new boolean[vertexCount];
+    for (JsonObject primitive : primitives) {
+      int[] indices =
+          primitive.has("indices")
+              ? glb.readIndices(data, glb.accessor(primitive.get("indices").getAsInt()))
+              : LodGenerator.sequence(vertexCount);
+      report.triangles += indices.length / 3;
+      report.transformedBefore += VertexCacheOptimizer.transformedVertices(indices, vertexCount);
+      for (int i = 0; i < indices.length; i++) {
+        usedBefore[indices[i]] = true;
+        indices[i] = weld[indices[i]];
+      }
+      int[] ordered = VertexCacheOptimizer.optimizeVertexCache(indices, vertexCount);
+      ordered =
+          VertexCacheOptimizer.optimizeOverdraw(
+              ordered, positions, vertexCount, OVERDRAW_THRESHOLD);
+      optimized.add(ordered);
+      totalIndices += ordered.length;
+    }
+    for (boolean used : usedBefore) {
+      report.verticesBefore += used ? 1 : 0;
+    }
+
+    // Number the vertices in the order the primitives, one after another, use them.
+    int[] all = new int[totalIndices];
+    int offset = 0;
+    for (int[] ordered : optimized) {
+      System.arraycopy(ordered, 0, all, offset, ordered.length);
+      offset += ordered.length;
+    }
+    int[] remap = VertexCacheOptimizer.fetchOrder(all, vertexCount);
+    int newCount = 0;
+    for (int index : remap) {
+      newCount = Math.max(newCount, index + 1);
+    }
+    int[] kept = new int[newCount];
+    for (int vertex = 0; vertex < vertexCount; vertex++) {
+      if (remap[vertex] >= 0) {
+        kept[remap[vertex]] = vertex;
+      }
+    }
+    report.verticesAfter += newCount;
+
+    JsonObject newAttributes = copyAttributes(glb, data, attributes, kept);
+    JsonArray newTargets = null;
+    if (targets != null) {
+      newTargets = new JsonArray();
+      for (JsonElement target : targets) {
+        newTargets.add(copyAttributes(glb, data, target.getAsJsonObject(), kept));
+      }
+    }
+    for (int p = 0; p < primitives.size(); p++) {
+      JsonObject primitive = primitives.get(p);
+      int[] indices = optimized.get(p);
+      for (int i = 0; i < indices.length; i++) {
+        indices[i] = remap[indices[i]];
+      }
+      report.transformedAfter += VertexCacheOptimizer.transformedVertices(indices, newCount);
+      primitive.add("attributes", newAttributes.deepCopy());
+      if (newTargets != null) {
+        primitive.add("targets", newTargets.deepCopy());
+      }
+      primitive.addProperty(
+          "indices", glb.addAccessor(LodGenerator.writeIndices(glb, indices, newCount)));
+    }
+  }
+
+  private static JsonObject copyAttributes(
+      Glb glb, ByteBuffer data, JsonObject attributes, int[] kept) {
+    JsonObject copies = new JsonObject();
+    for (Map.Entry<String, JsonElement> attribute : attributes.entrySet()) {
+      JsonObject source = glb.accessor(attribute.getValue().getAsInt());
+      JsonObject copy = LodGenerator.copyElements(glb, data, source, kept);
+      if (attribute.getKey().equals("POSITION")) {
+        LodGenerator.setBounds(copy, glb.readFloats(data, source), kept);
+      }
+      copies.addProperty(attribute.getKey(), glb.addAccessor(copy));
+    }
+    return copies;
+  }
+
+  private static boolean isOptimizable(Glb glb, JsonObject primitive) {
+    if (primitive.has("mode") && primitive.get("mode").getAsInt() != TRIANGLES) {
+      return false;
+    }
+    JsonObject attributes = primitive.getAsJsonObject("attributes");
+    if (!attributes.has("POSITION")) {
+      return false;
+    }
+    List<JsonElement> references = new ArrayList<>();
+    for (Map.Entry<String, JsonElement> attribute : attributes.entrySet()) {
+      references.add(attribute.getValue());
+    }
+    if (primitive.has("targets")) {
+      for (JsonElement target : primitive.getAsJsonArray("targets")) {
+        for (Map.Entry<String, JsonElement> attribute : target.getAsJsonObject().entrySet()) {
+          references.add(attribute.getValue());
+        }
+      }
+    }
+    for (JsonElement reference : references) {
+      JsonObject accessor = glb.accessor(reference.getAsInt());
+      if (accessor.has("sparse") || !accessor.has("bufferView")) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Bytes of a vertex's attributes, one vertex after another. */
+  private static byte[] vertexBytes(
+      Glb glb, ByteBuffer data, List<JsonObject> sources, int vertexCount) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    for (int vertex = 0; vertex < vertexCount; vertex++) {
+      for (JsonObject source : sources) {
+        int from = glb.offsetOf(source) + vertex * glb.strideOf(source);
+        for (int b = 0; b < Glb.elementBytes(source); b++) {
+          bytes.write(data.get(from + b));
+        }
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  private static int vertexStride(List<JsonObject> sources) {
+    int stride = 0;
+    for (JsonObject source : sources) {
+      stride += Glb.elementBytes(source);
+    }
+    return stride;
+  }
+}
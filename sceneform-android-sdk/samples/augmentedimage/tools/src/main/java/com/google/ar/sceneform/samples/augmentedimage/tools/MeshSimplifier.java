@@ -0,0 +1,455 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.tools;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Reduces the triangle count of an indexed triangle mesh with quadric error metrics (Garland and
+ * Heckbert, 1997).
+ *
+ * <p>Vertices at the same position are welded first, so meshes split at texture seams or stored
+ * as separate triangles simplify as one surface. Edges are collapsed cheapest first. Each
+ * collapse moves one end onto the other, so no vertex data is interpolated: a triangle corner
+ * that moved takes the vertex at its new position whose original triangles face most like it,
+ * which keeps flat shading flat. Open edges are held in place by perpendicular planes in their
+ * quadrics. A collapse that would flip a triangle over is skipped.
+ */
+final class MeshSimplifier {
+
+  // Open edges cost this much more to move off than the surface around them.
+  private static final double BOUNDARY_WEIGHT = 100;
+  // A collapse may not turn a triangle's normal by more than about 80 degrees.
+  private static final double MIN_NORMAL_DOT = 0.2;
+
+  private final float[] positions;
+  private final int[] triangles;
+  private final boolean[] removedTriangles;
+  private final boolean[] removedVertices;
+  private final int[] versions;
+  private final double[] quadrics;
+  // Vertex to the triangles using it; lists grow as vertices absorb their neighbors.
+  private final int[][] vertexTriangles;
+  private final int[] vertexTriangleCounts;
+  private final PriorityQueue<Collapse> queue = new PriorityQueue<>();
+  private int liveTriangles;
+
+  private static final class Collapse implements Comparable<Collapse> {
+    final double cost;
+    final int from;
+    final int to;
+    final int fromVersion;
+    final int toVersion;
+
+    Collapse(double cost, int from, int to, int fromVersion, int toVersion) {
+      this.cost = cost;
+      this.from = from;
+      this.to = to;
+      this.fromVersion = fromVersion;
+      this.toVersion = toVersion;
+    }
+
+    @Override
+    public int compareTo(Collapse other) {
+      return Double.compare(cost, other.cost);
+    }
+  }
+
+  private MeshSimplifier(float[] positions, int[] indices) {
+    int vertexCount = positions.length / 3;
+    this.positions = positions;
+    this.triangles = indices.clone();
+    this.removedTriangles = new boolean[indices.length / 3];
+    this.removedVertices = new boolean[vertexCount];
+    this.versions = new int[vertexCount];
+    this.quadrics = new double[vertexCount * 10];
+    this.vertexTriangles = new int[vertexCount][];
+    this.vertexTriangleCounts = new int[vertexCount];
+    this.liveTriangles = removedTriangles.length;
+  }
+
+  /**
+   * Simplifies a mesh to at most {@code targetTriangles} triangles, or as close as it gets without
+   * flipping triangles.
+   *
+   * @param positions x, y, z of each vertex
+   * @param indices three vertex indices per triangle
+   * @return the indices of the remaining triangles, in their original order
+   */
+  static int[] simplify(float[] positions, int[] indices, int targetTriangles) {
+    int[] welded = weld(positions);
+    int[] weldedIndices = new int[indices.length];
+    for (int i = 0; i < indices.length; i++) {
+      weldedIndices[i] = welded[indices[i]];
+    }
+    MeshSimplifier simplifier = new MeshSimplifier(positions, weldedIndices);
+    simplifier.initialize();
+    simplifier.collapseTo(targetTriangles);
+    return simplifier.remainingIndices(indices, welded);
+  }
+
+  /** Maps each vertex to the first vertex at the same position. */
+  private static int[] weld(float[] positions) {
+    int[] welded = new int[positions.length / 3];
+    Map<Position, Integer> first = new HashMap<>();
+    for (int v = 0; v < welded.length; v++) {
+      Integer existing = first.putIfAbsent(new Position(positions, v), v);
+      welded[v] = existing != null ? existing : v;
+    }
+    return welded;
+  }
+
+  private static final class Position {
+    final float x;
+    final float y;
+    final float z;
+
+    Position(float[] positions, int v) {
+      x = positions[v * 3];
+      y = positions[v * 3 + 1];
+      z = positions[v * 3 + 2];
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Position)) {
+        return false;
+      }
+      Position that = (Position) other;
+      return Float.compare(x, that.x) == 0
+          && Float.compare(y, that.y) == 0
+          && Float.compare(z, that.z) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      return (Float.floatToIntBits(x) * 31 + Float.floatToIntBits(y)) * 31
+          + Float.floatToIntBits(z);
+    }
+  }
+
+  private void initialize() {
+    int[] counts = new int[removedVertices.length];
+    for (int index : triangles) {
+      counts[index]++;
+    }
+    for (int v = 0; v < counts.length; v++) {
+      vertexTriangles[v] = new int[Math.max(counts[v], 1)];
+    }
+
+    // Edge, as the smaller and larger vertex index, to the number of triangles sharing it.
+    Map<Long, Integer> edgeUses = new HashMap<>();
+    double[] normal = new double[4];
+    for (int t = 0; t < removedTriangles.length; t++) {
+      int a = triangles[t * 3];
+      int b = triangles[t * 3 + 1];
+      int c = triangles[t * 3 + 2];
+      addTriangle(a, t);
+      addTriangle(b, t);
+      addTriangle(c, t);
+      double area = plane(a, b, c, normal);
+      addQuadric(a, normal, area);
+      addQuadric(b, normal, area);
+      addQuadric(c, normal, area);
+      edgeUses.merge(edgeKey(a, b), 1, Integer::sum);
+      edgeUses.merge(edgeKey(b, c), 1, Integer::sum);
+      edgeUses.merge(edgeKey(c, a), 1, Integer::sum);
+    }
+
+    for (int t = 0; t < removedTriangles.length; t++) {
+      for (int corner = 0; corner < 3; corner++) {
+        int a = triangles[t * 3 + corner];
+        int b = triangles[t * 3 + (corner + 1) % 3];
+        if (edgeUses.get(edgeKey(a, b)) == 1) {
+          addBoundaryQuadric(t, a, b);
+        }
+      }
+    }
+
+    for (long key : edgeUses.keySet()) {
+      queueEdge((int) (key >>> 32), (int) key);
+    }
+  }
+
+  private void collapseTo(int targetTriangles) {
+    double[] before = new double[4];
+    double[] after = new double[4];
+    while (liveTriangles > targetTriangles && !queue.isEmpty()) {
+      Collapse collapse = queue.poll();
+      int from = collapse.from;
+      int to = collapse.to;
+      if (removedVertices[from]
+          || removedVertices[to]
+          || versions[from] != collapse.fromVersion
+          || versions[to] != collapse.toVersion) {
+        // Queued before one of the ends changed; a fresh entry was queued then.
+        continue;
+      }
+      if (flips(from, to, before, after)) {
+        continue;
+      }
+      collapse(from, to);
+    }
+  }
+
+  /** Whether moving {@code from} onto {@code to} turns or degenerates any surviving triangle. */
+  private boolean flips(int from, int to, double[] before, double[] after) {
+    for (int i = 0; i < vertexTriangleCounts[from]; i++) {
+      int t = vertexTriangles[from][i];
+      if (removedTriangles[t] || uses(t, to)) {
+        continue;
+      }
+      int a = triangles[t * 3];
+      int b = triangles[t * 3 + 1];
+      int c = triangles[t * 3 + 2];
+      if (plane(a, b, c, before) == 0) {
+        continue;
+      }
+      double area =
+          plane(a == from ? to : a, b == from ? to : b, c == from ? to : c, after);
+      if (area == 0
+          || before[0] * after[0] + before[1] * after[1] + before[2] * after[2]
+              < MIN_NORMAL_DOT) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void collapse(int from, int to) {
+    removedVertices[from] = true;
+    for (int q = 0; q < 10; q++) {
+      quadrics[to * 10 + q] += quadrics[from * 10 + q];
+    }
+    for (int i = 0; i < vertexTriangleCounts[from]; i++) {
+      int t = vertexTriangles[from][i];
+      if (removedTriangles[t]) {
+        continue;
+      }
+      if (uses(t, to)) {
+        removedTriangles[t] = true;
+        liveTriangles--;
+        continue;
+      }
+      for (int corner = t * 3; corner < t * 3 + 3; corner++) {
+        if (triangles[corner] == from) {
+          triangles[corner] = to;
+        }
+      }
+      addTriangle(to, t);
+    }
+    vertexTriangles[from] = null;
+    vertexTriangleCounts[from] = 0;
+    versions[to]++;
+
+    // Every edge at the kept vertex now has a different cost.
+    for (int i = 0; i < vertexTriangleCounts[to]; i++) {
+      int t = vertexTriangles[to][i];
+      if (removedTriangles[t]) {
+        continue;
+      }
+      for (int corner = t * 3; corner < t * 3 + 3; corner++) {
+        if (triangles[corner] != to) {
+          queueEdge(to, triangles[corner]);
+        }
+      }
+    }
+  }
+
+  /** Queues the cheaper direction of collapsing the edge between {@code a} and {@code b}. */
+  private void queueEdge(int a, int b) {
+    double costAB = combinedError(a, b, b);
+    double costBA = combinedError(a, b, a);
+    if (costAB <= costBA) {
+      queue.add(new Collapse(costAB, a, b, versions[a], versions[b]));
+    } else {
+      queue.add(new Collapse(costBA, b, a, versions[b], versions[a]));
+    }
+  }
+
+  /** Error of placing both {@code a} and {@code b} at the position of {@code at}. */
+  private double combinedError(int a, int b, int at) {
+    double x = positions[at * 3];
+    double y = positions[at * 3 + 1];
+    double z = positions[at * 3 + 2];
+    double error = 0;
+    for (int v : new int[] {a, b}) {
+      int q = v * 10;
+      error +=
+          quadrics[q] * x * x
+              + 2 * quadrics[q + 1] * x * y
+              + 2 * quadrics[q + 2] * x * z
+              + 2 * quadrics[q + 3] * x
+              + quadrics[q + 4] * y * y
+              + 2 * quadrics[q + 5] * y * z
+              + 2 * quadrics[q + 6] * y
+              + quadrics[q + 7] * z * z
+              + 2 * quadrics[q + 8] * z
+              + quadrics[q + 9];
+    }
+    return Math.max(error, 0);
+  }
+
+  /**
+   * Adds the plane through the open edge from {@code a} to {@code b} and perpendicular to triangle
+   * {@code t} to the quadrics of both ends, weighted by the squared edge length.
+   */
+  private void addBoundaryQuadric(int t, int a, int b) {
+    double[] normal = new double[4];
+    if (plane(triangles[t * 3], triangles[t * 3 + 1], triangles[t * 3 + 2], normal) == 0) {
+      return;
+    }
+    double ex = positions[b * 3] - positions[a * 3];
+    double ey = positions[b * 3 + 1] - positions[a * 3 + 1];
+    double ez = positions[b * 3 + 2] - positions[a * 3 + 2];
+    double nx = ey * normal[2] - ez * normal[1];
+    double ny = ez * normal[0] - ex * normal[2];
+    double nz = ex * normal[1] - ey * normal[0];
+    double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+    if (length == 0) {
+      return;
+    }
+    nx /= length;
+    ny /= length;
+    nz /= length;
+    double[] boundary = {
+      nx, ny, nz, -(nx * positions[a * 3] + ny * positions[a * 3 + 1] + nz * positions[a * 3 + 2])
+    };
+    double weight = BOUNDARY_WEIGHT * (ex * ex + ey * ey + ez * ez);
+    addQuadric(a, boundary, weight);
+    addQuadric(b, boundary, weight);
+  }
+
+  private void addQuadric(int v, double[] p, double weight) {
+    int q = v * 10;
+    quadrics[q] += weight * p[0] * p[0];
+    quadrics[q + 1] += weight * p[0] * p[1];
+    quadrics[q + 2] += weight * p[0] * p[2];
+    quadrics[q + 3] += weight * p[0] * p[3];
+    quadrics[q + 4] += weight * p[1] * p[1];
+    quadrics[q + 5] += weight * p[1] * p[2];
+    quadrics[q + 6] += weight * p[1] * p[3];
+    quadrics[q + 7] += weight * p[2] * p[2];
+    quadrics[q + 8] += weight * p[2] * p[3];
+    quadrics[q + 9] += weight * p[3] * p[3];
+  }
+
+  /**
+   * Writes the unit normal and offset of the plane through three vertices to {@code plane}.
+   *
+   * @return the triangle's area, or 0 if it is degenerate
+   */
+  private double plane(int a, int b, int c, double[] plane) {
+    double ax = positions[a * 3];
+    double ay = positions[a * 3 + 1];
+    double az = positions[a * 3 + 2];
+    double ux = positions[b * 3] - ax;
+    double uy = positions[b * 3 + 1] - ay;
+    double uz = positions[b * 3 + 2] - az;
+    double vx = positions[c * 3] - ax;
+    double vy = positions[c * 3 + 1] - ay;
+    double vz = positions[c * 3 + 2] - az;
+    double nx = uy * vz - uz * vy;
+    double ny = uz * vx - ux * vz;
+    double nz = ux * vy - uy * vx;
+    double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+    if (length == 0) {
+      Arrays.fill(plane, 0);
+      return 0;
+    }
+    plane[0] = nx / length;
+    plane[1] = ny / length;
+    plane[2] = nz / length;
+    plane[3] = -(plane[0] * ax + plane[1] * ay + plane[2] * az);
+    return length / 2;
+  }
+
+  private boolean uses(int t, int v) {
+    return triangles[t * 3] == v || triangles[t * 3 + 1] == v || triangles[t * 3 + 2] == v;
+  }
+
+  private void addTriangle(int v, int t) {
+    int[] list = vertexTriangles[v];
+    if (vertexTriangleCounts[v] == list.length) {
+      list = Arrays.copyOf(list, list.length * 2);
+      vertexTriangles[v] = list;
+    }
+    list[vertexTriangleCounts[v]++] = t;
+  }
+
+  /**
+   * Returns the remaining triangles in terms of the original, unwelded vertices. A corner that
+   * did not move keeps its vertex.
+   */
+  private int[] remainingIndices(int[] original, int[] welded) {
+    // Sum of the normals of the original triangles around each unwelded vertex.
+    double[] vertexNormals = new double[welded.length * 3];
+    // Unwelded vertices of each welded position, as a linked list from the welded vertex.
+    int[] nextAtPosition = new int[welded.length];
+    Arrays.fill(nextAtPosition, -1);
+    for (int v = 0; v < welded.length; v++) {
+      if (welded[v] != v) {
+        nextAtPosition[v] = nextAtPosition[welded[v]];
+        nextAtPosition[welded[v]] = v;
+      }
+    }
+    double[] normal = new double[4];
+    for (int t = 0; t < original.length / 3; t++) {
+      double area = plane(original[t * 3], original[t * 3 + 1], original[t * 3 + 2], normal);
+      for (int corner = t * 3; corner < t * 3 + 3; corner++) {
+        for (int axis = 0; axis < 3; axis++) {
+          vertexNormals[original[corner] * 3 + axis] += normal[axis] * area;
+        }
+      }
+    }
+
+    int[] indices = new int[liveTriangles * 3];
+    int next = 0;
+    for (int t = 0; t < removedTriangles.length; t++) {
+      if (removedTriangles[t]) {
+        continue;
+      }
+      plane(triangles[t * 3], triangles[t * 3 + 1], triangles[t * 3 + 2], normal);
+      for (int corner = t * 3; corner < t * 3 + 3; corner++) {
+        int position = triangles[corner];
+        int vertex = original[corner];
+        if (welded[vertex] != position) {
+          double best = -Double.MAX_VALUE;
+          for (int v = position; v >= 0; v = nextAtPosition[v]) {
+            double dot =
+                normal[0] * vertexNormals[v * 3]
+                    + normal[1] * vertexNormals[v * 3 + 1]
+                    + normal[2] * vertexNormals[v * 3 + 2];
+            if (dot > best) {
+              best = dot;
+              vertex = v;
+            }
+          }
+        }
+        indices[next++] = vertex;
+      }
+    }
+    return indices;
+  }
+
+  private static long edgeKey(int a, int b) {
+    return a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.tools;
+
+import com.google.ar.sceneform.samples.augmentedimage.tracking.FrameDispatcher;
+import com.google.ar.sceneform.samples.augmentedimage.tracking.ImageNodeRegistry;
+import com.google.ar.sceneform.samples.augmentedimage.tracking.ImageTracker;
+import com.google.ar.sceneform.samples.augmentedimage.tracking.ImageTracker.State;
+import com.google.ar.sceneform.samples.augmentedimage.tracking.TraceFrame;
+import com.google.ar.sceneform.samples.augmentedimage.tracking.TraceFrame.TrackingState;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reports a few augmented images as tracking on every one of {@value #FRAMES} simulated frames,
+ * the way ARCore does while they stay in view, and checks that each image gets exactly one node.
+ *
+ * <p>Frames go through the app's {@link FrameDispatcher}, which decides when a node is added.
+ * Its target does what {@code ImageLifecycle} does, with plain objects for nodes: they are kept in
+ * an {@link ImageNodeRegistry}, and adding one to the scene is counted. The run fails if the
+ * number of nodes in the registry, the tracker or the scene ever differs from the number of
+ * images.
+ *
+ * <p>Usage: {@code ./gradlew :tools:soakNodeCount}
+ */
+public final class NodeCountSoak {
+
+  private static final int FRAMES = 10000;
+  private static final long FRAME_MILLIS = 33;
+  // Sparse database indices, including the last slot of a full 1,000-image database.
+  private static final int[] IMAGES = {0, 3, 17, 250, 999};
+  private static final float[] POSE = {0f, 0f, 0f, 0f, 0f, 0f, 1f};
+
+  private NodeCountSoak() {}
+
+  public static void main(String[] args) {
+    ImageNodeRegistry<Object> nodes = new ImageNodeRegistry<>();
+    int[] sceneChildren = new int[1];
+    int[] changesTo = new int[State.values().length];
+    ImageTracker tracker =
+        new ImageTracker(
+            new ImageTracker.Listener() {
+              @Override
+              public void onStateChanged(int index, State from, State to) {
+                changesTo[to.ordinal()]++;
+                if (to == State.EVICTED) {
+                  nodes.remove(index);
+                  sceneChildren[0]--;
+                }
+              }
+
+              @Override
+              public void onTracking(int index) {}
+            });
+
+    int[] nodesCreated = new int[1];
+    FrameDispatcher<TraceFrame.Image> dispatcher =
+        new FrameDispatcher<>(
+            new FrameDispatcher.Target<TraceFrame.Image>() {
+              @Override
+              public TrackingState stateOf(TraceFrame.Image image) {
+                return image.getState();
+              }
+
+              @Override
+              public void update(long now) {
+                tracker.update(now);
+              }
+
+              @Override
+              public void detected(TraceFrame.Image image, long now) {
+                tracker.detected(image.getIndex());
+              }
+
+              @Override
+              public boolean tracked(TraceFrame.Image image, long now) {
+                if (nodes.get(image.getIndex()) == null) {
+                  return false;
+                }
+                return tracker.tracked(image.getIndex(), now);
+              }
+
+              @Override
+              public void add(TraceFrame.Image image, long now) {
+                nodes.put(image.getIndex(), new Object());
+                sceneChildren[0]++;
+                nodesCreated[0]++;
+                tracker.add(image.getIndex(), now);
+              }
+
+              @Override
+              public void stopped(TraceFrame.Image image) {
+                tracker.stopped(image.getIndex());
+              }
+            },
+            FRAME_MILLIS);
+
+    // ARCore reports a new image as PAUSED before it tracks it.
+    List<TraceFrame.Image> detected = images(TrackingState.PAUSED);
+    List<TraceFrame.Image> tracking = images(TrackingState.TRACKING);
+    int minNodes = Integer.MAX_VALUE;
+    int maxNodes = 0;
+    int failures = 0;
+    for (int frame = 0; frame <= FRAMES; frame++) {
+      dispatcher.onFrame(
+          frame * FRAME_MILLIS, false, TrackingState.TRACKING, frame == 0 ? detected : tracking);
+      if (frame == 0) {
+        continue;
+      }
+
+      int inScene = sceneChildren[0];
+      minNodes = Math.min(minNodes, inScene);
+      maxNodes = Math.max(maxNodes, inScene);
+      if (inScene != IMAGES.length
+          || nodes.size() != IMAGES.length
+          || tracker.getNodeCount() != IMAGES.length) {
+        failures++;
+        if (failures <= 10) {
+          System.out.printf(
+              "Frame %d: %d nodes in the scene, %d registered, %d tracked, expected %d%n",
+              frame, inScene, nodes.size(), tracker.getNodeCount(), IMAGES.length);
+        }
+      }
+    }
+
+    System.out.printf(
+        "%d frames, %d images: nodes %d to %d, %d created%n",
+        FRAMES, IMAGES.length, minNodes, maxNodes, nodesCreated[0]);
+    StringBuilder changes = new StringBuilder();
+    for (State state : State.values()) {
+      changes.append(String.format(" %s %d,", state, changesTo[state.ordinal()]));
+    }
+    System.out.println("Changes to:" + changes.substring(0, changes.length() - 1));
+
+    if (nodesCreated[0] != IMAGES.length) {
+      failures++;
+    }
+    System.out.println(failures == 0 ? "PASS" : "FAIL: " + failures);
+    System.exit(failures == 0 ? 0 : 1);
+  }
+
+  /** Returns every image as ARCore would report it in a frame, in {@code state}. */
+  private static List<TraceFrame.Image> images(TrackingState state) {
+    List<TraceFrame.Image> images = new ArrayList<>();
+    for (int index : IMAGES) {
+      images.add(new TraceFrame.Image(index, "Image " + index, state, POSE, 0.1f, 0.1f));
+    }
+    return images;
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.tools;
+
+import com.google.ar.sceneform.samples.augmentedimage.quality.QualityPolicy;
+import com.google.ar.sceneform.samples.augmentedimage.quality.QualityPolicy.Level;
+import java.util.Random;
+
+/**
+ * Replays synthetic frame-time traces through {@link QualityPolicy} and checks the levels it picks.
+ *
+ * <p>Each trace gives a frame's time from the frame number and the current level, so lowering
+ * quality can make frames faster the way it does on a device. Frame times get a little random
+ * jitter. The run fails unless every trace reaches the expected lowest and last levels without
+ * changing level more often than expected.
+ *
+ * <p>Usage: {@code ./gradlew :tools:replayQualityPolicy}
+ */
+public final class QualityPolicyReplay {
+
+  private static final long BUDGET_NANOS = 36000000;
+  private static final int FPS = 60;
+
+  /** Frame time in milliseconds for a frame at a level. */
+  private interface Trace {
+    double frameMillis(int frame, Level level);
+  }
+
+  private static final Random random = new Random(42);
+  private static int failures;
+
+  private QualityPolicyReplay() {}
+
+  public static void main(String[] args) {
+    // A light scene never leaves full quality.
+    check("light scene", 30, (frame, level) -> 16.7, Level.FULL, Level.FULL, 0);
+
+    // One slow frame in twenty stays under the 90th percentile.
+    check(
+        "rare hitches",
+        30,
+        (frame, level) -> frame % 20 == 0 ? 60 : 16.7,
+        Level.FULL,
+        Level.FULL,
+        0);
+
+    // Seconds-long gaps, such as the app in the background, are not slow frames.
+    check(
+        "pauses",
+        30,
+        (frame, level) -> frame % 100 < 10 ? 5000 : 16.7,
+        Level.FULL,
+        Level.FULL,
+        0);
+
+    // A scene too heavy at every level sinks to the lowest and stays there.
+    check(
+        "heavy scene",
+        30,
+        (frame, level) -> 45,
+        Level.CAPPED_IMAGES,
+        Level.CAPPED_IMAGES,
+        Level.values().length - 1);
+
+    // Each cut saves some time; quality settles at the first level that meets the budget.
+    check(
+        "settles",
+        60,
+        (frame, level) -> 44 - 6 * level.ordinal(),
+        Level.NO_HEAVY_SHADOWS,
+        Level.NO_HEAVY_SHADOWS,
+        2);
+
+    // Two seconds, two windows, of heavy load; quality comes back once the load is gone.
+    check(
+        "burst",
+        30,
+        (frame, level) -> frame < 2 * FPS ? 45 : 16.7,
+        Level.NO_HEAVY_SHADOWS,
+        Level.FULL,
+        4);
+
+    // Full quality misses the budget but the next level has plenty of headroom. Quality tries
+    // full again, but less and less often: after 4, 7 and 13 seconds, then every 25 seconds.
+    check(
+        "two-level trap",
+        120,
+        (frame, level) -> level == Level.FULL ? 40 : 20,
+        Level.COARSER_DETAIL,
+        Level.COARSER_DETAIL,
+        13);
+
+    System.out.println(failures == 0 ? "PASS" : "FAIL: " + failures);
+    System.exit(failures == 0 ? 0 : 1);
+  }
+
+  /**
+   * Replays a trace and checks the lowest and final levels it reaches and that it changes level at
+   * most {@code maxChanges} times.
+   */
+  private static void check(
+      String name, int seconds, Trace trace, Level lowest, Level last, int maxChanges) {
+    QualityPolicy policy = new QualityPolicy(BUDGET_NANOS);
+    Level seenLowest = Level.FULL;
+    int changes = 0;
+    StringBuilder log = new StringBuilder();
+    for (int frame = 0; frame < seconds * FPS; frame++) {
+      double jitter = 0.95 + 0.1 * random.nextDouble();
+      double millis = trace.frameMillis(frame, policy.getLevel()) * jitter;
+      if (policy.onFrame((long) (millis * 1000000))) {
+        changes++;
+        log.append(String.format("  %6.2fs %s%n", (double) frame / FPS, policy));
+        if (policy.getLevel().compareTo(seenLowest) > 0) {
+          seenLowest = policy.getLevel();
+        }
+      }
+    }
+
+    boolean pass = seenLowest == lowest && policy.getLevel() == last && changes <= maxChanges;
+    System.out.printf(
+        "%s %s: lowest %s, last %s, %d changes%n",
+        pass ? "ok  " : "FAIL", name, seenLowest, policy.getLevel(), changes);
+    System.out.print(log);
+    if (!pass) {
+      failures++;
+    }
+  }
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.tools;
+
+import com.google.ar.sceneform.samples.augmentedimage.assets.Glb;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Writes size-capped texture variants of every glTF and GLB model of an AR assets configuration,
+ * including levels of detail, and lists them in the configuration, for the app to choose by the
+ * device's memory class:
+ *
+ * <pre>
+ * "man": {
+ *   "url": "https://storage.googleapis.com/arbio/cesium_man/CesiumMan.glb",
+ *   "textures": [
+ *     {"url": "https://storage.googleapis.com/arbio/cesium_man/CesiumMan_t512.glb",
+ *      "max_size": 512}
+ *   ]
+ * }
+ * </pre>
+ *
+ * <p>Each image is first resized to the nearest power of two in each dimension, then halved
+ * repeatedly into a mip chain. Halving averages 2x2 texels in linear light for color textures,
+ * weighted by alpha so transparent texels do not darken the edges. The variant for each of {@link
+ * #TEXTURE_SIZES} replaces every image larger than it with the first level of the chain that fits
+ * and keeps the smaller images as they are. A variant is only written for sizes the model's
+ * largest image exceeds.
+ *
+ * <p>Sceneform builds the mipmaps of a glTF texture on the GPU and cannot load mipmaps shipped
+ * with it, so a variant holds a single level of the chain; the chain makes the smaller variants
+ * consistent with each other and filtered in linear light. Each model's report lists the file size
+ * and the decoded texture memory, mipmaps included, of every variant.
+ *
+ * <p>The variants are written as {@code <name>_t<size>.glb} next to the models in a local copy of
+ * the bucket. Run this after the other model tools, since they only update the models the
+ * variants are made from. Upload the variants, then run {@code writeManifest} and upload the
+ * configuration.
+ *
+ * <p>Usage: {@code ./gradlew :tools:downscaleTextures -Pconfig=ar-assets-config.json
+ * -Proot=arbio/ -PbaseUrl=https://storage.googleapis.com/arbio/}
+ */
+public final class TextureDownscaler {
+
+  /** The largest texture sizes of the variants, largest first, as chosen in the app. */
+  static final int[] TEXTURE_SIZES = {2048, 1024, 512};
+
+  private static final float JPEG_QUALITY = 0.9f;
+
+  // Decoding to RGBA8 and a full mip chain.
+  private static final double MIPMAPPED_BYTES_PER_TEXEL = 4 * 4 / 3.0;
+
+  private static final float[] SRGB_TO_LINEAR = new float[256];
+
+  static {
+    for (int i = 0; i < SRGB_TO_LINEAR.length; i++) {
+      double c = i / 255.0;
+      SRGB_TO_LINEAR[i] =
+          (float) (c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4));
+    }
+  }
+
+  private TextureDownscaler() {}
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 3) {
+      System.err.println("Usage: TextureDownscaler <config.json> <bucket directory> <bucket URL>");
+      System.exit(2);
+    }
+    File configFile = new File(args[0]);
+    File root = new File(args[1]);
+    String baseUrl = args[2].endsWith("/") ? args[2] : args[2] + "/";
+    JsonObject json = ManifestWriter.readJson(configFile);
+
+    // Models shared by several images are downscaled once.
+    Map<String, JsonArray> generated = new HashMap<>();
+    for (Map.Entry<String, JsonElement> group : json.getAsJsonObject("assets").entrySet()) {
+      for (Map.Entry<String, JsonElement> model : group.getValue().getAsJsonObject().entrySet()) {
+        JsonObject asset = model.getValue().getAsJsonObject();
+        downscaleUrl(asset, root, baseUrl, generated);
+        if (asset.has("lods")) {
+          for (JsonElement lod : asset.getAsJsonArray("lods")) {
+            downscaleUrl(lod.getAsJsonObject(), root, baseUrl, generated);
+          }
+        }
+      }
+    }
+
+    ManifestWriter.writeJson(configFile, json);
+    System.out.println("Upload the texture variants, then run writeManifest.");
+  }
+
+  private static void downscaleUrl(
+      JsonObject entry, File root, String baseUrl, Map<String, JsonArray> generated)
+      throws IOException {
+    String url = entry.get("url").getAsString();
+    if (!url.endsWith(".gltf") && !url.endsWith(".glb")) {
+      return;
+    }
+    if (!url.startsWith(baseUrl)) {
+      System.out.println("Skipping " + url + ", not under " + baseUrl);
+      return;
+    }
+    JsonArray textures = generated.get(url);
+    if (textures == null) {
+      textures = downscale(ManifestWriter.localFile(root, baseUrl, url), url);
+      generated.put(url, textures);
+    }
+    if (textures.size() > 0) {
+      entry.add("textures", textures);
+    } else {
+      entry.remove("textures");
+    }
+  }
+
+  /** Writes the texture variants of one model and returns their configuration entries. */
+  private static JsonArray downscale(File model, String url) throws IOException {
+    String base = url.substring(0, url.lastIndexOf('.'));
+    String fileBase = model.getName().substring(0, model.getName().lastIndexOf('.'));
+    JsonArray variants = new JsonArray();
+    List<MipChain> chains = decodeImages(GlbPacker.load(model));
+    int largest = 0;
+    for (MipChain chain : chains) {
+      largest = Math.max(largest, chain.maxSize());
+    }
+    System.out.printf(
+        "%s: %d images, largest %dpx, %d bytes decoded%n",
+        model, chains.size(), largest, decodedBytes(chains, Integer.MAX_VALUE));
+
+    for (int size : TEXTURE_SIZES) {
+      if (largest <= size) {
+        continue;
+      }
+      long start = System.nanoTime();
+      Glb glb = GlbPacker.load(model);
+      JsonArray images = glb.array("images");
+      for (MipChain chain : chains) {
+        if (chain.maxSize() <= size) {
+          continue;
+        }
+        JsonObject image = images.get(chain.image).getAsJsonObject();
+        byte[] bytes = encode(chain.levelFor(size), image.get("mimeType").getAsString());
+        image.addProperty("bufferView", glb.addView(bytes, 0, bytes.length));
+      }
+      glb.prune();
+      File file = new File(model.getParentFile(), fileBase + "_t" + size + ".glb");
+      long bytes = glb.write(file);
+      File gzip = new File(file.getPath() + ".gz");
+      if (gzip.delete()) {
+        System.out.println("  removed the outdated " + gzip.getName() + ", gzip it again");
+      }
+      System.out.printf(
+          "  max %dpx: %d bytes, %d bytes decoded, %d ms%n",
+          size, bytes, decodedBytes(chains, size), (System.nanoTime() - start) / 1_000_000);
+
+      JsonObject variant = new JsonObject();
+      variant.addProperty("url", base + "_t" + size + ".glb");
+      variant.addProperty("max_size", size);
+      variants.add(variant);
+    }
+    return variants;
+  }
+
+  /** Decodes the images of a model, each with the mip chain its variants are taken from. */
+  private static List<MipChain> decodeImages(Glb glb) throws IOException {
+    Set<Integer> colorImages = colorImages(glb);
+    ByteBuffer data = glb.data();
+    JsonArray views = glb.array("bufferViews");
+    JsonArray images = glb.array("images");
+    List<MipChain> chains = new ArrayList<>();
+    for (int i = 0; i < images.size(); i++) {
+      JsonObject imageJson = images.get(i).getAsJsonObject();
+      if (!imageJson.has("bufferView")) {
+        System.out.println("  image " + i + " is not in the GLB, left as it is");
+        continue;
+      }
+      JsonObject view = views.get(imageJson.get("bufferView").getAsInt()).getAsJsonObject();
+      int offset = view.has("byteOffset") ? view.get("byteOffset").getAsInt() : 0;
+      byte[] bytes = new byte[view.get("byteLength").getAsInt()];
+      data.position(offset);
+      data.get(bytes);
+      BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
+      if (image == null) {
+        throw new IOException("Cannot decode image " + i);
+      }
+      chains.add(new MipChain(i, image, colorImages.contains(i)));
+    }
+    return chains;
+  }
+
+  /** Returns the images holding colors rather than data such as normals, which are sRGB. */
+  private static Set<Integer> colorImages(Glb glb) {
+    JsonArray textures = glb.array("textures");
+    Set<Integer> images = new HashSet<>();
+    for (JsonElement element : glb.array("materials")) {
+      JsonObject material = element.getAsJsonObject();
+      List<JsonObject> infos = new ArrayList<>();
+      if (material.has("pbrMetallicRoughness")) {
+        JsonObject pbr = material.getAsJsonObject("pbrMetallicRoughness");
+        if (pbr.has("baseColorTexture")) {
+          infos.add(pbr.getAsJsonObject("baseColorTexture"));
+        }
+      }
+      if (material.has("emissiveTexture")) {
+        infos.add(material.getAsJsonObject("emissiveTexture"));
+      }
+      for (JsonObject info : infos) {
+        JsonObject texture = textures.get(info.get("index").getAsInt()).getAsJsonObject();
+        if (texture.has("source")) {
+          images.add(texture.get("source").getAsInt());
+        }
+      }
+    }
+    return images;
+  }
+
+  /** Bytes the images take on the GPU once each is capped at {@code size}. */
+  private static long decodedBytes(List<MipChain> chains, int size) {
+    long bytes = 0;
+    for (MipChain chain : chains) {
+      BufferedImage image = chain.maxSize() > size ? chain.levelFor(size) : chain.original;
+      bytes += (long) (image.getWidth() * (long) image.getHeight() * MIPMAPPED_BYTES_PER_TEXEL);
+    }
+    return bytes;
+  }
+
+  private static byte[] encode(BufferedImage image, String mimeType) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    if (mimeType.equals("image/png")) {
+      ImageIO.write(image, "png", out);
+      return out.toByteArray();
+    }
+    if (!mimeType.equals("image/jpeg")) {
+      throw new IOException("Unsupported image type " + mimeType);
+    }
+    BufferedImage rgb = image;
+    if (image.getColorModel().hasAlpha()) {
+      rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+      rgb.createGraphics().drawImage(image, 0, 0, null);
+    }
+    ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+    ImageWriteParam param = writer.getDefaultWriteParam();
+    param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+    param.setCompressionQuality(JPEG_QUALITY);
+    try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+      writer.setOutput(stream);
+      writer.write(null, new IIOImage(rgb, null, null), param);
+    } finally {
+      writer.dispose();
+    }
+    return out.toByteArray();
+  }
+
+  /** An image and its power-of-two mip levels, computed down to the smallest variant size. */
+  static final class MipChain {
+    final int image;
+    final BufferedImage original;
+    private final List<BufferedImage> levels = new ArrayList<>();
+
+    MipChain(int image, BufferedImage original, boolean color) {
+      this.image = image;
+      this.original = original;
+      int width = nearestPowerOfTwo(original.getWidth());
+      int height = nearestPowerOfTwo(original.getHeight());
+      BufferedImage level = resize(original, width, height);
+      levels.add(level);
+      int smallest = TEXTURE_SIZES[TEXTURE_SIZES.length - 1];
+      while (Math.max(level.getWidth(), level.getHeight()) > smallest) {
+        level = halve(level, color);
+        levels.add(level);
+      }
+    }
+
+    int maxSize() {
+      return Math.max(original.getWidth(), original.getHeight());
+    }
+
+    /** Returns the largest level no wider or taller than {@code size}. */
+    BufferedImage levelFor(int size) {
+      for (BufferedImage level : levels) {
+        if (Math.max(level.getWidth(), level.getHeight()) <= size) {
+          return level;
+        }
+      }
+      return levels.get(levels.size() - 1);
+    }
+  }
+
+  static int nearestPowerOfTwo(int n) {
+    int lower = Integer.highestOneBit(n);
+    return n - lower <= lower * 2 - n ? lower : lower * 2;
+  }
+
+  /** Resizes by less than a factor of 1.5, so bicubic filtering in sRGB is close enough. */
+  private static BufferedImage resize(BufferedImage image, int width, int height) {
+    int type =
+        image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+    if (image.getWidth() == width && image.getHeight() == height && image.getType() == type) {
+      return image;
+    }
+    BufferedImage resized = new BufferedImage(width, height, type);
+    Graphics2D graphics = resized.createGraphics();
+    graphics.setRenderingHint(
+        RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+    graphics.drawImage(image, 0, 0, width, height, null);
+    graphics.dispose();
+    return resized;
+  }
+
+  /**
+   * Averages 2x2 texels into one. Color channels are averaged in linear light if {@code color},
+   * and weighted by alpha.
+   */
+  static BufferedImage halve(BufferedImage image, boolean color) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int halfWidth = Math.max(1, width / 2);
+    int halfHeight = Math.max(1, height / 2);
+    int[] texels = image.getRGB(0, 0, width, height, null, 0, width);
+    int[] half = new int[halfWidth * halfHeight];
+    float[] sum = new float[3];
+    for (int y = 0; y < halfHeight; y++) {
+      for (int x = 0; x < halfWidth; x++) {
+        sum[0] = sum[1] = sum[2] = 0;
+        int alphaSum = 0;
+        int count = 0;
+        for (int dy = 0; dy < Math.min(2, height); dy++) {
+          for (int dx = 0; dx < Math.min(2, width); dx++) {
+            int argb = texels[(y * 2 + dy) * width + x * 2 + dx];
+            int alpha = argb >>> 24;
+            // Fully transparent blocks fall back to an unweighted average below.
+            float weight = alpha + 1e-3f;
+            for (int c = 0; c < 3; c++) {
+              int value = (argb >> (16 - 8 * c)) & 0xFF;
+              sum[c] += weight * (color ? SRGB_TO_LINEAR[value] : value / 255f);
+            }
+            alphaSum += alpha;
+            count++;
+          }
+        }
+        float weights = alphaSum + count * 1e-3f;
+        int argb = Math.round((float) alphaSum / count) << 24;
+        for (int c = 0; c < 3; c++) {
+          float value = sum[c] / weights;
+          if (color) {
+            value = linearToSrgb(value);
+          }
+          argb |= Math.round(Math.min(1f, Math.max(0f, value)) * 255) << (16 - 8 * c);
+        }
+        half[y * halfWidth + x] = argb;
+      }
+    }
+    BufferedImage result = new BufferedImage(halfWidth, halfHeight, image.getType());
+    result.setRGB(0, 0, halfWidth, halfHeight, half, 0, halfWidth);
+    return result;
+  }
+
+  private static float linearToSrgb(float value) {
+    return (float)
+        (value <= 0.0031308 ? value * 12.92 : 1.055 * Math.pow(value, 1 / 2.4) - 0.055);
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.tools;
+
+import com.google.ar.sceneform.samples.augmentedimage.tracking.FrameDispatcher;
+import com.google.ar.sceneform.samples.augmentedimage.tracking.ImageTracker;
+import com.google.ar.sceneform.samples.augmentedimage.tracking.ImageTracker.State;
+import com.google.ar.sceneform.samples.augmentedimage.tracking.TraceFrame;
+import com.google.ar.sceneform.samples.augmentedimage.tracking.TraceFrame.TrackingState;
+import com.google.ar.sceneform.samples.augmentedimage.tracking.TraceReader;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Replays a trace recorded by the app's {@code TraceRecorder} through {@link ImageTracker}, the
+ * frame handling behind {@code ImageLifecycle}, and reports what it did and how long it took.
+ *
+ * <p>Each frame goes through the app's {@link FrameDispatcher}: the tracker is updated, then,
+ * while the camera is tracking, each updated image is detected, tracked and added, or stopped.
+ * Scene changes are counted instead of made. The state changes are summed
+ * into a digest, which is the same on every run of the same trace; pass the digest of a known
+ * good run to fail when the behavior changes. Timings are the median over {@value #RUNS} runs,
+ * after {@value #WARMUP_RUNS} warm-up runs.
+ *
+ * <p>Usage: {@code ./gradlew :tools:replayTrace -Ptrace=<file> [-Pdigest=<hex>]}
+ */
+public final class TraceReplay {
+
+  private static final int WARMUP_RUNS = 5;
+  private static final int RUNS = 20;
+
+  private TraceReplay() {}
+
+  /** Counts and digests the state changes of one run. */
+  private static final class Recorder implements ImageTracker.Listener {
+    final int[] changesTo = new int[State.values().length];
+    final CRC32 digest = new CRC32();
+    int trackingCalls;
+
+    @Override
+    public void onStateChanged(int index, State from, State to) {
+      changesTo[to.ordinal()]++;
+      // Image databases hold at most 1000 images.
+      digest.update(index >>> 8);
+      digest.update(index);
+      digest.update(from.ordinal());
+      digest.update(to.ordinal());
+    }
+
+    @Override
+    public void onTracking(int index) {
+      trackingCalls++;
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1 || args[0].isEmpty()) {
+      System.err.println("Usage: TraceReplay <trace> [<digest>]");
+      System.exit(2);
+    }
+    List<TraceFrame> frames = read(args[0]);
+    if (frames.isEmpty()) {
+      System.err.println("No frames in " + args[0]);
+      System.exit(1);
+    }
+
+    for (int run = 0; run < WARMUP_RUNS; run++) {
+      replay(frames, new Recorder(), new long[frames.size()]);
+    }
+    long[][] runNanos = new long[RUNS][frames.size()];
+    Recorder recorder = null;
+    int maxNodes = 0;
+    for (int run = 0; run < RUNS; run++) {
+      recorder = new Recorder();
+      maxNodes = replay(frames, recorder, runNanos[run]);
+    }
+
+    long[] frameNanos = new long[frames.size()];
+    long[] runTotals = new long[RUNS];
+    for (int frame = 0; frame < frames.size(); frame++) {
+      long[] samples = new long[RUNS];
+      for (int run = 0; run < RUNS; run++) {
+        samples[run] = runNanos[run][frame];
+        runTotals[run] += runNanos[run][frame];
+      }
+      frameNanos[frame] = median(samples);
+    }
+    Arrays.sort(frameNanos);
+
+    long first = frames.get(0).getTimestampNanos();
+    long last = frames.get(frames.size() - 1).getTimestampNanos();
+    System.out.printf("Trace: %d frames over %.1f s%n", frames.size(), (last - first) / 1e9);
+    StringBuilder changes = new StringBuilder();
+    for (State state : State.values()) {
+      changes.append(String.format(" %s %d,", state, recorder.changesTo[state.ordinal()]));
+    }
+    System.out.println("Changes to:" + changes.substring(0, changes.length() - 1));
+    System.out.printf("Nodes: at most %d; culling passes: %d%n", maxNodes, recorder.trackingCalls);
+    System.out.printf(
+        "Per frame: p50 %d ns, p99 %d ns, max %d ns; whole trace %.2f ms%n",
+        frameNanos[frameNanos.length / 2],
+        frameNanos[(int) (0.99 * (frameNanos.length - 1))],
+        frameNanos[frameNanos.length - 1],
+        median(runTotals) / 1e6);
+    String digest = Long.toHexString(recorder.digest.getValue());
+    System.out.println("Digest: " + digest);
+
+    if (args.length > 1 && !args[1].isEmpty()) {
+      boolean pass = args[1].equalsIgnoreCase(digest);
+      System.out.println(pass ? "PASS" : "FAIL: expected digest " + args[1]);
+      System.exit(pass ? 0 : 1);
+    }
+  }
+
+  private static List<TraceFrame> read(String path) throws IOException {
+    List<TraceFrame> frames = new ArrayList<>();
+    try (InputStream in = new BufferedInputStream(new FileInputStream(path))) {
+      TraceReader reader = new TraceReader(in);
+      for (TraceFrame frame = reader.next(); frame != null; frame = reader.next()) {
+        frames.add(frame);
+      }
+    }
+    return frames;
+  }
+
+  /** Replays every frame, storing the time each took, and returns the most nodes at once. */
+  private static int replay(List<TraceFrame> frames, Recorder recorder, long[] frameNanos) {
+    ImageTracker tracker = new ImageTracker(recorder);
+    FrameDispatcher<TraceFrame.Image> dispatcher =
+        new FrameDispatcher<>(
+            new FrameDispatcher.Target<TraceFrame.Image>() {
+              @Override
+              public TrackingState stateOf(TraceFrame.Image image) {
+                return image.getState();
+              }
+
+              @Override
+              public void update(long now) {
+                tracker.update(now);
+              }
+
+              @Override
+              public void detected(TraceFrame.Image image, long now) {
+                tracker.detected(image.getIndex());
+              }
+
+              @Override
+              public boolean tracked(TraceFrame.Image image, long now) {
+                return tracker.tracked(image.getIndex(), now);
+              }
+
+              @Override
+              public void add(TraceFrame.Image image, long now) {
+                tracker.add(image.getIndex(), now);
+              }
+
+              @Override
+              public void stopped(TraceFrame.Image image) {
+                tracker.stopped(image.getIndex());
+              }
+            },
+            0);
+    long first = frames.get(0).getTimestampNanos();
+    int maxNodes = 0;
+    for (int i = 0; i < frames.size(); i++) {
+      TraceFrame frame = frames.get(i);
+      long start = System.nanoTime();
+      long now = (frame.getTimestampNanos() - first) / 1000000;
+      // Replayed as if someone were using the app the whole time.
+      dispatcher.onFrame(now, false, frame.getCameraState(), frame.getImages());
+      frameNanos[i] = System.nanoTime() - start;
+      maxNodes = Math.max(maxNodes, tracker.getNodeCount());
+    }
+    return maxNodes;
+  }
+
+  private static long median(long[] values) {
+    long[] sorted = values.clone();
+    Arrays.sort(sorted);
+    return sorted[sorted.length / 2];
+  }
+}
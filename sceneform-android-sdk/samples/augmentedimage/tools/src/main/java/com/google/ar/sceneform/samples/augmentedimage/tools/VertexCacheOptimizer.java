@@ -0,0 +1,405 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reorders indexed triangle meshes so the GPU shades fewer vertices and fragments.
+ *
+ * <p>{@link #optimizeVertexCache} orders triangles for the post-transform vertex cache with Tom
+ * Forsyth's "Linear-Speed Vertex Cache Optimisation" (2006). {@link #optimizeOverdraw} then splits
+ * that order into clusters where the cache starts over anyway and draws the clusters facing out of
+ * the mesh first, so they hide what is behind them. {@link #fetchOrder} numbers the vertices in
+ * the order the triangles first use them, for memory locality when they are fetched.
+ */
+final class VertexCacheOptimizer {
+
+  // Size of the LRU cache the triangle order is tuned for.
+  private static final int CACHE_SIZE = 32;
+  private static final float CACHE_DECAY_POWER = 1.5f;
+  // Vertices of the last triangle score lower, so the next one does not simply reuse them.
+  private static final float LAST_TRIANGLE_SCORE = 0.75f;
+  private static final float VALENCE_BOOST_SCALE = 2f;
+  private static final float VALENCE_BOOST_POWER = 0.5f;
+
+  // Size of the FIFO cache the statistics and overdraw clusters assume, as on most mobile GPUs.
+  static final int FIFO_SIZE = 16;
+
+  private VertexCacheOptimizer() {}
+
+  /**
+   * Maps each vertex to the first vertex whose bytes are identical.
+   *
+   * @param vertices the bytes of every attribute of each vertex, {@code stride} bytes per vertex
+   */
+  static int[] weld(byte[] vertices, int stride) {
+    int count = stride > 0 ? vertices.length / stride : 0;
+    int[] remap = new int[count];
+    Map<VertexBytes, Integer> first = new HashMap<>();
+    for (int i = 0; i < count; i++) {
+      Integer existing = first.putIfAbsent(new VertexBytes(vertices, i * stride, stride), i);
+      remap[i] = existing != null ? existing : i;
+    }
+    return remap;
+  }
+
+  private static final class VertexBytes {
+    final byte[] bytes;
+    final int offset;
+    final int length;
+    final int hash;
+
+    VertexBytes(byte[] bytes, int offset, int length) {
+      this.bytes = bytes;
+      this.offset = offset;
+      this.length = length;
+      int hash = 1;
+      for (int i = offset; i < offset + length; i++) {
+        hash = 31 * hash + bytes[i];
+      }
+      this.hash = hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof VertexBytes)) {
+        return false;
+      }
+      VertexBytes that = (VertexBytes) other;
+      if (length != that.length || hash != that.hash) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (bytes[offset + i] != that.bytes[that.offset + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /** Returns the triangles of {@code indices} in an order that reuses cached vertices. */
+  static int[] optimizeVertexCache(int[] indices, int vertexCount) {
+    int triangleCount = indices.length / 3;
+    // Triangles using each vertex, packed; the first remaining[v] of a vertex's are not emitted.
+    int[] remaining = new int[vertexCount];
+    for (int index : indices) {
+      remaining[index]++;
+    }
+    int[] offsets = new int[vertexCount + 1];
+    for (int v = 0; v < vertexCount; v++) {
+      offsets[v + 1] = offsets[v] + remaining[v];
+    }
+    int[] adjacency = new int[indices.length];
+    int[] fill = Arrays.copyOf(offsets, vertexCount);
+    for (int i = 0; i < indices.length; i++) {
+      adjacency[fill[indices[i]]++] = i / 3;
+    }
+
+    float[] vertexScores = new float[vertexCount];
+    for (int v = 0; v < vertexCount; v++) {
+      vertexScores[v] = vertexScore(-1, remaining[v]);
+    }
+    float[] triangleScores = new float[triangleCount];
+    for (int t = 0; t < triangleCount; t++) {
+      triangleScores[t] =
+          vertexScores[indices[t * 3]]
+              + vertexScores[indices[t * 3 + 1]]
+              + vertexScores[indices[t * 3 + 2]];
+    }
+    boolean[] emitted = new boolean[triangleCount];
+
+    int[] cache = new int[CACHE_SIZE + 3];
+    int cacheCount = 0;
+    int[] nextCache = new int[CACHE_SIZE + 3];
+    int[] result = new int[indices.length];
+    int best = bestTriangle(triangleScores, emitted, 0);
+    // Triangles before this one are all emitted, so full scans resume from here.
+    int scanStart = 0;
+    for (int output = 0; output < triangleCount; output++) {
+      if (best < 0) {
+        while (emitted[scanStart]) {
+          scanStart++;
+        }
+        best = bestTriangle(triangleScores, emitted, scanStart);
+      }
+      emitted[best] = true;
+      int nextCount = 0;
+      for (int corner = 0; corner < 3; corner++) {
+        int vertex = indices[best * 3 + corner];
+        result[output * 3 + corner] = vertex;
+        nextCache[nextCount++] = vertex;
+        // Drop the emitted triangle from the vertex's remaining ones.
+        int start = offsets[vertex];
+        int last = start + remaining[vertex] - 1;
+        for (int i = start; i <= last; i++) {
+          if (adjacency[i] == best) {
+            adjacency[i] = adjacency[last];
+            adjacency[last] = best;
+            break;
+          }
+        }
+        remaining[vertex]--;
+      }
+      for (int i = 0; i < cacheCount; i++) {
+        int vertex = cache[i];
+        if (vertex != nextCache[0] && vertex != nextCache[1] && vertex != nextCache[2]) {
+          nextCache[nextCount++] = vertex;
+        }
+      }
+      int[] swap = cache;
+      cache = nextCache;
+      nextCache = swap;
+      cacheCount = nextCount;
+
+      // Rescore the cached vertices, including those just pushed out, and their triangles.
+      for (int i = 0; i < cacheCount; i++) {
+        int vertex = cache[i];
+        int position = i < CACHE_SIZE ? i : -1;
+        float delta = vertexScore(position, remaining[vertex]) - vertexScores[vertex];
+        vertexScores[vertex] += delta;
+        for (int a = offsets[vertex]; a < offsets[vertex] + remaining[vertex]; a++) {
+          triangleScores[adjacency[a]] += delta;
+        }
+      }
+      best = -1;
+      float bestScore = -Float.MAX_VALUE;
+      for (int i = 0; i < Math.min(cacheCount, CACHE_SIZE); i++) {
+        int vertex = cache[i];
+        for (int a = offsets[vertex]; a < offsets[vertex] + remaining[vertex]; a++) {
+          int triangle = adjacency[a];
+          if (triangleScores[triangle] > bestScore) {
+            bestScore = triangleScores[triangle];
+            best = triangle;
+          }
+        }
+      }
+      cacheCount = Math.min(cacheCount, CACHE_SIZE);
+    }
+    return result;
+  }
+
+  private static int bestTriangle(float[] scores, boolean[] emitted, int from) {
+    int best = -1;
+    for (int t = from; t < scores.length; t++) {
+      if (!emitted[t] && (best < 0 || scores[t] > scores[best])) {
+        best = t;
+      }
+    }
+    return best;
+  }
+
+  private static float vertexScore(int cachePosition, int remainingTriangles) {
+    if (remainingTriangles == 0) {
+      return -1f;
+    }
+    float score = 0f;
+    if (cachePosition >= 0) {
+      if (cachePosition < 3) {
+        score = LAST_TRIANGLE_SCORE;
+      } else {
+        float scale = 1f / (CACHE_SIZE - 3);
+        score = (float) Math.pow(1f - (cachePosition - 3) * scale, CACHE_DECAY_POWER);
+      }
+    }
+    return score
+        + VALENCE_BOOST_SCALE * (float) Math.pow(remainingTriangles, -VALENCE_BOOST_POWER);
+  }
+
+  /**
+   * Reorders clusters of a cache-optimized triangle order so outward-facing ones come first,
+   * splitting clusters where that costs at most {@code threshold} times their cache misses.
+   */
+  static int[] optimizeOverdraw(
+      int[] indices, float[] positions, int vertexCount, float threshold) {
+    int triangleCount = indices.length / 3;
+    if (triangleCount == 0) {
+      return indices.clone();
+    }
+    List<Integer> clusters = new ArrayList<>();
+    FifoCache cache = new FifoCache(vertexCount);
+    List<Integer> hard = new ArrayList<>();
+    for (int t = 0; t < triangleCount; t++) {
+      // A triangle whose vertices all miss starts a patch disjoint from the ones before.
+      if (cache.misses(indices, t) == 3) {
+        hard.add(t);
+      }
+    }
+    hard.add(triangleCount);
+    for (int h = 0; h + 1 < hard.size(); h++) {
+      int start = hard.get(h);
+      int end = hard.get(h + 1);
+      cache.reset();
+      int clusterMisses = 0;
+      for (int t = start; t < end; t++) {
+        clusterMisses += cache.misses(indices, t);
+      }
+      float clusterThreshold = threshold * clusterMisses / (end - start);
+
+      clusters.add(start);
+      cache.reset();
+      int misses = 0;
+      int faces = 0;
+      for (int t = start; t < end; t++) {
+        misses += cache.misses(indices, t);
+        faces++;
+        if ((float) misses / faces <= clusterThreshold && t + 1 < end) {
+          // Splitting here costs no more than the threshold allows.
+          clusters.add(t + 1);
+          cache.reset();
+          misses = 0;
+          faces = 0;
+        }
+      }
+    }
+    clusters.add(triangleCount);
+
+    float[] meshCentroid = new float[3];
+    float meshArea = 0f;
+    int clusterCount = clusters.size() - 1;
+    float[][] centroids = new float[clusterCount][3];
+    float[][] normals = new float[clusterCount][3];
+    for (int c = 0; c < clusterCount; c++) {
+      float area = 0f;
+      for (int t = clusters.get(c); t < clusters.get(c + 1); t++) {
+        int a = indices[t * 3] * 3;
+        int b = indices[t * 3 + 1] * 3;
+        int d = indices[t * 3 + 2] * 3;
+        float[] u = {
+          positions[b] - positions[a], positions[b + 1] - positions[a + 1],
+          positions[b + 2] - positions[a + 2]
+        };
+        float[] v = {
+          positions[d] - positions[a], positions[d + 1] - positions[a + 1],
+          positions[d + 2] - positions[a + 2]
+        };
+        float nx = u[1] * v[2] - u[2] * v[1];
+        float ny = u[2] * v[0] - u[0] * v[2];
+        float nz = u[0] * v[1] - u[1] * v[0];
+        float triangleArea = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+        for (int axis = 0; axis < 3; axis++) {
+          float center = (positions[a + axis] + positions[b + axis] + positions[d + axis]) / 3;
+          centroids[c][axis] += center * triangleArea;
+          meshCentroid[axis] += center * triangleArea;
+        }
+        normals[c][0] += nx;
+        normals[c][1] += ny;
+        normals[c][2] += nz;
+        area += triangleArea;
+      }
+      for (int axis = 0; axis < 3; axis++) {
+        centroids[c][axis] = area > 0 ? centroids[c][axis] / area : 0f;
+      }
+      meshArea += area;
+    }
+    for (int axis = 0; axis < 3; axis++) {
+      meshCentroid[axis] = meshArea > 0 ? meshCentroid[axis] / meshArea : 0f;
+    }
+
+    // Clusters facing away from the middle of the mesh occlude the rest, so they go first.
+    float[] outwardness = new float[clusterCount];
+    Integer[] order = new Integer[clusterCount];
+    for (int c = 0; c < clusterCount; c++) {
+      float[] n = normals[c];
+      float length = (float) Math.sqrt(n[0] * n[0] + n[1] * n[1] + n[2] * n[2]);
+      float dot = 0f;
+      for (int axis = 0; axis < 3; axis++) {
+        dot += (centroids[c][axis] - meshCentroid[axis]) * n[axis];
+      }
+      outwardness[c] = length > 0 ? dot / length : 0f;
+      order[c] = c;
+    }
+    Arrays.sort(order, (a, b) -> Float.compare(outwardness[b], outwardness[a]));
+
+    int[] result = new int[indices.length];
+    int output = 0;
+    for (int c : order) {
+      int from = clusters.get(c) * 3;
+      int to = clusters.get(c + 1) * 3;
+      System.arraycopy(indices, from, result, output, to - from);
+      output += to - from;
+    }
+    return result;
+  }
+
+  /**
+   * Numbers vertices in the order {@code indices} first uses them.
+   *
+   * @return the new number of each vertex, or -1 for vertices no triangle uses
+   */
+  static int[] fetchOrder(int[] indices, int vertexCount) {
+    int[] remap = new int[vertexCount];
+    Arrays.fill(remap, -1);
+    int next = 0;
+    for (int index : indices) {
+      if (remap[index] < 0) {
+        remap[index] = next++;
+      }
+    }
+    return remap;
+  }
+
+  /** Number of vertices a FIFO cache of {@link #FIFO_SIZE} entries transforms for the triangles. */
+  static int transformedVertices(int[] indices, int vertexCount) {
+    FifoCache cache = new FifoCache(vertexCount);
+    int transformed = 0;
+    for (int t = 0; t < indices.length / 3; t++) {
+      transformed += cache.misses(indices, t);
+    }
+    return transformed;
+  }
+
+  /** Simulates a post-transform cache that evicts the oldest vertex. */
+  private static final class FifoCache {
+    // Time each vertex entered the cache; it is cached while that is within FIFO_SIZE misses.
+    private final int[] entered;
+    private int time;
+
+    FifoCache(int vertexCount) {
+      entered = new int[vertexCount];
+      reset();
+    }
+
+    void reset() {
+      Arrays.fill(entered, Integer.MIN_VALUE / 2);
+      time = 0;
+    }
+
+    /** Processes a triangle and returns how many of its vertices had to be transformed. */
+    int misses(int[] indices, int triangle) {
+      int misses = 0;
+      for (int corner = 0; corner < 3; corner++) {
+        int vertex = indices[triangle * 3 + corner];
+        if (time - entered[vertex] >= FIFO_SIZE) {
+          entered[vertex] = ++time;
+          misses++;
+        }
+      }
+      return misses;
+    }
+  }
+}
@@ -0,0 +1,619 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.sceneform.samples.augmentedimage.tools;
+
+import com.google.ar.sceneform.samples.augmentedimage.assets.Glb;
+import com.google.ar.sceneform.samples.augmentedimage.assets.VertexDequantizer;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Quantizes the vertex data of every glTF and GLB model of an AR assets configuration, including
+ * levels of detail, and points the configuration at the quantized files.
+ *
+ * <p>Float positions become 16-bit normalized integers within the mesh's bounding cube; the node
+ * showing the mesh moves to a child node whose translation and uniform scale map them back. Float
+ * normals become octahedral pairs of 8 bits, stored in the padding of the position element, or of
+ * 16 bits if 8 bits would turn some normal by more than {@link #MAX_NORMAL_ERROR_DEGREES}. Float
+ * colors become 8-bit. Meshes that are skinned or have morph targets are left as they are.
+ *
+ * <p>The app expands quantized models on the device with {@link VertexDequantizer}, so each
+ * model's report lists the download size before and after, the vertex bytes after expansion and
+ * the largest error of each attribute.
+ *
+ * <p>The quantized models are written as {@code <name>_q.glb} next to the models in a local copy
+ * of the bucket. Upload them, then run {@code writeManifest} and upload the configuration.
+ *
+ * <p>Usage: {@code ./gradlew :tools:quantizeVertices -Pconfig=ar-assets-config.json -Proot=arbio/
+ * -PbaseUrl=https://storage.googleapis.com/arbio/}
+ */
+public final class VertexQuantizer {
+
+  static final double MAX_NORMAL_ERROR_DEGREES = 1.0;
+
+  private static final String QUANTIZED_SUFFIX = "_q.glb";
+  private static final int POSITION_LEVELS = 0xFFFF;
+
+  private VertexQuantizer() {}
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 3) {
+      System.err.println("Usage: VertexQuantizer <config.json> <bucket directory> <bucket URL>");
+      System.exit(2);
+    }
+    File configFile = new File(args[0]);
+    File root = new File(args[1]);
+    String baseUrl = args[2].endsWith("/") ? args[2] : args[2] + "/";
+    JsonObject json = ManifestWriter.readJson(configFile);
+
+    // Models shared by several images are quantized once.
+    Map<String, String> quantized = new HashMap<>();
+    for (Map.Entry<String, JsonElement> group : json.getAsJsonObject("assets").entrySet()) {
+      for (Map.Entry<String, JsonElement> model : group.getValue().getAsJsonObject().entrySet()) {
+        JsonObject asset = model.getValue().getAsJsonObject();
+        quantizeUrl(asset, root, baseUrl, quantized);
+        if (asset.has("lods")) {
+          for (JsonElement lod : asset.getAsJsonArray("lods")) {
+            quantizeUrl(lod.getAsJsonObject(), root, baseUrl, quantized);
+          }
+        }
+      }
+    }
+
+    ManifestWriter.writeJson(configFile, json);
+    System.out.printf(
+        "Checked %d models. Upload the quantized files, then run writeManifest.%n",
+        quantized.size());
+  }
+
+  private static void quantizeUrl(
+      JsonObject entry, File root, String baseUrl, Map<String, String> quantized)
+      throws IOException {
+    String url = entry.get("url").getAsString();
+    if (url.endsWith(QUANTIZED_SUFFIX) || (!url.endsWith(".gltf") && !url.endsWith(".glb"))) {
+      return;
+    }
+    if (!url.startsWith(baseUrl)) {
+      System.out.println("Skipping " + url + ", not under " + baseUrl);
+      return;
+    }
+    String quantizedUrl = quantized.get(url);
+    if (quantizedUrl == null) {
+      File model = ManifestWriter.localFile(root, baseUrl, url);
+      String name = model.getName().substring(0, model.getName().lastIndexOf('.'));
+      File output = new File(model.getParentFile(), name + QUANTIZED_SUFFIX);
+      Report report = quantize(model, output);
+      System.out.println(report);
+      if (report.meshesQuantized == 0) {
+        // Keep the original rather than upload a copy.
+        output.delete();
+        quantized.put(url, url);
+        return;
+      }
+      quantizedUrl = url.substring(0, url.lastIndexOf('.')) + QUANTIZED_SUFFIX;
+      quantized.put(url, quantizedUrl);
+    }
+    entry.addProperty("url", quantizedUrl);
+  }
+
+  /** Sizes and largest errors of one quantized model. */
+  static final class Report {
+    final String name;
+    long bytesBefore;
+    long bytesAfter;
+    long gzipBytesBefore;
+    long gzipBytesAfter;
+    long vertexBytesBefore;
+    long vertexBytesQuantized;
+    long vertexBytesExpanded;
+    int meshesQuantized;
+    int meshesSkipped;
+    int normals8Bit;
+    int normals16Bit;
+    // In model units and as a share of the model's bounding box diagonal.
+    double positionError;
+    double diagonal;
+    double normalErrorDegrees;
+    // In steps of 1/255.
+    double colorError;
+
+    Report(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%s:%n"
+              + "  file %d -> %d bytes (%.0f%%), gzip %d -> %d bytes (%.0f%%)%n"
+              + "  vertex data %d -> %d bytes (%.0f%%), %d bytes expanded on the device%n"
+              + "  position error %.3g (%.4f%% of diagonal), normal error %.2f deg"
+              + " (%d 8-bit, %d 16-bit), color error %.2f/255%s",
+          name,
+          bytesBefore,
+          bytesAfter,
+          percent(bytesAfter, bytesBefore),
+          gzipBytesBefore,
+          gzipBytesAfter,
+          percent(gzipBytesAfter, gzipBytesBefore),
+          vertexBytesBefore,
+          vertexBytesQuantized,
+          percent(vertexBytesQuantized, vertexBytesBefore),
+          vertexBytesExpanded,
+          positionError,
+          diagonal > 0 ? 100 * positionError / diagonal : 0,
+          normalErrorDegrees,
+          normals8Bit,
+          normals16Bit,
+          colorError,
+          meshesSkipped > 0 ? String.format("%n  %d meshes skipped", meshesSkipped) : "");
+    }
+
+    private static double percent(long part, long whole) {
+      return whole > 0 ? 100.0 * part / whole : 0;
+    }
+  }
+
+  /** Writes a quantized copy of {@code model} to {@code output} and compares the two. */
+  static Report quantize(File model, File output) throws IOException {
+    Report report = new Report(model.getPath());
+    Glb original = GlbPacker.load(model);
+    report.vertexBytesBefore = vertexBytes(original);
+    // Sized as a GLB, so a .gltf model is compared without the overhead of separate files.
+    report.bytesBefore = original.write(output);
+    report.gzipBytesBefore = gzipSize(output);
+
+    Glb glb = GlbPacker.load(model);
+    quantize(glb, report);
+    report.vertexBytesQuantized = vertexBytes(glb);
+    report.bytesAfter = glb.write(output);
+    report.gzipBytesAfter = gzipSize(output);
+
+    // Measure the errors on what the device will render.
+    Glb expanded = Glb.read(output);
+    VertexDequantizer.expand(expanded);
+    report.vertexBytesExpanded = vertexBytes(expanded);
+    compare(original, expanded, report);
+    return report;
+  }
+
+  static void quantize(Glb glb, Report report) {
+    ByteBuffer data = glb.data();
+    JsonArray meshes = glb.array("meshes");
+    boolean anyNormals = false;
+    for (int mesh = 0; mesh < meshes.size(); mesh++) {
+      JsonArray primitives = meshes.get(mesh).getAsJsonObject().getAsJsonArray("primitives");
+      if (!isQuantizable(glb, mesh, primitives)) {
+        report.meshesSkipped++;
+        continue;
+      }
+
+      // One bounding cube for all primitives, as they share the dequantization transform.
+      float[] min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+      float extent = 0f;
+      float[] max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+      for (JsonElement primitive : primitives) {
+        float[] positions = glb.readFloats(data, position(glb, primitive));
+        for (int i = 0; i < positions.length; i++) {
+          min[i % 3] = Math.min(min[i % 3], positions[i]);
+          max[i % 3] = Math.max(max[i % 3], positions[i]);
+        }
+      }
+      for (int axis = 0; axis < 3; axis++) {
+        extent = Math.max(extent, max[axis] - min[axis]);
+      }
+      if (extent <= 0f) {
+        extent = 1f;
+      }
+
+      // Primitives that differ only in material share their vertices.
+      Map<String, JsonObject> done = new HashMap<>();
+      Map<Integer, Integer> colorsDone = new HashMap<>();
+      for (JsonElement element : primitives) {
+        JsonObject attributes = element.getAsJsonObject().getAsJsonObject("attributes");
+        String key = attributes.get("POSITION") + "/" + attributes.get("NORMAL");
+        JsonObject previous = done.get(key);
+        if (previous != null) {
+          copyAttribute(previous, attributes, "POSITION");
+          copyAttribute(previous, attributes, "NORMAL");
+        } else {
+          quantizePositionsAndNormals(glb, data, attributes, min, extent, report);
+          done.put(key, attributes);
+        }
+        anyNormals |= attributes.has("NORMAL");
+        if (attributes.has("COLOR_0")) {
+          int index = attributes.get("COLOR_0").getAsInt();
+          Integer quantizedColors = colorsDone.get(index);
+          if (quantizedColors == null) {
+            JsonObject colors = glb.accessor(index);
+            quantizedColors =
+                colors.get("componentType").getAsInt() == Glb.FLOAT
+                    ? quantizeColors(glb, data, colors)
+                    : index;
+            colorsDone.put(index, quantizedColors);
+          }
+          attributes.addProperty("COLOR_0", quantizedColors);
+        }
+      }
+      report.meshesQuantized++;
+      moveToDequantizationNodes(glb, mesh, min, extent);
+    }
+
+    if (report.meshesQuantized > 0) {
+      addExtension(glb, VertexDequantizer.MESH_QUANTIZATION);
+    }
+    if (anyNormals) {
+      addExtension(glb, VertexDequantizer.OCTAHEDRAL_NORMALS);
+    }
+    glb.prune();
+  }
+
+  private static boolean isQuantizable(Glb glb, int mesh, JsonArray primitives) {
+    for (JsonElement element : primitives) {
+      JsonObject primitive = element.getAsJsonObject();
+      if (primitive.has("targets") || !primitive.getAsJsonObject("attributes").has("POSITION")) {
+        return false;
+      }
+      JsonObject attributes = primitive.getAsJsonObject("attributes");
+      for (String attribute : new String[] {"POSITION", "NORMAL"}) {
+        if (attributes.has(attribute)) {
+          JsonObject accessor = glb.accessor(attributes.get(attribute).getAsInt());
+          if (accessor.get("componentType").getAsInt() != Glb.FLOAT || accessor.has("sparse")) {
+            return false;
+          }
+        }
+      }
+    }
+    boolean shown = false;
+    for (JsonElement element : glb.array("nodes")) {
+      JsonObject node = element.getAsJsonObject();
+      if (node.has("mesh") && node.get("mesh").getAsInt() == mesh) {
+        if (node.has("skin")) {
+          return false;
+        }
+        shown = true;
+      }
+    }
+    return shown;
+  }
+
+  /** Replaces the positions of a primitive, and its normals if it has any, with quantized ones. */
+  private static void quantizePositionsAndNormals(
+      Glb glb, ByteBuffer data, JsonObject attributes, float[] min, float extent, Report report) {
+    float[] positions = glb.readFloats(data, glb.accessor(attributes.get("POSITION").getAsInt()));
+    int count = positions.length / 3;
+    float[] normals =
+        attributes.has("NORMAL")
+            ? glb.readFloats(data, glb.accessor(attributes.get("NORMAL").getAsInt()))
+            : null;
+    short[] octahedral8 = normals != null ? encodeOctahedral(normals, 8) : null;
+    boolean use8Bit =
+        normals != null
+            && maxAngleDegrees(
+                    normals, VertexDequantizer.decodeOctahedral(dequantize(octahedral8, 8)))
+                <= MAX_NORMAL_ERROR_DEGREES;
+
+    // Each position takes 8 bytes: three shorts, then an 8-bit normal or padding.
+    ByteBuffer buffer = ByteBuffer.allocate(count * 8).order(ByteOrder.LITTLE_ENDIAN);
+    int[] quantizedMin = {POSITION_LEVELS, POSITION_LEVELS, POSITION_LEVELS};
+    int[] quantizedMax = {0, 0, 0};
+    for (int i = 0; i < count; i++) {
+      for (int axis = 0; axis < 3; axis++) {
+        int value =
+            Math.round((positions[i * 3 + axis] - min[axis]) / extent * POSITION_LEVELS);
+        value = Math.max(0, Math.min(POSITION_LEVELS, value));
+        quantizedMin[axis] = Math.min(quantizedMin[axis], value);
+        quantizedMax[axis] = Math.max(quantizedMax[axis], value);
+        buffer.putShort((short) value);
+      }
+      if (use8Bit) {
+        buffer.put((byte) octahedral8[i * 2]);
+        buffer.put((byte) octahedral8[i * 2 + 1]);
+      } else {
+        buffer.putShort((short) 0);
+      }
+    }
+    int view = glb.addVertexView(buffer.array(), 8, 6);
+    JsonObject position = new JsonObject();
+    position.addProperty("bufferView", view);
+    position.addProperty("componentType", Glb.UNSIGNED_SHORT);
+    position.addProperty("normalized", true);
+    position.addProperty("count", count);
+    position.addProperty("type", "VEC3");
+    position.add("min", normalizedBounds(quantizedMin));
+    position.add("max", normalizedBounds(quantizedMax));
+    attributes.addProperty("POSITION", glb.addAccessor(position));
+    if (normals == null) {
+      return;
+    }
+
+    JsonObject normal = new JsonObject();
+    if (use8Bit) {
+      normal.addProperty("bufferView", view);
+      normal.addProperty("byteOffset", 6);
+      normal.addProperty("componentType", Glb.BYTE);
+      report.normals8Bit++;
+    } else {
+      ByteBuffer normalBuffer = ByteBuffer.allocate(count * 4).order(ByteOrder.LITTLE_ENDIAN);
+      for (short value : encodeOctahedral(normals, 16)) {
+        normalBuffer.putShort(value);
+      }
+      normal.addProperty("bufferView", glb.addVertexView(normalBuffer.array(), 4, 4));
+      normal.addProperty("componentType", Glb.SHORT);
+      report.normals16Bit++;
+    }
+    normal.addProperty("normalized", true);
+    normal.addProperty("count", count);
+    normal.addProperty("type", "VEC2");
+    attributes.addProperty("NORMAL", glb.addAccessor(normal));
+  }
+
+  private static int quantizeColors(Glb glb, ByteBuffer data, JsonObject source) {
+    String type = source.get("type").getAsString();
+    int components = type.equals("VEC3") ? 3 : 4;
+    float[] colors = glb.readFloats(data, source);
+    int count = colors.length / components;
+    byte[] bytes = new byte[count * 4];
+    for (int i = 0; i < count; i++) {
+      for (int c = 0; c < components; c++) {
+        float value = Math.max(0f, Math.min(1f, colors[i * components + c]));
+        bytes[i * 4 + c] = (byte) Math.round(value * 255);
+      }
+    }
+    JsonObject accessor = new JsonObject();
+    accessor.addProperty("bufferView", glb.addVertexView(bytes, 4, components));
+    accessor.addProperty("componentType", Glb.UNSIGNED_BYTE);
+    accessor.addProperty("normalized", true);
+    accessor.addProperty("count", count);
+    accessor.addProperty("type", type);
+    return glb.addAccessor(accessor);
+  }
+
+  /**
+   * Moves the mesh from every node showing it to a new child node whose transform maps the
+   * quantized positions back to model space.
+   */
+  private static void moveToDequantizationNodes(Glb glb, int mesh, float[] min, float extent) {
+    JsonArray nodes = glb.array("nodes");
+    int nodeCount = nodes.size();
+    for (int i = 0; i < nodeCount; i++) {
+      JsonObject node = nodes.get(i).getAsJsonObject();
+      if (!node.has("mesh") || node.get("mesh").getAsInt() != mesh) {
+        continue;
+      }
+      node.remove("mesh");
+      JsonObject child = new JsonObject();
+      child.addProperty("mesh", mesh);
+      child.add("translation", Glb.toJson(min));
+      child.add("scale", Glb.toJson(new float[] {extent, extent, extent}));
+      nodes.add(child);
+      if (!node.has("children")) {
+        node.add("children", new JsonArray());
+      }
+      node.getAsJsonArray("children").add(nodes.size() - 1);
+    }
+  }
+
+  /**
+   * Encodes unit vectors as octahedral pairs of signed {@code bits}-bit integers, choosing for each
+   * vector the rounding of the pair that decodes closest to it.
+   */
+  static short[] encodeOctahedral(float[] normals, int bits) {
+    int levels = (1 << (bits - 1)) - 1;
+    int count = normals.length / 3;
+    short[] encoded = new short[count * 2];
+    float[] candidate = new float[2];
+    for (int i = 0; i < count; i++) {
+      float x = normals[i * 3];
+      float y = normals[i * 3 + 1];
+      float z = normals[i * 3 + 2];
+      float sum = Math.abs(x) + Math.abs(y) + Math.abs(z);
+      if (sum == 0f) {
+        sum = 1f;
+        z = 1f;
+      }
+      float u = x / sum;
+      float v = y / sum;
+      if (z < 0) {
+        float foldedU = (1 - Math.abs(v)) * (u >= 0 ? 1 : -1);
+        v = (1 - Math.abs(u)) * (v >= 0 ? 1 : -1);
+        u = foldedU;
+      }
+      float bestDot = -2f;
+      for (int corner = 0; corner < 4; corner++) {
+        int qu = (int) Math.floor(u * levels) + (corner & 1);
+        int qv = (int) Math.floor(v * levels) + (corner >> 1);
+        qu = Math.max(-levels, Math.min(levels, qu));
+        qv = Math.max(-levels, Math.min(levels, qv));
+        candidate[0] = (float) qu / levels;
+        candidate[1] = (float) qv / levels;
+        float[] decoded = VertexDequantizer.decodeOctahedral(candidate);
+        float dot = (decoded[0] * x + decoded[1] * y + decoded[2] * z) / sum;
+        if (dot > bestDot) {
+          bestDot = dot;
+          encoded[i * 2] = (short) qu;
+          encoded[i * 2 + 1] = (short) qv;
+        }
+      }
+    }
+    return encoded;
+  }
+
+  private static float[] dequantize(short[] values, int bits) {
+    int levels = (1 << (bits - 1)) - 1;
+    float[] floats = new float[values.length];
+    for (int i = 0; i < values.length; i++) {
+      floats[i] = (float) values[i] / levels;
+    }
+    return floats;
+  }
+
+  private static JsonArray normalizedBounds(int[] quantized) {
+    float[] bounds = new float[quantized.length];
+    for (int i = 0; i < quantized.length; i++) {
+      bounds[i] = (float) quantized[i] / POSITION_LEVELS;
+    }
+    return Glb.toJson(bounds);
+  }
+
+  private static void copyAttribute(JsonObject from, JsonObject to, String attribute) {
+    if (from.has(attribute)) {
+      to.add(attribute, from.get(attribute));
+    }
+  }
+
+  private static JsonObject position(Glb glb, JsonElement primitive) {
+    return glb.accessor(
+        primitive.getAsJsonObject().getAsJsonObject("attributes").get("POSITION").getAsInt());
+  }
+
+  private static void addExtension(Glb glb, String name) {
+    for (String list : new String[] {"extensionsUsed", "extensionsRequired"}) {
+      JsonArray extensions = glb.array(list);
+      if (!extensions.contains(new JsonPrimitive(name))) {
+        extensions.add(name);
+      }
+      glb.json.add(list, extensions);
+    }
+  }
+
+  /** Records the largest differences between the vertex data of two models with equal meshes. */
+  private static void compare(Glb original, Glb expanded, Report report) {
+    ByteBuffer originalData = original.data();
+    ByteBuffer expandedData = expanded.data();
+    float[] min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+    float[] max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+    JsonArray originalMeshes = original.array("meshes");
+    JsonArray expandedMeshes = expanded.array("meshes");
+    for (int mesh = 0; mesh < originalMeshes.size(); mesh++) {
+      JsonArray originalPrimitives =
+          originalMeshes.get(mesh).getAsJsonObject().getAsJsonArray("primitives");
+      JsonArray expandedPrimitives =
+          expandedMeshes.get(mesh).getAsJsonObject().getAsJsonArray("primitives");
+      for (int p = 0; p < originalPrimitives.size(); p++) {
+        JsonObject before = attributes(originalPrimitives, p);
+        JsonObject after = attributes(expandedPrimitives, p);
+        for (String attribute : new String[] {"POSITION", "NORMAL", "COLOR_0"}) {
+          if (!before.has(attribute)) {
+            continue;
+          }
+          JsonObject beforeAccessor = original.accessor(before.get(attribute).getAsInt());
+          JsonObject afterAccessor = expanded.accessor(after.get(attribute).getAsInt());
+          float[] a = original.readFloats(originalData, beforeAccessor);
+          float[] b = expanded.readFloats(expandedData, afterAccessor);
+          switch (attribute) {
+            case "POSITION":
+              for (int i = 0; i < a.length; i++) {
+                min[i % 3] = Math.min(min[i % 3], a[i]);
+                max[i % 3] = Math.max(max[i % 3], a[i]);
+              }
+              for (int i = 0; i < a.length; i += 3) {
+                double dx = a[i] - b[i];
+                double dy = a[i + 1] - b[i + 1];
+                double dz = a[i + 2] - b[i + 2];
+                report.positionError =
+                    Math.max(report.positionError, Math.sqrt(dx * dx + dy * dy + dz * dz));
+              }
+              break;
+            case "NORMAL":
+              report.normalErrorDegrees =
+                  Math.max(report.normalErrorDegrees, maxAngleDegrees(a, b));
+              break;
+            default:
+              for (int i = 0; i < a.length; i++) {
+                double clamped = Math.max(0f, Math.min(1f, a[i]));
+                report.colorError = Math.max(report.colorError, Math.abs(clamped - b[i]) * 255);
+              }
+              break;
+          }
+        }
+      }
+    }
+    double squared = 0;
+    for (int axis = 0; axis < 3; axis++) {
+      if (max[axis] >= min[axis]) {
+        squared += (max[axis] - min[axis]) * (double) (max[axis] - min[axis]);
+      }
+    }
+    report.diagonal = Math.sqrt(squared);
+  }
+
+  private static JsonObject attributes(JsonArray primitives, int index) {
+    return primitives.get(index).getAsJsonObject().getAsJsonObject("attributes");
+  }
+
+  private static double maxAngleDegrees(float[] a, float[] b) {
+    double max = 0;
+    for (int i = 0; i < a.length; i += 3) {
+      double lengths = length(a, i) * length(b, i);
+      if (lengths == 0) {
+        continue;
+      }
+      double dot = (a[i] * b[i] + a[i + 1] * b[i + 1] + a[i + 2] * b[i + 2]) / lengths;
+      max = Math.max(max, Math.toDegrees(Math.acos(Math.max(-1, Math.min(1, dot)))));
+    }
+    return max;
+  }
+
+  private static double length(float[] vectors, int offset) {
+    float x = vectors[offset];
+    float y = vectors[offset + 1];
+    float z = vectors[offset + 2];
+    return Math.sqrt(x * x + y * y + z * z);
+  }
+
+
+  /** Bytes of vertex attribute data the meshes of a model refer to, as stored. */
+  private static long vertexBytes(Glb glb) {
+    Map<Integer, Long> accessors = new HashMap<>();
+    for (JsonElement mesh : glb.array("meshes")) {
+      for (JsonElement primitive : mesh.getAsJsonObject().getAsJsonArray("primitives")) {
+        JsonObject attributes = primitive.getAsJsonObject().getAsJsonObject("attributes");
+        for (Map.Entry<String, JsonElement> attribute : attributes.entrySet()) {
+          JsonObject accessor = glb.accessor(attribute.getValue().getAsInt());
+          accessors.put(
+              attribute.getValue().getAsInt(),
+              accessor.get("count").getAsLong() * Glb.padded(Glb.elementBytes(accessor)));
+        }
+      }
+    }
+    long total = 0;
+    for (long bytes : accessors.values()) {
+      total += bytes;
+    }
+    return total;
+  }
+
+  private static long gzipSize(File file) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+      Files.copy(file.toPath(), gzip);
+    }
+    return bytes.size();
+  }
+}